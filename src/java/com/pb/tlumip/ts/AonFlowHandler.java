@@ -34,10 +34,6 @@ public class AonFlowHandler implements AonFlowHandlerIF {
     protected static Logger logger = Logger.getLogger(AonFlowHandler.class);
 
 
-    // set the frequency with which the shared class is polled to see if all threads have finshed their work.
-//    static final int POLLING_FREQUENCY_IN_SECONDS = 10;
-    static final int POLLING_FREQUENCY_IN_SECONDS = 1;
-    
     static String rpcConfigFile = null;
     
     int networkNumLinks;
@@ -113,7 +109,7 @@ public class AonFlowHandler implements AonFlowHandlerIF {
             dh.writeDistrictReport ( reportFileName );
         
         logger.info( "setting up SpBuildLoadHandlers." );
-        sp = setupSpBuildLoadHandlers( dh.getTripTableRowSums(), dh.getMulticlassTripTables() );
+        sp = setupSpBuildLoadHandlers( dh.getTripTableRowSums(), dh.getMulticlassSparseTripTables() );
         
         return true;
         
@@ -152,17 +148,21 @@ public class AonFlowHandler implements AonFlowHandlerIF {
     
     private double[][] runSpBuildLoadHandlers() {
 
+        long startTime = System.currentTimeMillis();
         
         // start each handler working on the new workQueue
+        double[] linkCost = nh.setLinkGeneralizedCost();
         for ( int i=0; i < sp.length; i++ ) {
-            sp[i].start( nh.setLinkGeneralizedCost() );
+            sp[i].start( linkCost );
         }
 
+        long startedTime = System.currentTimeMillis();
 
-        // wait for all SpBuildLoadHandlers to ave indicated they are finished.
+        // wait for all SpBuildLoadHandlers to have indicated they are finished.
         logger.info( "AonFlowHandler waiting for all started SpBuildLoadHandlers to finish." );
-        waitForAllHandlers();
+        double[][] computeSeconds = waitForAllHandlers();
 
+        long finishedTime = System.currentTimeMillis();
         
         // all SpBuildLoadHandlers are finished, so get results.
         double[][] aonFlow = new double[networkNumUserClasses][networkNumLinks];
@@ -175,12 +175,43 @@ public class AonFlowHandler implements AonFlowHandlerIF {
             
         }
         
+        logTimings( startedTime - startTime, finishedTime - startedTime, System.currentTimeMillis() - finishedTime, computeSeconds );
+        
         return aonFlow;
         
     }
     
     
-    private SpBuildLoadHandlerIF[] setupSpBuildLoadHandlers( double[][] tripTableRowSums, double[][][] multiclassDemandMatrices ) {
+    // report the time spent starting handlers, waiting for them and combining their results, along with the
+    // time their threads spent computing, so idle time in the wait can be seen.
+    private void logTimings( long startMillis, long waitMillis, long combineMillis, double[][] computeSeconds ) {
+        
+        double waitSeconds = waitMillis / 1000.0;
+        logger.info( String.format( "AonFlowHandler timing: start=%.3f, wait=%.3f, combine=%.3f seconds.", startMillis / 1000.0, waitSeconds, combineMillis / 1000.0 ) );
+        
+        for ( int i=0; i < computeSeconds.length; i++ ) {
+            
+            if ( computeSeconds[i] == null || computeSeconds[i].length == 0 )
+                continue;
+            
+            double min = Double.MAX_VALUE;
+            double max = 0.0;
+            double total = 0.0;
+            for ( double seconds : computeSeconds[i] ) {
+                min = Math.min( min, seconds );
+                max = Math.max( max, seconds );
+                total += seconds;
+            }
+            
+            double utilization = ( waitSeconds > 0.0 ? total / ( waitSeconds * computeSeconds[i].length ) : 1.0 );
+            logger.info( String.format( "    handler %d: %d threads computed min=%.3f, max=%.3f, avg=%.3f seconds, %.1f%% of wait time busy.", i, computeSeconds[i].length, min, max, total / computeSeconds[i].length, 100.0*Math.min( utilization, 1.0 ) ) );
+            
+        }
+        
+    }
+    
+    
+    private SpBuildLoadHandlerIF[] setupSpBuildLoadHandlers( double[][] tripTableRowSums, SparseTripTable[] multiclassDemandMatrices ) {
 
         // get the specific handler names from the config file that begin with the SpBuildLoadHandler handler name.
         String[] spHandlerNames = null;
@@ -214,18 +245,35 @@ public class AonFlowHandler implements AonFlowHandlerIF {
         }
             
         
-        // get the list of [userclass, origin taz] work elements and distribute work elements by handler and threads in handlers
-        int [][][][] workElementsArray = getWorkElementsArray( handlerThreads, totalThreads, tripTableRowSums );        
+        // get the list of packed [userclass, origin taz] work elements and distribute work elements by handler
+        int[][] workElementsArray = getWorkElementsArray( handlerThreads, totalThreads, tripTableRowSums );        
         
-        // get the demand table row arrays associated with each work element
-        double[][][][] workElementsDemand = getWorkElementDemand ( workElementsArray, multiclassDemandMatrices );
+        // get the demand table rows associated with each work element
+        SparseTripTable[] workElementsDemand = getWorkElementDemand ( workElementsArray, multiclassDemandMatrices );
         
         
         
+        // handlers in other VMs read the network arrays from a snapshot file written by NetworkHandler if one
+        // was configured and they can read it; otherwise, and for a handler in this VM, the arrays are passed in setup().
+        String networkSnapshotFile = null;
+        for ( int i=0; i < spHandlerNames.length; i++ ) {
+            if ( sp[i] instanceof SpBuildLoadHandlerRpc ) {
+                networkSnapshotFile = nh.writeNetworkSnapshot();
+                break;
+            }
+        }
+        
         // for each handler name, create a SpBuildLoadHandler, set it up, and start it running
         int returnCount = 0;
         for ( int i=0; i < spHandlerNames.length; i++ ) {
-            returnCount += sp[i].setup( spHandlerNames[i], rpcConfigFile, workElementsArray[i], workElementsDemand[i], nh.getNumUserClasses(), nh.getLinkCount(), nh.getNodeCount(), nh.getNumCentroids(), nh.getIa(), nh.getIb(), nh.getIpa(), nh.getSortedLinkIndexA(), nh.getIndexNode(), nh.getNodeIndex(), nh.getCentroid(), nh.getValidLinksForAllClasses(), nh.setLinkGeneralizedCost(), nh.getTurnPenaltyIndices(), nh.getTurnPenaltyArray() );
+            if ( networkSnapshotFile != null && sp[i] instanceof SpBuildLoadHandlerRpc ) {
+                int snapshotCount = sp[i].setupFromSnapshot( spHandlerNames[i], rpcConfigFile, workElementsArray[i], workElementsDemand[i], networkSnapshotFile, nh.setLinkGeneralizedCost(), nh.getShortestPathHeapType(), nh.getShortestPathLoadMethod(), nh.getSavedShortestPathTreeMegabytes() );
+                if ( snapshotCount > 0 ) {
+                    returnCount += snapshotCount;
+                    continue;
+                }
+            }
+            returnCount += sp[i].setup( spHandlerNames[i], rpcConfigFile, workElementsArray[i], workElementsDemand[i], nh.getNumUserClasses(), nh.getLinkCount(), nh.getNodeCount(), nh.getNumCentroids(), nh.getIa(), nh.getIb(), nh.getIpa(), nh.getSortedLinkIndexA(), nh.getIndexNode(), nh.getNodeIndex(), nh.getCentroid(), nh.getValidLinksForAllClasses(), nh.setLinkGeneralizedCost(), nh.getTurnPenaltyIndices(), nh.getTurnPenaltyArray(), nh.getShortestPathHeapType(), nh.getShortestPathLoadMethod(), nh.getSavedShortestPathTreeMegabytes() );
         }
 
 
@@ -234,58 +282,49 @@ public class AonFlowHandler implements AonFlowHandlerIF {
     }
     
     
-    private void waitForAllHandlers() {
+    private double[][] waitForAllHandlers() {
         
-        // wait here until all distributed handlers have indicated they are finished.
-        while ( getNumberOfHandlersCompleted () < sp.length ) {
-
-            try {
-                Thread.sleep( POLLING_FREQUENCY_IN_SECONDS*1000 );
-            }
-            catch (InterruptedException e){
-                logger.error ( "exception thrown waiting for all SpBuildLoadHandlers to finish.", e);
-            }
+        // each call blocks until that handler's threads have all published their flows, so the loop
+        // returns as soon as the last handler is finished.
+        double[][] computeSeconds = new double[sp.length][];
+        for ( int i=0; i < sp.length; i++ ) {
+            computeSeconds[i] = sp[i].waitForCompletion();
             
+            // a remote handler returns null if its wait failed, in which case its flows are incomplete.
+            if ( computeSeconds[i] == null ) {
+                logger.error ( String.format( "SpBuildLoadHandler %d of %d did not finish building and loading shortest path trees.", i, sp.length ) );
+                throw new RuntimeException();
+            }
         }
         
-    }
-
-
-    
-    private int getNumberOfHandlersCompleted () {
-
-        int numHandlersCompleted = 0;
-        for ( int i=0; i < sp.length; i++ ) {
-            if ( sp[i].handlerIsFinished() )
-                numHandlersCompleted++;
-        }
-
-        return numHandlersCompleted;
+        return computeSeconds;
         
     }
 
     
     
-    // Work elements consist of a [user class, origin taz].
+    // Work elements consist of a [user class, origin taz] packed into a single int.
     // There will by numUserClasses*numCentroids total potential work elements.
     // A work element will be created only if there is demand from the origin taz for the user class.
-    // This list will be divided up among the available SpBuildLoadHandler worker threads.
-    private int[][][][] getWorkElementsArray( int[] handlerThreads, int totalThreads, double[][] tripTableRowSums ) {
-
-        // create an array of work elements to be split up and distributed to work handlers
-        int[][] workElements = new int[networkNumUserClasses*networkNumCentroids][networkNumCentroids];
+    // This list will be divided up among the available SpBuildLoadHandlers in proportion to their number of threads.
+    private int[][] getWorkElementsArray( int[] handlerThreads, int totalThreads, double[][] tripTableRowSums ) {
 
+        // count the work elements first so that the list is sized to the number of elements rather than potential elements
         int numberElements=0;
         for (int m=0; m < networkNumUserClasses; m++) {
             for (int i=0; i < networkNumCentroids; i++) {
-
-                if (tripTableRowSums[m][i] > 0.0) {
-                    workElements[numberElements][0] = m;
-                    workElements[numberElements][1] = i;
+                if (tripTableRowSums[m][i] > 0.0)
                     numberElements++;
+            }
+        }
 
-                }
-                
+        int[] workElements = new int[numberElements];
+        
+        int e=0;
+        for (int m=0; m < networkNumUserClasses; m++) {
+            for (int i=0; i < networkNumCentroids; i++) {
+                if (tripTableRowSums[m][i] > 0.0)
+                    workElements[e++] = SpBuildLoadCommon.packWorkElement( m, i );
             }
         }
 
@@ -293,30 +332,21 @@ public class AonFlowHandler implements AonFlowHandlerIF {
         int numberElementsPerThread = numberElements/totalThreads;
         int remainder = numberElements - numberElementsPerThread*totalThreads;
 
-        // return the work elements array - int[numHandlers][numThreads][numElements][2]
-        int[][][][] returnElements = new int[handlerThreads.length][][][];
+        // return the work elements array - int[numHandlers][numElements]
+        int[][] returnElements = new int[handlerThreads.length][];
 
         int k = 0;
         int r = 0;
         for (int i=0; i < handlerThreads.length; i++) {
             
-            returnElements[i] = new int[handlerThreads[i]][][];
-
-            for (int j=0; j < handlerThreads[i]; j++) {
-                int dimension = numberElementsPerThread;
-                if ( r < remainder ) {
-                    dimension++;
-                    r++;
-                }
-                returnElements[i][j] = new int[dimension][2];
-
-                for (int m=0; m < dimension; m++) {
-                    returnElements[i][j][m][0] = workElements[k][0];
-                    returnElements[i][j][m][1] = workElements[k][1];
-                    k++;
-                }
-                
-            }
+            int dimension = numberElementsPerThread*handlerThreads[i];
+            int extra = Math.min( handlerThreads[i], remainder - r );
+            dimension += extra;
+            r += extra;
+            
+            returnElements[i] = new int[dimension];
+            System.arraycopy( workElements, k, returnElements[i], 0, dimension );
+            k += dimension;
             
         }
         
@@ -326,41 +356,27 @@ public class AonFlowHandler implements AonFlowHandlerIF {
 
     
     
-    // create a ragged array of demand matrix rows of trips for each work element that will be distributed to handlers and subsequently handler threads.
+    // create a sparse table of the demand matrix rows of trips for each work element that will be distributed to handlers.
+    // only the non-zero trips are copied, so the tables are small enough to send to handlers in other VMs.
     // the work elemnts don't change, so these can be set once in the SpBuildLoadHandlers and reused each time a new shortest path tree is loaded.
-    double [][][][] getWorkElementDemand ( int[][][][] workElementArray, double[][][] multiclassDemandMatrices ) {
+    SparseTripTable[] getWorkElementDemand ( int[][] workElementArray, SparseTripTable[] multiclassDemandMatrices ) {
     
-        double [][][][] demandPerElement = new double[workElementArray.length][][][];
+        SparseTripTable[] demandPerElement = new SparseTripTable[workElementArray.length];
         
         // loop over handlers
         for (int i=0; i < workElementArray.length; i++) {
             
-            demandPerElement[i] = new double[workElementArray[i].length][][];
-            
-            // loop over threads per handler
-            for (int j=0; j < workElementArray[i].length; j++) {
-                
-                demandPerElement[i][j] = new double[workElementArray[i][j].length][];
-
-                // loop over work elements per thread per handler
-                for (int m=0; m < workElementArray[i][j].length; m++) {
-                    
-                    int userclass =  workElementArray[i][j][m][0];
-                    int origTaz =  workElementArray[i][j][m][1];
-
-                    demandPerElement[i][j][m] = new double[multiclassDemandMatrices[userclass][origTaz].length];
-
-                    // loop over columns in the demand matrix row associated with the userclass and origin taz defined in the work element
-                    for (int c=0; c < multiclassDemandMatrices[userclass][origTaz].length; c++) {
-                    
-                        demandPerElement[i][j][m][c] = multiclassDemandMatrices[userclass][origTaz][c];
-                        
-                    }
-                    
-                }
-                
+            int[] userclass = new int[workElementArray[i].length];
+            int[] origTaz = new int[workElementArray[i].length];
+
+            // loop over work elements per handler
+            for (int m=0; m < workElementArray[i].length; m++) {
+                userclass[m] = workElementArray[i][m] >>> SpBuildLoadCommon.ORIGIN_BITS;
+                origTaz[m] = workElementArray[i][m] & SpBuildLoadCommon.ORIGIN_MASK;
             }
             
+            demandPerElement[i] = new SparseTripTable( multiclassDemandMatrices, userclass, origTaz );
+            
         }
         
         return demandPerElement;
@@ -0,0 +1,308 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Binary encoding of the bulk primitive arrays returned by the TS handlers over rpc.
+ *
+ * The Rpc proxies receive large arrays (the trip tables returned by DemandHandler) as a
+ * single byte[] encoded by the handler, instead of as nested primitive arrays written
+ * by object serialization.  The encoding is a 7 byte header (element type, rank, flags,
+ * body length) followed by the body, in which every array is written as its int length
+ * (-1 for a null array) followed by its elements, or by its sub-arrays for ranks greater
+ * than one.  Element values are copied in bulk through nio buffer views.  The body is
+ * optionally compressed with a Deflater, which pays off for sparse trip tables but not
+ * for dense arrays such as link flows - see tests.RpcArrayTransportBenchmark.
+ */
+public class ArrayTransport {
+
+    static final byte INT_TYPE = 1;
+    static final byte FLOAT_TYPE = 2;
+    static final byte DOUBLE_TYPE = 3;
+
+    static final byte COMPRESSED_FLAG = 1;
+
+    static final int HEADER_SIZE = 7;
+
+
+
+    public static byte[] encode ( int[] values, boolean compress ) {
+        return encode ( values, INT_TYPE, 1, compress );
+    }
+
+    public static byte[] encode ( int[][][] values, boolean compress ) {
+        return encode ( values, INT_TYPE, 3, compress );
+    }
+
+    public static byte[] encode ( float[] values, boolean compress ) {
+        return encode ( values, FLOAT_TYPE, 1, compress );
+    }
+
+    public static byte[] encode ( double[] values, boolean compress ) {
+        return encode ( values, DOUBLE_TYPE, 1, compress );
+    }
+
+    public static byte[] encode ( double[][] values, boolean compress ) {
+        return encode ( values, DOUBLE_TYPE, 2, compress );
+    }
+
+    public static byte[] encode ( double[][][] values, boolean compress ) {
+        return encode ( values, DOUBLE_TYPE, 3, compress );
+    }
+
+
+
+    public static int[] decodeIntArray ( byte[] bytes ) {
+        return (int[])decode ( bytes, INT_TYPE, 1 );
+    }
+
+    public static int[][][] decodeInt3Array ( byte[] bytes ) {
+        return (int[][][])decode ( bytes, INT_TYPE, 3 );
+    }
+
+    public static float[] decodeFloatArray ( byte[] bytes ) {
+        return (float[])decode ( bytes, FLOAT_TYPE, 1 );
+    }
+
+    public static double[] decodeDoubleArray ( byte[] bytes ) {
+        return (double[])decode ( bytes, DOUBLE_TYPE, 1 );
+    }
+
+    public static double[][] decodeDouble2Array ( byte[] bytes ) {
+        return (double[][])decode ( bytes, DOUBLE_TYPE, 2 );
+    }
+
+    public static double[][][] decodeDouble3Array ( byte[] bytes ) {
+        return (double[][][])decode ( bytes, DOUBLE_TYPE, 3 );
+    }
+
+
+
+    private static byte[] encode ( Object values, byte type, int rank, boolean compress ) {
+
+        int bodySize = encodedSize ( values, type, rank );
+
+        ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + bodySize );
+        buffer.put( type );
+        buffer.put( (byte)rank );
+        buffer.put( compress ? COMPRESSED_FLAG : 0 );
+        buffer.putInt( bodySize );
+        put ( buffer, values, type, rank );
+
+        if ( ! compress )
+            return buffer.array();
+
+
+        Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+        deflater.setInput( buffer.array(), HEADER_SIZE, bodySize );
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( Math.max( 1024, bodySize/4 ) );
+        out.write( buffer.array(), 0, HEADER_SIZE );
+
+        byte[] chunk = new byte[64*1024];
+        while ( ! deflater.finished() ) {
+            int n = deflater.deflate( chunk );
+            out.write( chunk, 0, n );
+        }
+        deflater.end();
+
+        return out.toByteArray();
+
+    }
+
+
+    private static Object decode ( byte[] bytes, byte type, int rank ) {
+
+        if ( bytes == null )
+            return null;
+
+        ByteBuffer header = ByteBuffer.wrap( bytes, 0, HEADER_SIZE );
+        byte encodedType = header.get();
+        int encodedRank = header.get();
+        byte flags = header.get();
+        int bodySize = header.getInt();
+
+        if ( encodedType != type || encodedRank != rank )
+            throw new RuntimeException ( String.format("encoded array has type %d and rank %d, expected type %d and rank %d.", encodedType, encodedRank, type, rank) );
+
+        ByteBuffer body = null;
+        if ( ( flags & COMPRESSED_FLAG ) != 0 ) {
+
+            byte[] inflated = new byte[bodySize];
+            Inflater inflater = new Inflater();
+            inflater.setInput( bytes, HEADER_SIZE, bytes.length - HEADER_SIZE );
+            try {
+                int n = 0;
+                while ( n < bodySize && ! inflater.finished() ) {
+                    int count = inflater.inflate( inflated, n, bodySize - n );
+                    // all the input is given at once, so an inflater that stops for more input has a truncated body.
+                    if ( count == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+                        throw new RuntimeException ( String.format("compressed array body is truncated after inflating %d bytes, expected %d.", n, bodySize) );
+                    n += count;
+                }
+                if ( n != bodySize )
+                    throw new RuntimeException ( String.format("compressed array body inflated to %d bytes, expected %d.", n, bodySize) );
+            }
+            catch (DataFormatException e) {
+                throw new RuntimeException ( "compressed array body could not be inflated.", e );
+            }
+            finally {
+                inflater.end();
+            }
+            body = ByteBuffer.wrap( inflated );
+
+        }
+        else {
+
+            body = ByteBuffer.wrap( bytes, HEADER_SIZE, bodySize ).slice();
+
+        }
+
+        return get ( body, type, rank );
+
+    }
+
+
+
+    private static int encodedSize ( Object values, byte type, int rank ) {
+
+        if ( values == null )
+            return 4;
+
+        if ( rank == 1 )
+            return 4 + elementSize(type) * lengthOf( values, type );
+
+        Object[] subArrays = (Object[])values;
+        int size = 4;
+        for (int i=0; i < subArrays.length; i++)
+            size += encodedSize ( subArrays[i], type, rank-1 );
+        return size;
+
+    }
+
+
+    private static void put ( ByteBuffer buffer, Object values, byte type, int rank ) {
+
+        if ( values == null ) {
+            buffer.putInt( -1 );
+            return;
+        }
+
+        if ( rank > 1 ) {
+            Object[] subArrays = (Object[])values;
+            buffer.putInt( subArrays.length );
+            for (int i=0; i < subArrays.length; i++)
+                put ( buffer, subArrays[i], type, rank-1 );
+            return;
+        }
+
+        int length = lengthOf( values, type );
+        buffer.putInt( length );
+
+        switch ( type ) {
+            case INT_TYPE:
+                buffer.asIntBuffer().put( (int[])values );
+                break;
+            case FLOAT_TYPE:
+                buffer.asFloatBuffer().put( (float[])values );
+                break;
+            default:
+                buffer.asDoubleBuffer().put( (double[])values );
+                break;
+        }
+        buffer.position( buffer.position() + length*elementSize(type) );
+
+    }
+
+
+    private static Object get ( ByteBuffer buffer, byte type, int rank ) {
+
+        int length = buffer.getInt();
+        if ( length < 0 )
+            return null;
+
+        if ( rank > 1 ) {
+
+            Object[] subArrays = null;
+            switch ( type ) {
+                case INT_TYPE:
+                    subArrays = ( rank == 2 ? new int[length][] : new int[length][][] );
+                    break;
+                case FLOAT_TYPE:
+                    subArrays = ( rank == 2 ? new float[length][] : new float[length][][] );
+                    break;
+                default:
+                    subArrays = ( rank == 2 ? new double[length][] : new double[length][][] );
+                    break;
+            }
+
+            for (int i=0; i < length; i++)
+                subArrays[i] = get ( buffer, type, rank-1 );
+            return subArrays;
+
+        }
+
+        Object values = null;
+        switch ( type ) {
+            case INT_TYPE:
+                int[] intValues = new int[length];
+                buffer.asIntBuffer().get( intValues );
+                values = intValues;
+                break;
+            case FLOAT_TYPE:
+                float[] floatValues = new float[length];
+                buffer.asFloatBuffer().get( floatValues );
+                values = floatValues;
+                break;
+            default:
+                double[] doubleValues = new double[length];
+                buffer.asDoubleBuffer().get( doubleValues );
+                values = doubleValues;
+                break;
+        }
+        buffer.position( buffer.position() + length*elementSize(type) );
+
+        return values;
+
+    }
+
+
+    private static int lengthOf ( Object values, byte type ) {
+        switch ( type ) {
+            case INT_TYPE:
+                return ((int[])values).length;
+            case FLOAT_TYPE:
+                return ((float[])values).length;
+            default:
+                return ((double[])values).length;
+        }
+    }
+
+
+    private static int elementSize ( byte type ) {
+        return ( type == DOUBLE_TYPE ? 8 : 4 );
+    }
+
+}
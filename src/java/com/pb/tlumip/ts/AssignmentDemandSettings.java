@@ -0,0 +1,162 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts;
+
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * The trip list files, sample rate, period hours and report files from which DemandHandler builds the
+ * trip tables for a highway assignment period, read from the component and global properties.  Used by
+ * FW, which passes them to AonFlowHandler.setup(), and by BushAssignment, which sets up a DemandHandler itself.
+ */
+public class AssignmentDemandSettings {
+
+    protected static Logger logger = Logger.getLogger(AssignmentDemandSettings.class);
+
+    String timePeriod;
+
+    double ptSampleRate = 1.0;
+    int startHour = 0;
+    int endHour = 0;
+
+    String sdtFileName;
+    String ldtFileName;
+    String ctFileName;
+    String etFileName;
+
+    String summaryFile = null;
+    String demandOutputFile = null;
+
+
+
+    public AssignmentDemandSettings ( ResourceBundle componentRb, ResourceBundle globalRb, String timePeriod ) {
+
+        this.timePeriod = timePeriod;
+
+        String rateString = globalRb.getString( "pt.sample.rate" );
+        if ( rateString != null )
+            ptSampleRate = Double.parseDouble( rateString );
+
+
+        if ( timePeriod.equalsIgnoreCase( "ampeak" ) ) {
+            // get am peak period definitions from property files
+            startHour = Integer.parseInt( globalRb.getString( "am.peak.start") );
+            endHour = Integer.parseInt( globalRb.getString( "am.peak.end" ) );
+        }
+        else if ( timePeriod.equalsIgnoreCase( "pmpeak" ) ) {
+            // get pm peak period definitions from property files
+            startHour = Integer.parseInt( globalRb.getString( "pm.peak.start") );
+            endHour = Integer.parseInt( globalRb.getString( "pm.peak.end" ) );
+        }
+        else if ( timePeriod.equalsIgnoreCase( "mdoffpeak" ) ) {
+            // get md off-peak period definitions from property files
+            startHour = Integer.parseInt( globalRb.getString( "md.offpeak.start") );
+            endHour = Integer.parseInt( globalRb.getString( "md.offpeak.end" ) );
+        }
+        else if ( timePeriod.equalsIgnoreCase( "ntoffpeak" ) ) {
+            // get nt off-peak period definitions from property files
+            startHour = Integer.parseInt( globalRb.getString( "nt.offpeak.start") );
+            endHour = Integer.parseInt( globalRb.getString( "nt.offpeak.end" ) );
+        }
+
+
+        sdtFileName = globalRb.getString( "sdt.person.trips" );
+        ldtFileName = globalRb.getString( "ldt.vehicle.trips" );
+        ctFileName = globalRb.getString( "ct.truck.trips" );
+        etFileName = globalRb.getString( "et.truck.trips" );
+
+
+        try {
+            summaryFile = componentRb.getString("distDistDemand.summary");
+        }
+        catch (MissingResourceException e) {
+            // do nothing, filename can be null.
+        }
+
+        try {
+            demandOutputFile = componentRb.getString("demand.output.filename");
+        }
+        catch (MissingResourceException e) {
+            // do nothing, filename can be null.
+        }
+
+    }
+
+
+
+    /**
+     * Create a DemandHandler for the network, build its trip tables for the period and report them by district,
+     * as AonFlowHandler.setup() does for FW.
+     */
+    public DemandHandlerIF setupDemandHandler ( NetworkHandlerIF nh, char[] highwayModeCharacters ) {
+
+        logger.info( "requesting that demand matrices get built." );
+        DemandHandlerIF dh = DemandHandler.getInstance( nh.getRpcConfigFileName() );
+        dh.setup( nh.getUserClassPces(), demandOutputFile, sdtFileName, ldtFileName, ptSampleRate, ctFileName, etFileName, startHour, endHour, timePeriod, nh.getNumCentroids(), nh.getNumUserClasses(), nh.getIndexNode(), nh.getNodeIndex(), nh.getAlphaDistrictIndex(), nh.getDistrictNames(), nh.getAssignmentGroupChars(), highwayModeCharacters, nh.userClassesIncludeTruck() );
+        dh.buildHighwayDemandObject();
+        dh.logDistrictReport();
+
+        if ( summaryFile != null )
+            dh.writeDistrictReport ( summaryFile );
+
+        return dh;
+
+    }
+
+
+
+    public double getPtSampleRate () {
+        return ptSampleRate;
+    }
+
+    public int getStartHour () {
+        return startHour;
+    }
+
+    public int getEndHour () {
+        return endHour;
+    }
+
+    public String getSdtFileName () {
+        return sdtFileName;
+    }
+
+    public String getLdtFileName () {
+        return ldtFileName;
+    }
+
+    public String getCtFileName () {
+        return ctFileName;
+    }
+
+    public String getEtFileName () {
+        return etFileName;
+    }
+
+    public String getSummaryFile () {
+        return summaryFile;
+    }
+
+    public String getDemandOutputFile () {
+        return demandOutputFile;
+    }
+
+}
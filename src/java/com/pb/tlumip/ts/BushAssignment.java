@@ -0,0 +1,971 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Origin-based equilibrium assignment in the style of Dial's Algorithm B.
+ *
+ * Each user class and origin zone with trips has a bush, an acyclic set of links rooted at the origin
+ * which carries all of that origin's trips.  Each iteration, every bush is updated in parallel at fixed
+ * link costs: unused links are dropped, links which shorten the longest path through the bush are added,
+ * and flow is shifted from the longest used path to the shortest path to each node by Newton steps,
+ * repeating the sweep over the bush with the bush's own effect on its link costs linearized.
+ * The combined shift over all bushes is then scaled by a line search on the same objective as FW, so
+ * each iteration reduces the objective even though bushes are updated at the same time.
+ *
+ * The inputs and link flow outputs are the same as for FW.  The relative gap is (TSTT - SPTT)/TSTT, the share
+ * of the total travel cost that would be saved if all trips used shortest paths, rather than FW's relative
+ * gap between the objective and its lower bound, so it is set by BUSH_RELATIVE_GAP, which has no FW default.
+ * Turn penalties are not applied by this procedure, since bushes are defined on links and not on turns, so a
+ * network with turn penalties is only assigned if BUSH_IGNORE_TURN_PENALTIES is true.
+ */
+public class BushAssignment {
+
+    Logger logger = Logger.getLogger(BushAssignment.class);
+
+    static final double FLOW_EPSILON = 1.0e-08;
+    static final double COST_EPSILON = 1.0e-09;
+    static final double MIN_DERIVATIVE = 1.0e-06;
+    static final double DERIVATIVE_STEP_FRACTION = 0.01;
+    static final double MIN_DERIVATIVE_STEP = 0.1;
+    static final int MAX_SHIFT_SWEEPS = 10;
+
+    char[] highwayModeCharacters;
+
+    ResourceBundle componentRb;
+    ResourceBundle globalRb;
+
+    NetworkHandlerIF nh;
+
+    int numUserClasses;
+    int numLinks;
+    int numNodes;
+    int numZones;
+    int maxIters;
+    int numberOfThreads;
+
+    double relativeGap;
+
+    int[] ia;
+    int[] ib;
+    int[] ipa;
+    int[] sortedLinkIndexA;
+    int[] indexNode;
+    int[] nodeIndex;
+    boolean[] centroid;
+    boolean[][] validLinksForClasses;
+
+    String timePeriod;
+
+    Bush[] bushes;
+    SparseTripTable[] tripTables;
+
+    double[] totalFlow;
+    double[] linkCost;
+    double[] linkDerivative;
+
+    AtomicInteger nextBush = new AtomicInteger();
+
+
+
+    public BushAssignment () {
+    }
+
+
+    public void initialize ( ResourceBundle componentRb, ResourceBundle globalRb, NetworkHandlerIF nh, char[] highwayModeCharacters ) {
+
+        this.componentRb = componentRb;
+        this.globalRb = globalRb;
+        this.nh = nh;
+        this.highwayModeCharacters = highwayModeCharacters;
+
+        // use the FW iteration limit unless a bush specific one is given.
+        try {
+            maxIters = Integer.parseInt ( componentRb.getString( "BUSH_ITERATIONS" ) );
+        }
+        catch ( MissingResourceException e ) {
+            maxIters = Integer.parseInt ( componentRb.getString( "NUM_FW_ITERATIONS" ) );
+        }
+
+        // the bush relative gap is measured differently than the FW relative gap, so FW_RELATIVE_GAP is not used for it.
+        try {
+            relativeGap = Double.parseDouble ( componentRb.getString( "BUSH_RELATIVE_GAP" ) );
+        }
+        catch ( MissingResourceException e ) {
+            logger.error ( "BUSH_RELATIVE_GAP must be defined for bush based assignment.  It is compared to (TSTT - SPTT)/TSTT, not the (LUB - GLB)/GLB compared to FW_RELATIVE_GAP.", e );
+            throw new RuntimeException(e);
+        }
+
+        numberOfThreads = java.lang.Runtime.getRuntime().availableProcessors();
+
+        // get network related variables needed in BushAssignment object
+        numLinks = nh.getLinkCount();
+        numNodes = nh.getNodeCount();
+        numZones = nh.getNumCentroids();
+        numUserClasses = nh.getNumUserClasses();
+        validLinksForClasses = nh.getValidLinksForAllClasses();
+
+        ia = nh.getIa();
+        ib = nh.getIb();
+        ipa = nh.getIpa();
+        sortedLinkIndexA = nh.getSortedLinkIndexA();
+        indexNode = nh.getIndexNode();
+        nodeIndex = nh.getNodeIndex();
+        centroid = nh.getCentroid();
+
+        timePeriod = nh.getTimePeriod();
+
+        int[][] turnPenaltyIndices = nh.getTurnPenaltyIndices();
+        if ( turnPenaltyIndices != null && turnPenaltyIndices.length > 0 ) {
+
+            boolean ignoreTurnPenalties = false;
+            try {
+                ignoreTurnPenalties = Boolean.parseBoolean ( componentRb.getString( "BUSH_IGNORE_TURN_PENALTIES" ) );
+            }
+            catch ( MissingResourceException e ) {
+                // if this exception is caught, turn penalties were not explicitly ignored.
+            }
+
+            if ( ! ignoreTurnPenalties ) {
+                logger.error ( "turn penalties are defined for the " + timePeriod + " network, but are not applied in bush based assignment.  Set BUSH_IGNORE_TURN_PENALTIES=true to assign without them, or use FW for this period." );
+                throw new RuntimeException();
+            }
+
+            logger.warn ( "turn penalties are defined for the " + timePeriod + " network, but are ignored in bush based assignment since BUSH_IGNORE_TURN_PENALTIES is true." );
+
+        }
+
+    }
+
+
+
+    /**
+     * Bush based assignment procedure.
+     */
+    public void iterate () {
+
+        int iterationsCompleted = 0;
+
+        try {
+
+            // set validLinks true for a link if true for any of the classes of that link.
+            boolean[] validLinks = new boolean[numLinks];
+            Arrays.fill (validLinks, false);
+            for (int k=0; k < numLinks; k++) {
+                for (int m=0; m < numUserClasses; m++) {
+                    if (validLinksForClasses[m][k]) {
+                        validLinks[k] = true;
+                        break;
+                    }
+                }
+            }
+
+            tripTables = getMulticlassTripTables();
+            bushes = createBushes();
+            logger.info ( bushes.length + " bushes created for " + numUserClasses + " user classes." );
+
+
+            ExecutorService exec = Executors.newFixedThreadPool( numberOfThreads );
+            BushWorker[] workers = new BushWorker[numberOfThreads];
+            for (int i=0; i < numberOfThreads; i++)
+                workers[i] = new BushWorker();
+
+            totalFlow = new double[numLinks];
+            double[] totalLinkCost = nh.getTotalLinkCost();
+
+
+            // loop thru bush iterations
+            for (int iter=0; iter < maxIters; iter++) {
+
+                long startTime = System.currentTimeMillis();
+
+                linkCost = nh.setLinkGeneralizedCost();
+                if ( iter > 0 )
+                    linkDerivative = getLinkCostDerivatives();
+
+                runBushWorkers( exec, workers, iter );
+
+                if ( iter == 0 ) {
+
+                    // the first iteration loads each origin's trips on its shortest path tree.
+                    setTotalFlow();
+
+                    logger.info ("Iteration " + String.format("%3d", iter) + "    initial bushes loaded in " + ((System.currentTimeMillis() - startTime) / 1000.0) + " seconds." );
+
+                }
+                else {
+
+                    // sum the shifts by bush in a fixed order so results don't depend on thread scheduling.
+                    double[] direction = new double[numLinks];
+                    double sptt = 0.0;
+                    for (int b=0; b < bushes.length; b++) {
+                        sptt += bushes[b].shortestPathCost;
+                        for (int i=0; i < bushes[b].size; i++)
+                            direction[bushes[b].links[i]] += bushes[b].shift[i];
+                    }
+
+                    double tstt = 0.0;
+                    for (int k=0; k < numLinks; k++)
+                        if ( validLinks[k] )
+                            tstt += linkCost[k]*totalFlow[k];
+
+                    double gap = ( tstt - sptt ) / tstt;
+
+                    if ( Math.abs( gap ) < relativeGap ) {
+                        logger.info ("Iteration " + String.format("%3d", iter)
+                                + "    TSTT= "   + String.format("%16.4f", tstt)
+                                + "    SPTT= "   + String.format("%16.4f", sptt)
+                                + "    RelGap= " + String.format("%7.4f%%", 100.0*gap) );
+                        iterationsCompleted++;
+                        break;
+                    }
+
+                    double lambda = lineSearch( validLinks, totalLinkCost, direction );
+
+                    for (int b=0; b < bushes.length; b++)
+                        bushes[b].applyShift( lambda );
+
+                    // bush flows are clamped at zero separately, so the total is summed from them rather than stepped.
+                    setTotalFlow();
+
+                    logger.info ("Iteration " + String.format("%3d", iter)
+                            + "    Lambda= " + String.format("%8.4f", lambda)
+                            + "    TSTT= "   + String.format("%16.4f", tstt)
+                            + "    SPTT= "   + String.format("%16.4f", sptt)
+                            + "    RelGap= " + String.format("%7.4f%%", 100.0*gap)
+                            + "    Time= "   + String.format("%.1f", (System.currentTimeMillis() - startTime) / 1000.0) + " sec" );
+
+                }
+
+                nh.setVolau(totalFlow);
+                nh.applyVdfs();
+
+                iterationsCompleted++;
+
+            } // end of bush iter loop
+
+            exec.shutdown();
+
+
+            // set the class flows from the bushes and report them as FW does.
+            double[][] flow = new double[numUserClasses][numLinks];
+            for (int b=0; b < bushes.length; b++) {
+                for (int i=0; i < bushes[b].size; i++)
+                    flow[bushes[b].userClass][bushes[b].links[i]] += bushes[b].flows[i];
+            }
+
+            nh.setFlows(flow);
+            nh.setVolau(totalFlow);
+            nh.applyVdfs();
+
+            nh.logLinkTimeFreqs ();
+            nh.linkSummaryReport(flow);
+
+            logger.info ( iterationsCompleted + " bush assignment iterations completed." );
+
+            String myDateString = DateFormat.getDateTimeInstance().format(new Date());
+            logger.info ("done with bush based assignment: " + myDateString);
+
+        }
+        catch ( Exception e ) {
+            logger.error ( "Exception caught in BushAssignment.iterate().", e );
+            System.exit(1);
+        }
+
+    }
+
+
+
+    // sum the bush flows by link in a fixed order so results don't depend on thread scheduling.
+    private void setTotalFlow () {
+
+        Arrays.fill( totalFlow, 0.0 );
+        for (int b=0; b < bushes.length; b++) {
+            for (int i=0; i < bushes[b].size; i++)
+                totalFlow[bushes[b].links[i]] += bushes[b].flows[i];
+        }
+
+    }
+
+
+
+    SparseTripTable[] getMulticlassTripTables () {
+
+        // the DemandHandler is set up with the same trip list files, period hours and reports as FW uses.
+        AssignmentDemandSettings demand = new AssignmentDemandSettings( componentRb, globalRb, timePeriod );
+        DemandHandlerIF dh = demand.setupDemandHandler( nh, highwayModeCharacters );
+
+        return dh.getMulticlassSparseTripTables();
+
+    }
+
+
+
+    // create a bush for each user class and origin with trips
+    private Bush[] createBushes () {
+
+        ArrayList<Bush> bushList = new ArrayList<Bush>();
+
+        for (int m=0; m < numUserClasses; m++) {
+            int[] columns = tripTables[m].getColumns();
+            double[] values = tripTables[m].getValues();
+            for (int i=0; i < numZones; i++) {
+                double rowSum = 0.0;
+                for (int k=tripTables[m].getRowStart( i ); k < tripTables[m].getRowEnd( i ); k++)
+                    if ( columns[k] != i && columns[k] < numZones )
+                        rowSum += values[k];
+                if ( rowSum > 0.0 )
+                    bushList.add( new Bush( m, i ) );
+            }
+        }
+
+        return bushList.toArray( new Bush[bushList.size()] );
+
+    }
+
+
+
+    private void runBushWorkers ( ExecutorService exec, BushWorker[] workers, int iter ) throws Exception {
+
+        nextBush.set( 0 );
+
+        ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int i=0; i < workers.length; i++) {
+            workers[i].setIteration( iter );
+            results.add( exec.submit( workers[i] ) );
+        }
+
+        // get() rethrows any exception from a worker
+        for ( Future<Integer> result : results )
+            result.get();
+
+    }
+
+
+
+    /**
+     * Approximate the derivative of link generalized cost with respect to flow by evaluating the
+     * vdfs at slightly higher flows.  The network is left with the vdfs evaluated at the current flows.
+     */
+    private double[] getLinkCostDerivatives () {
+
+        double[] time = nh.getCongestedTime();
+
+        double[] step = new double[numLinks];
+        double[] perturbedFlow = new double[numLinks];
+        for (int k=0; k < numLinks; k++) {
+            step[k] = Math.max( DERIVATIVE_STEP_FRACTION*totalFlow[k], MIN_DERIVATIVE_STEP );
+            perturbedFlow[k] = totalFlow[k] + step[k];
+        }
+
+        nh.setVolau(perturbedFlow);
+        nh.applyVdfs();
+        double[] perturbedTime = nh.getCongestedTime();
+
+        double[] derivative = new double[numLinks];
+        for (int k=0; k < numLinks; k++)
+            derivative[k] = Math.max( (perturbedTime[k] - time[k])/step[k], MIN_DERIVATIVE );
+
+        nh.setVolau(totalFlow);
+        nh.applyVdfs();
+
+        return derivative;
+    }
+
+
+
+    //Bisection for the step along the combined bush shift which minimizes the objective.
+    private double lineSearch ( boolean[] validLinks, double[] totalLinkCost, double[] direction ) {
+
+        if ( lineSearchGap( 1.0, validLinks, totalLinkCost, direction ) <= 0 )
+            return 1.0;
+
+        double xleft = 0.0;
+        double xright = 1.0;
+        double x = 0.5;
+
+        int numBisectIterations = (int)(Math.log(1.0e-07)/Math.log(0.5) + 1.5);
+        for (int n=0; n < numBisectIterations; n++) {
+
+            double gap = lineSearchGap( x, validLinks, totalLinkCost, direction );
+
+            if (gap <= 0)
+                xleft = x;
+            else
+                xright = x;
+
+            x = (xleft + xright)/2.0;
+
+        }
+
+        return x;
+
+    }
+
+
+
+    private double lineSearchGap ( double x, boolean[] validLinks, double[] totalLinkCost, double[] direction ) {
+
+        double[] linkFlow = new double[numLinks];
+        for (int k=0; k < numLinks; k++)
+            linkFlow[k] = totalFlow[k] + x*direction[k];
+
+        nh.setVolau(linkFlow);
+        nh.applyVdfs();
+        double[] cTime = nh.getCongestedTime();
+
+        double gap = 0.0;
+        for (int k=0; k < numLinks; k++)
+            if ( validLinks[k] )
+                gap += ( cTime[k] + totalLinkCost[k] )*direction[k];
+
+        return gap;
+    }
+
+
+
+    /*-------------------- Inner classes --------------------*/
+
+    /**
+     * Links and link flows of the bush for one user class and origin.
+     */
+    class Bush {
+
+        int userClass;
+        int origin;
+        int size;
+        int[] links;
+        double[] flows;
+        double[] shift;
+        double shortestPathCost;
+
+
+        Bush ( int userClass, int origin ) {
+            this.userClass = userClass;
+            this.origin = origin;
+        }
+
+
+        void applyShift ( double lambda ) {
+            for (int i=0; i < size; i++) {
+                flows[i] += lambda*shift[i];
+                if ( flows[i] < FLOW_EPSILON )
+                    flows[i] = 0.0;
+            }
+            shift = null;
+        }
+
+    }
+
+
+
+    /**
+     * Worker which takes bushes from the shared counter until none are left.  Each worker has its own
+     * shortest path tree objects and node and link work arrays.
+     */
+    class BushWorker implements Callable<Integer> {
+
+        ShortestPathTreeH[] sp;
+
+        int iteration;
+
+        // position of a link in the bush being processed, or -1
+        int[] linkPosition;
+
+        // bush node set and topological order
+        int[] nodeMark;
+        int markId;
+        int[] bushNodes;
+        int numBushNodes;
+        int[] topoOrder;
+        int numTopo;
+        int[] inDegree;
+        int[] outCount;
+        int[] outStart;
+        int[] outFill;
+        int[] outLinks;
+
+        // labels within the bush
+        double[] minLabel;
+        double[] maxLabel;
+        double[] allMaxLabel;
+        int[] minPred;
+        int[] maxPred;
+
+        int[] pathMark;
+        int pathId;
+
+        // proposed bush link flows and costs, by position in the bush
+        double[] proposed;
+        double[] bushCost;
+        int[] addedLinks;
+
+
+        BushWorker () {
+
+            sp = new ShortestPathTreeH[numUserClasses];
+            for (int m=0; m < numUserClasses; m++) {
+                // turn penalties are left out so the trees agree with the bush path costs.
+                sp[m] = new ShortestPathTreeH( numLinks, numNodes, numZones, ia, ib, ipa, sortedLinkIndexA, indexNode, nodeIndex, centroid, null, null );
+                sp[m].setValidLinks( validLinksForClasses[m] );
+            }
+
+            linkPosition = new int[numLinks];
+            Arrays.fill( linkPosition, -1 );
+
+            nodeMark = new int[numNodes+1];
+            bushNodes = new int[numNodes+1];
+            topoOrder = new int[numNodes+1];
+            inDegree = new int[numNodes+1];
+            outCount = new int[numNodes+1];
+            outStart = new int[numNodes+1];
+            outFill = new int[numNodes+1];
+            outLinks = new int[numLinks];
+
+            minLabel = new double[numNodes+1];
+            maxLabel = new double[numNodes+1];
+            allMaxLabel = new double[numNodes+1];
+            minPred = new int[numNodes+1];
+            maxPred = new int[numNodes+1];
+            pathMark = new int[numNodes+1];
+
+            proposed = new double[numLinks];
+            bushCost = new double[numLinks];
+            addedLinks = new int[numLinks];
+
+        }
+
+
+        void setIteration ( int iteration ) {
+            this.iteration = iteration;
+        }
+
+
+        public Integer call () {
+
+            for (int m=0; m < numUserClasses; m++)
+                sp[m].setLinkCost( linkCost );
+
+            int count = 0;
+            int b;
+            while ( (b = nextBush.getAndIncrement()) < bushes.length ) {
+                processBush( bushes[b] );
+                count++;
+            }
+
+            return count;
+        }
+
+
+        private void processBush ( Bush bush ) {
+
+            // the origin's trips are the non-zero cells of its row in the sparse trip table.
+            SparseTripTable demand = tripTables[bush.userClass];
+            int[] destinations = demand.getColumns();
+            double[] trips = demand.getValues();
+            int rowStart = demand.getRowStart( bush.origin );
+            int rowEnd = demand.getRowEnd( bush.origin );
+
+            // the shortest path tree gives the shortest path cost for the gap, and the initial bush.
+            ShortestPathTreeH tree = sp[bush.userClass];
+            tree.buildTree( bush.origin );
+
+            double[] minCost = tree.getSkim( linkCost );
+            bush.shortestPathCost = 0.0;
+            for (int k=rowStart; k < rowEnd; k++) {
+                int j = destinations[k];
+                if ( j != bush.origin && j < numZones && trips[k] > 0 && minCost[j] != Double.NEGATIVE_INFINITY )
+                    bush.shortestPathCost += trips[k]*minCost[j];
+            }
+
+            if ( iteration == 0 )
+                initializeBush( bush, tree.getPredecessorLink(), destinations, trips, rowStart, rowEnd );
+            else
+                equilibrateBush( bush );
+
+        }
+
+
+        // the initial bush is the shortest path tree from the origin, loaded with the origin's trips.
+        private void initializeBush ( Bush bush, int[] predecessorLink, int[] destinations, double[] trips, int rowStart, int rowEnd ) {
+
+            int count = 0;
+            for (int n=0; n < numNodes; n++)
+                if ( predecessorLink[n] >= 0 )
+                    count++;
+
+            bush.links = new int[count];
+            bush.flows = new double[count];
+            bush.size = count;
+
+            count = 0;
+            for (int n=0; n < numNodes; n++) {
+                if ( predecessorLink[n] >= 0 ) {
+                    linkPosition[predecessorLink[n]] = count;
+                    bush.links[count++] = predecessorLink[n];
+                }
+            }
+
+            for (int d=rowStart; d < rowEnd; d++) {
+                int j = destinations[d];
+                if ( j != bush.origin && j < numZones && trips[d] > 0 ) {
+                    int k = predecessorLink[j];
+                    if ( k == -1 ) {
+                        logger.info ("no path from " + indexNode[bush.origin] + " to " + indexNode[j] + " for userClass " + bush.userClass );
+                        continue;
+                    }
+                    bush.flows[linkPosition[k]] += trips[d];
+                    while ( ia[k] != bush.origin ) {
+                        k = predecessorLink[ia[k]];
+                        bush.flows[linkPosition[k]] += trips[d];
+                    }
+                }
+            }
+
+            clearLinkPositions( bush );
+
+        }
+
+
+        private void equilibrateBush ( Bush bush ) {
+
+            for (int i=0; i < bush.size; i++)
+                linkPosition[bush.links[i]] = i;
+
+            // labels on the current bush decide which links are dropped and added
+            setTopologicalOrder( bush );
+            setProposedFlows( bush );
+            setLabels( bush );
+            removeUnusedLinks( bush );
+            addShortcutLinks( bush );
+
+            // labels on the updated bush decide the flow shifts.  Each sweep is relabeled with the flows
+            // proposed so far, so paths emptied by one sweep are no longer used in the next.
+            setTopologicalOrder( bush );
+            setProposedFlows( bush );
+            for (int s=0; s < MAX_SHIFT_SWEEPS; s++) {
+                setLabels( bush );
+                if ( ! shiftFlows( bush ) )
+                    break;
+            }
+
+            bush.shift = new double[bush.size];
+            for (int i=0; i < bush.size; i++)
+                bush.shift[i] = proposed[i] - bush.flows[i];
+
+            clearLinkPositions( bush );
+
+        }
+
+
+        private void setProposedFlows ( Bush bush ) {
+            for (int i=0; i < bush.size; i++) {
+                proposed[i] = bush.flows[i];
+                bushCost[i] = linkCost[bush.links[i]];
+            }
+        }
+
+
+        private void clearLinkPositions ( Bush bush ) {
+            for (int i=0; i < bush.size; i++)
+                linkPosition[bush.links[i]] = -1;
+        }
+
+
+        private void addBushNode ( int n ) {
+            if ( nodeMark[n] != markId ) {
+                nodeMark[n] = markId;
+                bushNodes[numBushNodes++] = n;
+            }
+        }
+
+
+        private void setTopologicalOrder ( Bush bush ) {
+
+            markId++;
+            numBushNodes = 0;
+            addBushNode( bush.origin );
+            for (int i=0; i < bush.size; i++) {
+                addBushNode( ia[bush.links[i]] );
+                addBushNode( ib[bush.links[i]] );
+            }
+
+            for (int i=0; i < numBushNodes; i++) {
+                inDegree[bushNodes[i]] = 0;
+                outCount[bushNodes[i]] = 0;
+            }
+
+            for (int i=0; i < bush.size; i++) {
+                outCount[ia[bush.links[i]]]++;
+                inDegree[ib[bush.links[i]]]++;
+            }
+
+            int pos = 0;
+            for (int i=0; i < numBushNodes; i++) {
+                int n = bushNodes[i];
+                outStart[n] = pos;
+                outFill[n] = pos;
+                pos += outCount[n];
+            }
+
+            for (int i=0; i < bush.size; i++) {
+                int k = bush.links[i];
+                outLinks[outFill[ia[k]]++] = k;
+            }
+
+            // Kahn's algorithm starting from the origin
+            int head = 0;
+            numTopo = 0;
+            topoOrder[numTopo++] = bush.origin;
+            while ( head < numTopo ) {
+                int n = topoOrder[head++];
+                for (int e=outStart[n]; e < outStart[n] + outCount[n]; e++) {
+                    int j = ib[outLinks[e]];
+                    if ( --inDegree[j] == 0 )
+                        topoOrder[numTopo++] = j;
+                }
+            }
+
+            if ( numTopo != numBushNodes ) {
+                String errorString = String.format( "bush for origin %d, userClass %d is not acyclic: %d of %d nodes ordered.", indexNode[bush.origin], bush.userClass, numTopo, numBushNodes );
+                throw new RuntimeException( errorString );
+            }
+
+        }
+
+
+        /**
+         * Shortest and longest path labels over all bush links, and the longest path label over links with proposed flow.
+         * A node with no used links entering takes its shortest path as its longest used path.
+         */
+        private void setLabels ( Bush bush ) {
+
+            for (int i=0; i < numBushNodes; i++) {
+                int n = bushNodes[i];
+                minLabel[n] = Double.POSITIVE_INFINITY;
+                maxLabel[n] = Double.NEGATIVE_INFINITY;
+                allMaxLabel[n] = Double.NEGATIVE_INFINITY;
+                minPred[n] = -1;
+                maxPred[n] = -1;
+            }
+            minLabel[bush.origin] = 0.0;
+            maxLabel[bush.origin] = 0.0;
+            allMaxLabel[bush.origin] = 0.0;
+
+            for (int t=0; t < numTopo; t++) {
+
+                int n = topoOrder[t];
+                if ( n != bush.origin && maxPred[n] == -1 ) {
+                    maxLabel[n] = minLabel[n];
+                    maxPred[n] = minPred[n];
+                }
+
+                for (int e=outStart[n]; e < outStart[n] + outCount[n]; e++) {
+                    int k = outLinks[e];
+                    int j = ib[k];
+                    double c = bushCost[linkPosition[k]];
+
+                    if ( minLabel[n] + c < minLabel[j] ) {
+                        minLabel[j] = minLabel[n] + c;
+                        minPred[j] = k;
+                    }
+                    if ( allMaxLabel[n] + c > allMaxLabel[j] )
+                        allMaxLabel[j] = allMaxLabel[n] + c;
+                    if ( proposed[linkPosition[k]] > FLOW_EPSILON && maxLabel[n] + c > maxLabel[j] ) {
+                        maxLabel[j] = maxLabel[n] + c;
+                        maxPred[j] = k;
+                    }
+                }
+            }
+
+        }
+
+
+        // drop links without flow, except those on the shortest path tree, which keep every node reachable.
+        private void removeUnusedLinks ( Bush bush ) {
+
+            int w = 0;
+            for (int i=0; i < bush.size; i++) {
+                int k = bush.links[i];
+                if ( bush.flows[i] > FLOW_EPSILON || minPred[ib[k]] == k ) {
+                    bush.links[w] = k;
+                    bush.flows[w] = bush.flows[i];
+                    linkPosition[k] = w;
+                    w++;
+                }
+                else {
+                    linkPosition[k] = -1;
+                }
+            }
+            bush.size = w;
+
+        }
+
+
+        /**
+         * Add links which reach a bush node more cheaply than its longest path through the bush.  Since the
+         * longest path labels increase along every bush link, these links cannot form a cycle.
+         */
+        private void addShortcutLinks ( Bush bush ) {
+
+            boolean[] validLinks = validLinksForClasses[bush.userClass];
+
+            int numAdded = 0;
+            for (int t=0; t < numTopo; t++) {
+
+                int n = topoOrder[t];
+
+                // centroids other than the origin are not used as intermediate nodes.
+                if ( n < numZones && n != bush.origin )
+                    continue;
+
+                int start = ipa[n];
+                if ( start == 0 && n > 0 )
+                    continue;
+                int offset = 1;
+                int end = ipa[n + offset++];
+                while ( end <= 0 && n + offset < ipa.length )
+                    end = ipa[n + offset++];
+
+                for (int i=start; i < end; i++) {
+                    int k = sortedLinkIndexA[i];
+                    if ( linkPosition[k] >= 0 || !validLinks[k] || nodeMark[ib[k]] != markId )
+                        continue;
+                    if ( allMaxLabel[n] + linkCost[k] < allMaxLabel[ib[k]] - COST_EPSILON )
+                        addedLinks[numAdded++] = k;
+                }
+            }
+
+            if ( numAdded > 0 ) {
+
+                int newSize = bush.size + numAdded;
+                bush.links = Arrays.copyOf( bush.links, newSize );
+                bush.flows = Arrays.copyOf( bush.flows, newSize );
+                for (int i=0; i < numAdded; i++) {
+                    bush.links[bush.size + i] = addedLinks[i];
+                    bush.flows[bush.size + i] = 0.0;
+                    linkPosition[addedLinks[i]] = bush.size + i;
+                }
+                bush.size = newSize;
+
+            }
+            else if ( bush.links.length > 2*bush.size ) {
+
+                bush.links = Arrays.copyOf( bush.links, bush.size );
+                bush.flows = Arrays.copyOf( bush.flows, bush.size );
+
+            }
+
+        }
+
+
+        /**
+         * Working back from the nodes farthest from the origin, move flow from the longest used path to the
+         * shortest path between the node and the point where the two paths meet, by the Newton step that
+         * equalizes their costs, limited by the flow on the longest path.  Returns false if no flow was shifted.
+         */
+        private boolean shiftFlows ( Bush bush ) {
+
+            boolean shifted = false;
+
+            for (int t=numTopo-1; t > 0; t--) {
+
+                int j = topoOrder[t];
+                if ( maxPred[j] == minPred[j] || maxPred[j] < 0 )
+                    continue;
+                if ( maxLabel[j] - minLabel[j] <= COST_EPSILON )
+                    continue;
+
+                // mark the shortest path back to the origin
+                pathId++;
+                int n = j;
+                while ( n != bush.origin ) {
+                    pathMark[n] = pathId;
+                    n = ia[minPred[n]];
+                }
+                pathMark[bush.origin] = pathId;
+
+                // follow the longest used path back to the first node on the shortest path
+                double maxCost = 0.0;
+                double maxDerivative = 0.0;
+                double maxShift = Double.POSITIVE_INFINITY;
+                n = j;
+                do {
+                    int k = maxPred[n];
+                    maxCost += bushCost[linkPosition[k]];
+                    maxDerivative += linkDerivative[k];
+                    maxShift = Math.min( maxShift, proposed[linkPosition[k]] );
+                    n = ia[k];
+                } while ( pathMark[n] != pathId );
+                int divergeNode = n;
+
+                double minCost = 0.0;
+                double minDerivative = 0.0;
+                n = j;
+                while ( n != divergeNode ) {
+                    int k = minPred[n];
+                    minCost += bushCost[linkPosition[k]];
+                    minDerivative += linkDerivative[k];
+                    n = ia[k];
+                }
+
+                if ( maxCost - minCost <= COST_EPSILON || maxShift <= FLOW_EPSILON )
+                    continue;
+
+                double delta = Math.min( maxShift, (maxCost - minCost)/(maxDerivative + minDerivative) );
+
+                n = j;
+                while ( n != divergeNode ) {
+                    int k = maxPred[n];
+                    proposed[linkPosition[k]] -= delta;
+                    bushCost[linkPosition[k]] -= delta*linkDerivative[k];
+                    n = ia[k];
+                }
+                n = j;
+                while ( n != divergeNode ) {
+                    int k = minPred[n];
+                    proposed[linkPosition[k]] += delta;
+                    bushCost[linkPosition[k]] += delta*linkDerivative[k];
+                    n = ia[k];
+                }
+
+                shifted = true;
+
+            }
+
+            return shifted;
+
+        }
+
+    }
+
+}
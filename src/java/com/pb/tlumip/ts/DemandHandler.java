@@ -26,7 +26,6 @@ package com.pb.tlumip.ts;
 import com.pb.models.pt.TripModeType;
 
 
-import com.pb.common.datafile.OLD_CSVFileReader;
 import com.pb.common.datafile.TableDataSet;
 
 import com.pb.common.rpc.DafNode;
@@ -36,12 +35,9 @@ import com.pb.common.matrix.Matrix;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.StringTokenizer;
 import java.util.TreeMap;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -62,6 +58,12 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
 
     public static final double AVERAGE_SR3P_AUTO_OCCUPANCY = 3.33;
     static final int MAX_TRUCK_CLASSES = 5;
+
+    // trip tables are mostly zeros, so they are deflated when encoded for rpc
+    static final boolean COMPRESS_RPC_TRIP_TABLES = true;
+    
+    // threads used to read the chunks of a PT trip list file
+    int numberOfThreads = java.lang.Runtime.getRuntime().availableProcessors();
     
     
     int maxDistrict;
@@ -88,7 +90,8 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
 
     float[] userClassPces;
 
-    double[][][] multiclassVehicleTripTable = null;
+    // the multiclass trip tables are held in sparse form, and dense tables are built from them when requested.
+    SparseTripTable[] multiclassVehicleTripTable = null;
     
     double[][] multiclassVehicleTripTableRowSums = null;
 
@@ -191,16 +194,23 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
             multiclassVehicleDistrictTable = new double[networkNumUserClasses][maxDistrict+1][maxDistrict+1];
             
             // read in the trip lists
-            multiclassVehicleTripTable = createMulticlassDemandMatrices ();
+            double[][][] multiclassTripTable = createMulticlassDemandMatrices ();
             
             
-            multiclassVehicleTripTableRowSums = new double[multiclassVehicleTripTable.length][multiclassVehicleTripTable[0].length];
+            multiclassVehicleTripTable = new SparseTripTable[multiclassTripTable.length];
+            multiclassVehicleTripTableRowSums = new double[multiclassTripTable.length][];
             
-            // summarize the trip table rows for each user class
-            for (i=0; i < multiclassVehicleTripTable.length; i++)
-                for (j=0; j < multiclassVehicleTripTable[i].length; j++)
-                    for (k=0; k < multiclassVehicleTripTable[i][j].length; k++)
-                        multiclassVehicleTripTableRowSums[i][j] += multiclassVehicleTripTable[i][j][k];
+            // keep the non-zero cells of the trip table for each user class and summarize its rows
+            for (i=0; i < multiclassTripTable.length; i++) {
+                multiclassVehicleTripTable[i] = new SparseTripTable( multiclassTripTable[i] );
+                multiclassTripTable[i] = null;
+
+                multiclassVehicleTripTableRowSums[i] = new double[multiclassVehicleTripTable[i].getNumRows()];
+                for (j=0; j < multiclassVehicleTripTableRowSums[i].length; j++)
+                    multiclassVehicleTripTableRowSums[i][j] = multiclassVehicleTripTable[i].getRowSum( j );
+
+                logger.info ( String.format("user class %d trip table has %d non-zero cells.", i, multiclassVehicleTripTable[i].getNonZeroCount()) );
+            }
             
             
             return true;
@@ -211,8 +221,8 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
             logger.error ("num zones = " + networkNumCentroids);
             logger.error ("error building multiclass od demand matrices for " + timePeriod + " period.");
             logger.error ("multiclassTripTable.length=" + multiclassVehicleTripTable.length);
-            logger.error ("multiclassTripTable[0].length=" + multiclassVehicleTripTable[0].length);
-            logger.error ("multiclassTripTable[0][0].length=" + multiclassVehicleTripTable[0][0].length);
+            logger.error ("multiclassTripTable[0].getNumRows()=" + multiclassVehicleTripTable[0].getNumRows());
+            logger.error ("multiclassTripTable[0].getNumColumns()=" + multiclassVehicleTripTable[0].getNumColumns());
             logger.error ("multiclassTripTableRowSums.length=" + multiclassVehicleTripTableRowSums.length);
             logger.error ("multiclassTripTableRowSums[0].length=" + multiclassVehicleTripTableRowSums[0].length);
             logger.error ("i=" + i + ", j=" + j + ", k=" + k, e);
@@ -224,7 +234,7 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
     
     
     public double[] getTripTableRow ( int userClass, int row ) {
-        return multiclassVehicleTripTable[userClass][row];
+        return multiclassVehicleTripTable[userClass].getRow( row );
     }
     
     
@@ -235,13 +245,26 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
     
     
     public double[][][] getMulticlassTripTables () {
+        double[][][] tripTables = new double[multiclassVehicleTripTable.length][][];
+        for (int m=0; m < tripTables.length; m++)
+            tripTables[m] = multiclassVehicleTripTable[m].getTable();
+        return tripTables;
+    }
+    
+    
+    public SparseTripTable[] getMulticlassSparseTripTables () {
         return multiclassVehicleTripTable;
     }
     
     
-    public double[][][] getMulticlassTripTablesRpc () {
+    public SparseTripTable[] getMulticlassSparseTripTablesRpc () {
+        return getMulticlassSparseTripTables();
+    }
+    
+    
+    public byte[] getMulticlassTripTablesRpc () {
         double[][][] tripTables = getMulticlassTripTables();
-        return tripTables;
+        return ArrayTransport.encode( tripTables, COMPRESS_RPC_TRIP_TABLES );
     }
     
     
@@ -357,6 +380,12 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
     }
 
     
+    public byte[] getTripTableForModeRpc ( String tripModeString ) {
+        double[][] tripTable = getTripTableForMode ( tripModeString );
+        return ArrayTransport.encode( tripTable, COMPRESS_RPC_TRIP_TABLES );
+    }
+
+    
     public double[][] getTripTablesForModes ( ArrayList<String> tripModes ) {
         
         double[][] sdtTripTable = getTripTableFromSdtLdtListsForModes ( tripModes, sdtFileName );
@@ -370,25 +399,27 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
         return sdtTripTable;
             
     }
+
+    
+    public byte[] getTripTablesForModesRpc ( ArrayList<String> tripModes ) {
+        double[][] tripTable = getTripTablesForModes ( tripModes );
+        return ArrayTransport.encode( tripTable, COMPRESS_RPC_TRIP_TABLES );
+    }
     
 
     private double[][] getTripTableFromSdtLdtListsForModes ( ArrayList<String> tripModes, String fileName ) {
         
         int orig;
         int dest;
-        int startTime;
         int o;
         int d;
         int totalValid = 0;
         int totalPeriod = 0;
         int total = 0;
+        int i;
         String mode;
         double totalVehicle = 0;
 
-        BufferedReader in = null;
-        String fileHeader = null;
-        String s;
-        
         double[][] tripTable = null;
         try {
             tripTable = new double[networkNumCentroids+1][networkNumCentroids+1];
@@ -403,146 +434,85 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
 
         
 
-        // open the SDT or LDT trip list file for reading
-        try {
-            if ( fileName != null && ! fileName.equals("") ) {
-                in = new BufferedReader(new FileReader(fileName));
-                fileHeader = in.readLine();
-            }
-            else {
-                new IOException("null input file name.");
-            }
-        }
-        catch (IOException e) {
-            logger.error ( "error opening person trip list file: " + fileName, e );
+        if ( fileName == null || fileName.equals("") ) {
+            logger.error ( "error opening person trip list file: " + fileName );
+            throw new RuntimeException();
         }
         
         
+        // the trip list is read once and cached for all periods and modes.  The zones of every trip are indexed,
+        // so a trip with a zone outside the network fails as it did when the file was read for each period.
+        TripListCache tripList = TripListCache.getPersonTripList( fileName, numberOfThreads );
 
-        // get the field indices for the fields we want to read
-        StringTokenizer st = new StringTokenizer(fileHeader, ",\n\r");
-        int[] intFieldFlags = new int[st.countTokens()];
-        int[] stringFieldFlags = new int[st.countTokens()];
-
-        int i =0;
-        while ( st.hasMoreTokens() ) {
-            s = st.nextToken();
-            if ( s.equals("origin") )
-                intFieldFlags[i] = 1;
-            else if ( s.equals("destination") )
-                intFieldFlags[i] = 2;
-            else if ( s.equals("tripStartTime") )
-                intFieldFlags[i] = 3;
-            else if ( s.equals("tripMode") )
-                stringFieldFlags[i] = 1;
-            i++;
-        }
+        int lineCount = tripList.getLineCount();
+        total = tripList.getTripCount();
         
-        // define values arrays for 3 ints and 1 String
-        int[] intValues = new int[3+1];
-        String[] stringValues = new String[1+1];
-                
+        String[] modes = tripList.getModes();
+        int[] modeTripCounts = tripList.getModeTripCounts();
 
-        
-        // parse fields for the values we were interested in.
-        int lineCount =0;
-        try {
-            
-            while ( (s = in.readLine()) != null) {
-                lineCount++;
-                
-                // get the int values
-                i = 0;
-                st = new StringTokenizer(s, ",\n\r");
-                while ( st.hasMoreTokens() ) {
-                    String stringValue = st.nextToken();
-                    if ( intFieldFlags[i] > 0 )
-                        intValues[intFieldFlags[i]] = (int)Float.parseFloat(stringValue);
-                    i++;
-                }
-                
-                // get the String values
-                i = 0;
-                st = new StringTokenizer(s, ",\n\r");
-                while ( st.hasMoreTokens() ) {
-                    String stringValue = st.nextToken();
-                    if ( stringFieldFlags[i] > 0 )
-                        stringValues[stringFieldFlags[i]] = stringValue;
-                    i++;
+        // flag the modes of the cached trips that are accumulated in the trip table
+        boolean[] tripModeSpecified = new boolean[modes.length];
+        for (int m=0; m < modes.length; m++) {
+            for (String tripMode : tripModes) {
+                if ( modes[m].equalsIgnoreCase(tripMode) ) {
+                    tripModeSpecified[m] = true;
+                    break;
                 }
-                
-                orig = intValues[1];
-                dest = intValues[2];
-                startTime = intValues[3];
-                mode = stringValues[1];
-                total++;
-
-                int value = 0;
-                if ( totalModeFreqMap.containsKey(mode) )
-                    value = (Integer)totalModeFreqMap.get(mode);
-                totalModeFreqMap.put ( mode, (value+1) );
+            }
+        }
 
+        
+        // SDT and LDT use vehicle class 0 (a).
+        double tripFactor = userClassPces[0];
 
-                // SDT and LDT use vehicle class 0 (a).
-                double tripFactor = userClassPces[0];
+        // highway trips are accumulated as vehicle trips
+        double[] modeTrips = new double[modes.length];
+        for (int m=0; m < modes.length; m++) {
+            if ( modes[m].equalsIgnoreCase(TripModeType.SR2.name()) )
+                modeTrips[m] = tripFactor/2.0;
+            else if ( modes[m].equalsIgnoreCase(TripModeType.SR3P.name()) )
+                modeTrips[m] = tripFactor/AVERAGE_SR3P_AUTO_OCCUPANCY;
+            else
+                modeTrips[m] = tripFactor;
+        }
+        
+        // accumulate all specified period and mode person trips.
+        int[] origins = tripList.getOrigins();
+        int[] destinations = tripList.getDestinations();
+        int[] startTimes = tripList.getStartTimes();
+        int[] tripModeIndices = tripList.getModeIndices();
+        int[] modePeriodCounts = new int[modes.length];
+        for (int t=0; t < total; t++) {
 
+            orig = origins[t];
+            dest = destinations[t];
+            o = networkNodeIndexArray[orig];
+            d = networkNodeIndexArray[dest];
 
+            if ( ! tripStartsInCurrentPeriod ( startTimes[t] ) )
+                continue;
 
-                o = networkNodeIndexArray[orig];
-                d = networkNodeIndexArray[dest];
-                
-                if ( tripStartsInCurrentPeriod ( startTime ) ) {
-                        
-                    // accumulate a frequency table of all trips within period by mode
-                    totalPeriod++;
-                    value = 0;
-                    if ( periodModeFreqMap.containsKey(mode) )
-                        value = (Integer)periodModeFreqMap.get(mode);
-                    periodModeFreqMap.put ( mode, (value+1) );
+            modePeriodCounts[tripModeIndices[t]]++;
 
-                
-                    // accumulate all specified period and mode person trips.
-                    // highway trips are accumulated as vehicle trips
-                    for (i=0; i < tripModes.size(); i++) {
-                        if ( ((String)tripModes.get(i)).equalsIgnoreCase( mode ) ) {
-                            
-                            double trips = 0.0;
-                            if ( mode.equalsIgnoreCase(TripModeType.SR2.name()) )
-                                trips = tripFactor/2.0;
-                            else if ( mode.equalsIgnoreCase(TripModeType.SR3P.name()) )
-                                trips = tripFactor/AVERAGE_SR3P_AUTO_OCCUPANCY;
-                            else
-                                trips = tripFactor;
-                            
-                            tripTable[o][d] += trips*ptSampleRate;
-                            totalValid++;
-
-                            // accumulate district/district trip summaries by user class
-                            multiclassVehicleDistrictTable[0][alphaDistrictIndex[orig]][alphaDistrictIndex[dest]] += trips*ptSampleRate;
-                            
-                            break;
-                        }
-                        
-                    }
+            if ( ! tripModeSpecified[tripModeIndices[t]] )
+                continue;
+            
+            double trips = modeTrips[tripModeIndices[t]];
+            
+            tripTable[o][d] += trips*ptSampleRate;
+            totalValid++;
 
-                }
-                        
-                
-            }
-        }
-        catch (NumberFormatException e) {
-            logger.error ( String.format("reading trip list file = %s.", fileName), e);
-            throw new RuntimeException();
-        }
-        catch (IOException e) {
-            logger.error ( String.format("reading trip list file = %s.", fileName), e);
-            throw new RuntimeException();
-        }
-        catch (Exception e) {
-            logger.error ( String.format("reading line %d of trip list file = %s.", lineCount, fileName), e);
-            throw new RuntimeException();
+            // accumulate district/district trip summaries by user class
+            multiclassVehicleDistrictTable[0][alphaDistrictIndex[orig]][alphaDistrictIndex[dest]] += trips*ptSampleRate;
+            
         }
 
+        for (int m=0; m < modes.length; m++) {
+            totalModeFreqMap.put ( modes[m], modeTripCounts[m] );
+            if ( modePeriodCounts[m] > 0 )
+                periodModeFreqMap.put ( modes[m], modePeriodCounts[m] );
+            totalPeriod += modePeriodCounts[m];
+        }
         logger.info("read " + lineCount + " lines from " + fileName + "." );
 
 
@@ -648,15 +618,13 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
 
 
 
-        // read the CT output file into a TableDataSet
-        OLD_CSVFileReader reader = new OLD_CSVFileReader();
-
+        // read the CT output file into a TableDataSet, cached for all periods
         TableDataSet table = null;
         int tripRecord = 0;
         try {
             if ( ctFileName != null && ! ctFileName.equals("") ) {
 
-                table = reader.readFile(new File( ctFileName ));
+                table = TripListCache.getTruckTripTable( ctFileName );
 
                 // traverse the trip list in the TableDataSet and aggregate trips to an o/d trip table
                 for (int i=0; i < table.getRowCount(); i++) {
@@ -769,15 +737,13 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
 
 
 
-        // read the ET output file into a TableDataSet
-        OLD_CSVFileReader reader = new OLD_CSVFileReader();
-
+        // read the ET output file into a TableDataSet, cached for all periods
         TableDataSet table = null;
         int tripRecord = 0;
         try {
             if ( etFileName != null && ! etFileName.equals("") ) {
 
-                table = reader.readFile(new File( etFileName ));
+                table = TripListCache.getTruckTripTable( etFileName );
 
                 // traverse the trip list in the TableDataSet and aggregate trips to an o/d trip table
                 for (int i=0; i < table.getRowCount(); i++) {
@@ -1002,5 +968,11 @@ public class DemandHandler implements DemandHandlerIF, Serializable {
         
     }
 
+
+    // release the trip lists cached for all periods once the last period has built its trip tables.
+    public int clearTripListCache () {
+        return TripListCache.clear();
+    }
+
     
 }
@@ -11,9 +11,11 @@ public interface DemandHandlerIF {
     public int logDistrictReport();
     public int writeDistrictReport ( String fileName );    
     public double[][][] getMulticlassTripTables();
+    public SparseTripTable[] getMulticlassSparseTripTables();
     public double[][] getTripTableRowSums();
     public double[] getTripTableRow(int userClass, int row);
     public double[][] getTripTableForMode ( String tripMode );
     public double[][] getTripTablesForModes ( ArrayList<String> tripModes );
+    public int clearTripListCache();
     
 }
@@ -167,7 +167,25 @@ public class DemandHandlerRpc implements DemandHandlerIF, Serializable {
         double[][][] returnArray = null;
         
         try {
-            returnArray = (double[][][])rc.execute(HANDLER_NAME+".getMulticlassTripTablesRpc", new Vector<Object>());
+            byte[] encodedArray = (byte[])rc.execute(HANDLER_NAME+".getMulticlassTripTablesRpc", new Vector<Object>());
+            returnArray = ArrayTransport.decodeDouble3Array( encodedArray );
+        } catch (RpcException e) {
+            logger.error( e );
+        } catch (IOException e) {
+            logger.error(  e );
+        }
+
+        return returnArray;
+
+    }
+    
+    
+    public SparseTripTable[] getMulticlassSparseTripTables () {
+
+        SparseTripTable[] returnArray = null;
+        
+        try {
+            returnArray = (SparseTripTable[])rc.execute(HANDLER_NAME+".getMulticlassSparseTripTablesRpc", new Vector<Object>());
         } catch (RpcException e) {
             logger.error( e );
         } catch (IOException e) {
@@ -203,7 +221,8 @@ public class DemandHandlerRpc implements DemandHandlerIF, Serializable {
         try {
             Vector<Object> params = new Vector<Object>();
             params.add(tripModes);
-            returnArray = (double[][])rc.execute(HANDLER_NAME+".getTripTablesForModes", params);
+            byte[] encodedArray = (byte[])rc.execute(HANDLER_NAME+".getTripTablesForModesRpc", params);
+            returnArray = ArrayTransport.decodeDouble2Array( encodedArray );
         } catch (RpcException e) {
             logger.error( e );
         } catch (IOException e) {
@@ -221,7 +240,8 @@ public class DemandHandlerRpc implements DemandHandlerIF, Serializable {
         try {
             Vector<Object> params = new Vector<Object>();
             params.add(tripMode);
-            returnArray = (double[][])rc.execute(HANDLER_NAME+".getTripTableForMode", params);
+            byte[] encodedArray = (byte[])rc.execute(HANDLER_NAME+".getTripTableForModeRpc", params);
+            returnArray = ArrayTransport.decodeDouble2Array( encodedArray );
         } catch (RpcException e) {
             logger.error( e );
         } catch (IOException e) {
@@ -232,4 +252,18 @@ public class DemandHandlerRpc implements DemandHandlerIF, Serializable {
 
     }
 
+    public int clearTripListCache() {
+        
+        int returnValue = -1;
+        try {
+            returnValue = (Integer)rc.execute(HANDLER_NAME+".clearTripListCache", new Vector<Object>());
+        } catch (RpcException e) {
+            logger.error( e.getCause().getMessage(), e );
+        } catch (IOException e) {
+            logger.error(  e );
+        }
+        return returnValue;
+        
+    }
+
 }
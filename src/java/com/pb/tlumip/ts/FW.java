@@ -36,6 +36,23 @@ public class FW {
 
     Logger logger = Logger.getLogger(FW.class);
 
+    // values for the FW_DIRECTION property
+    public static final String FW_DIRECTION = "fw";
+    public static final String CFW_DIRECTION = "cfw";
+    public static final String BFW_DIRECTION = "bfw";
+
+    // conjugate direction weights on the previous direction are kept below 1 - CONJUGATE_DELTA
+    static final double CONJUGATE_DELTA = 0.01;
+    static final double DERIVATIVE_STEP_FRACTION = 0.01;
+    static final double MIN_DERIVATIVE_STEP = 0.1;
+
+    // values for the FW_LINE_SEARCH property
+    public static final String BISECTION_LINE_SEARCH = "bisection";
+    public static final String SECANT_LINE_SEARCH = "secant";
+
+    // the secant line search stops when the objective derivative is this fraction of its value at the current flows
+    static final double LINE_SEARCH_GAP_TOLERANCE = 1.0e-06;
+
     char[] highwayModeCharacters;
     
     ResourceBundle componentRb;
@@ -44,6 +61,9 @@ public class FW {
     NetworkHandlerIF nh;
     
     double [] lambdas;
+    double [] relGaps;
+    double [] flowProportions;
+    int [] lineSearchSteps;
     
     int numAutoClasses;
     int numLinks;
@@ -53,6 +73,15 @@ public class FW {
     
     double fwGap;
 
+    String directionType;
+    String lineSearchType;
+    
+    // previous two search directions and their proportions of each iteration's AON flows, for CFW and BFW
+    double[][] prevTarget;
+    double[][] prevPrevTarget;
+    double[] prevTargetProportions;
+    double[] prevPrevTargetProportions;
+
     String timePeriod;
     String pathDiskObjectFile;
 
@@ -73,6 +102,24 @@ public class FW {
         fwGap = Double.parseDouble ( componentRb.getString( "FW_RELATIVE_GAP" ) );
 
         lambdas = new double[maxFwIters];
+        relGaps = new double[maxFwIters];
+        lineSearchSteps = new int[maxFwIters];
+
+        // the search direction is the AON flow unless conjugate or bi-conjugate directions are specified.
+        try {
+            setDirectionType( componentRb.getString( "FW_DIRECTION" ) );
+        }
+        catch ( MissingResourceException e ) {
+            directionType = FW_DIRECTION;
+        }
+
+        // lambdas are found by bisection unless the secant line search is specified.
+        try {
+            setLineSearchType( componentRb.getString( "FW_LINE_SEARCH" ) );
+        }
+        catch ( MissingResourceException e ) {
+            lineSearchType = BISECTION_LINE_SEARCH;
+        }
 
         // get network related variables needed in FW object
         numLinks = nh.getLinkCount();
@@ -93,9 +140,68 @@ public class FW {
     }
 
     
+    
+    public void setDirectionType ( String directionType ) {
+
+        if ( directionType.equalsIgnoreCase( FW_DIRECTION ) )
+            this.directionType = FW_DIRECTION;
+        else if ( directionType.equalsIgnoreCase( CFW_DIRECTION ) )
+            this.directionType = CFW_DIRECTION;
+        else if ( directionType.equalsIgnoreCase( BFW_DIRECTION ) )
+            this.directionType = BFW_DIRECTION;
+        else {
+            logger.error ( "FW direction type specified as: " + directionType + ", but must be either '" + FW_DIRECTION + "', '" + CFW_DIRECTION + "' or '" + BFW_DIRECTION + "'." );
+            System.exit(-1);
+        }
+
+    }
+
+    
+    public String getDirectionType () {
+        return directionType;
+    }
+
+    
+    public void setLineSearchType ( String lineSearchType ) {
+
+        if ( lineSearchType.equalsIgnoreCase( BISECTION_LINE_SEARCH ) )
+            this.lineSearchType = BISECTION_LINE_SEARCH;
+        else if ( lineSearchType.equalsIgnoreCase( SECANT_LINE_SEARCH ) )
+            this.lineSearchType = SECANT_LINE_SEARCH;
+        else {
+            logger.error ( "FW line search type specified as: " + lineSearchType + ", but must be either '" + BISECTION_LINE_SEARCH + "' or '" + SECANT_LINE_SEARCH + "'." );
+            System.exit(-1);
+        }
+
+    }
+
+    
+    public String getLineSearchType () {
+        return lineSearchType;
+    }
+
+    
+    /**
+     * Number of objective derivative evaluations made by the line search in each iteration of the last call to iterate().
+     */
+    public int[] getLineSearchSteps () {
+        return lineSearchSteps;
+    }
+
+    
+    /**
+     * Relative gaps reported for each of the iterations completed in the last call to iterate().
+     */
+    public double[] getRelativeGaps () {
+        return relGaps;
+    }
+
+    
 
     /**
-     * Frank-Wolfe assignment procedure.
+     * Frank-Wolfe assignment procedure.  The search direction in each iteration is toward the AON flows,
+     * or, for CFW and BFW, toward a combination of the AON flows and the previous one or two directions
+     * which is conjugate to them with respect to the link cost derivatives.
      */
 	public void iterate () {
 
@@ -111,6 +217,12 @@ public class FW {
     
     		double[][] flow = new double[numAutoClasses][numLinks];
 
+            flowProportions = new double[maxFwIters];
+            prevTarget = null;
+            prevPrevTarget = null;
+            relGaps = new double[maxFwIters];
+            lineSearchSteps = new int[maxFwIters];
+
             
             // set validLinks true for a link if true for any of the classes of that link.
             boolean[] validLinks = new boolean[numLinks];
@@ -125,60 +237,17 @@ public class FW {
             }
 
             
-            double ptSampleRate = 1.0;
-            String rateString = globalRb.getString( "pt.sample.rate" );
-            if ( rateString != null )
-                ptSampleRate = Double.parseDouble( rateString );
-
-            
-            int startHour = 0;
-            int endHour = 0;
-            if ( timePeriod.equalsIgnoreCase( "ampeak" ) ) {
-                // get am peak period definitions from property files
-                startHour = Integer.parseInt( globalRb.getString( "am.peak.start") );
-                endHour = Integer.parseInt( globalRb.getString( "am.peak.end" ) );
-            }
-            else if ( timePeriod.equalsIgnoreCase( "pmpeak" ) ) {
-                // get pm peak period definitions from property files
-                startHour = Integer.parseInt( globalRb.getString( "pm.peak.start") );
-                endHour = Integer.parseInt( globalRb.getString( "pm.peak.end" ) );
-            }
-            else if ( timePeriod.equalsIgnoreCase( "mdoffpeak" ) ) {
-                // get md off-peak period definitions from property files
-                startHour = Integer.parseInt( globalRb.getString( "md.offpeak.start") );
-                endHour = Integer.parseInt( globalRb.getString( "md.offpeak.end" ) );
-            }
-            else if ( timePeriod.equalsIgnoreCase( "ntoffpeak" ) ) {
-                // get nt off-peak period definitions from property files
-                startHour = Integer.parseInt( globalRb.getString( "nt.offpeak.start") );
-                endHour = Integer.parseInt( globalRb.getString( "nt.offpeak.end" ) );
-            }
-            
+            // the trip list files, period hours and report files for the DemandHandler set up by AonFlowHandler
+            AssignmentDemandSettings demand = new AssignmentDemandSettings( componentRb, globalRb, timePeriod );
             
             AonFlowHandlerIF ah = AonFlowHandler.getInstance( nh.getRpcConfigFileName() );
             logger.info ( "FW.iterate() creating an AonFlowHandler and calling its setup()." ); 
             
-            String summaryFile = null;
-            try {
-                summaryFile = componentRb.getString("distDistDemand.summary");
-            }
-            catch (MissingResourceException e) {
-                // do nothing, filename can be null.
-            }
-            
-            String demandOutputFile = null;
-            try {
-                demandOutputFile = componentRb.getString("demand.output.filename");
-            }
-            catch (MissingResourceException e) {
-                // do nothing, filename can be null.
-            }
-            
-            
-            
-            ah.setup( summaryFile, nh.getRpcConfigFileName(), demandOutputFile, globalRb.getString("sdt.person.trips"), globalRb.getString("ldt.vehicle.trips"), ptSampleRate, globalRb.getString("ct.truck.trips"), globalRb.getString("et.truck.trips"), startHour, endHour, highwayModeCharacters, nh );
+            ah.setup( demand.getSummaryFile(), nh.getRpcConfigFileName(), demand.getDemandOutputFile(), demand.getSdtFileName(), demand.getLdtFileName(), demand.getPtSampleRate(), demand.getCtFileName(), demand.getEtFileName(), demand.getStartHour(), demand.getEndHour(), highwayModeCharacters, nh );
             
             
+            logger.info ( "FW.iterate() using " + directionType + " search directions and " + lineSearchType + " line search." );
+
             // loop thru FW iterations
             for (int iter=0; iter < maxFwIters; iter++) {
                 
@@ -194,6 +263,10 @@ public class FW {
             
                 if ( pathDiskObjectFile != null ) {
                     pathTrees = ah.getSavedShortestPathTrees();
+                    if ( pathTrees == null ) {
+                        logger.fatal( String.format( "FW iteration %d could not get the saved shortest path trees from the AonFlowHandler.", iter ) );
+                        throw new RuntimeException();
+                    }
                     saveShortestPathTreeFile( pathDiskObjectFile, iter, pathTrees );
                 }
 
@@ -206,9 +279,24 @@ public class FW {
                 }
                     
                 
+                // the point the line search moves toward is the AON flows for FW, and a conjugate combination for CFW and BFW.
+                double[][] target = aonFlow;
+                double[] targetProportions = new double[maxFwIters];
+                targetProportions[iter] = 1.0;
+                if ( iter > 1 && prevTarget != null && ! directionType.equals( FW_DIRECTION ) ) {
+                    double[] betas = getConjugateWeights( iter, validLinks, aonFlow, flow );
+                    target = getTarget( betas, aonFlow );
+                    for (int i=0; i < iter; i++) {
+                        targetProportions[i] = betas[1]*prevTargetProportions[i];
+                        if ( betas[2] > 0.0 )
+                            targetProportions[i] += betas[2]*prevPrevTargetProportions[i];
+                    }
+                    targetProportions[iter] = betas[0];
+                }
+                
                 // use bisect to do Frank-Wolfe averaging -- returns true if exact solution
                 if (iter > 0) {
-                    if ( bisect ( iter, validLinks, aonFlow, flow ) ) {
+                    if ( lineSearch ( iter, validLinks, target, flow ) ) {
                         logger.error ("Exact FW optimal solution found.  Unlikely, better check into this!");
                         iter = maxFwIters;
                     }
@@ -227,8 +315,11 @@ public class FW {
                 if ( ( lub - gap ) > glb )
                     glb = lub - gap;
 
+                relGaps[iter] = (lub - glb)/glb;
+
                 logger.info ("Iteration " + String.format("%3d", iter)
                                     + "    Lambda= " + String.format("%8.4f", lambdas[iter])
+                                    + "    Steps= "  + String.format("%2d", lineSearchSteps[iter])
                                     + "    LUB= "    + String.format("%16.4f", lub)
                                     + "    Gap= "    + String.format("%16.4f", gap)
                                     + "    GLB= "    + String.format("%16.4f", glb)
@@ -242,7 +333,7 @@ public class FW {
                 for (int k=0; k < totalLinkFlow.length; k++) {
                     totalLinkFlow[k] = 0;
                     for (int m=0; m < numAutoClasses; m++) {
-                        flow[m][k] = flow[m][k] + lambdas[iter]*(aonFlow[m][k] - flow[m][k]);
+                        flow[m][k] = flow[m][k] + lambdas[iter]*(target[m][k] - flow[m][k]);
                         totalLinkFlow[k] += flow[m][k];
                     }
                 }
@@ -250,6 +341,24 @@ public class FW {
                 nh.setVolau(totalLinkFlow);
                 nh.applyVdfs();
 
+                for (int i=0; i <= iter; i++)
+                    flowProportions[i] = flowProportions[i] + lambdas[iter]*(targetProportions[i] - flowProportions[i]);
+
+                // the first AON loading is not a search direction.  A conjugate direction with no improvement
+                // is dropped, so the next direction is toward the AON flows again.
+                if ( iter > 0 && ! directionType.equals( FW_DIRECTION ) ) {
+                    if ( lambdas[iter] <= 1.0e-07 ) {
+                        prevTarget = null;
+                        prevPrevTarget = null;
+                    }
+                    else {
+                        prevPrevTarget = prevTarget;
+                        prevPrevTargetProportions = prevTargetProportions;
+                        prevTarget = target;
+                        prevTargetProportions = targetProportions;
+                    }
+                }
+
 
                 double[] assignedTime = nh.getCongestedTime();
                 double tot = 0.0;
@@ -287,11 +396,14 @@ public class FW {
             
             
             logger.info ("");
-            logger.info ( String.format( "%5s %12s %12s", "iter", "lambdas", "Flow Props" ) );
+            logger.info ( String.format( "%5s %12s %12s %12s %6s", "iter", "lambdas", "Flow Props", "RelGap", "Steps" ) );
             for (int i=0; i < iterationsCompleted; i++)
-                logger.info ( String.format("%6d %12.6f %12.4f%%", i, lambdas[i], 100.0*fwFlowProps[i]) );
+                logger.info ( String.format("%6d %12.6f %12.4f%% %11.4f%% %6d", i, lambdas[i], 100.0*fwFlowProps[i], 100.0*relGaps[i], lineSearchSteps[i]) );
             logger.info ("");
 
+            relGaps = Arrays.copyOf( relGaps, iterationsCompleted );
+            lineSearchSteps = Arrays.copyOf( lineSearchSteps, iterationsCompleted );
+
             String myDateString = DateFormat.getDateTimeInstance().format(new Date());
             logger.info ("done with Frank-Wolfe assignment: " + myDateString);
 
@@ -305,6 +417,17 @@ public class FW {
     }
 
     
+    // Find the optimal lambda along the search direction with the line search type specified -- returns true if exact solution
+    private boolean lineSearch ( int iter, boolean[] validLinks, double[][] aonFlow, double[][] flow ) {
+
+        if ( lineSearchType.equals( SECANT_LINE_SEARCH ) )
+            return secant ( iter, validLinks, aonFlow, flow );
+        else
+            return bisect ( iter, validLinks, aonFlow, flow );
+        
+    }
+    
+    
     //Bisection routine to calculate opitmal lambdas during each frank-wolfe iteration.
     private boolean bisect ( int iter, boolean[] validLinks, double[][] aonFlow, double[][] flow ) {
         
@@ -335,9 +458,13 @@ public class FW {
                 logger.debug ("iter=" + iter + ", gap=" + gap + ", xleft=" + xleft + ", xright=" + xright + ", x=" + x);
             }
 
+            double[] totAonFlow = getTotalFlow( aonFlow );
+            double[] totalLinkFlow = getTotalFlow( flow );
+            double[] totalLinkCost = nh.getTotalLinkCost();
+            
             for (int n=0; n < numBisectIterations; n++) {
                 
-                gap = bisectGap(x, validLinks, aonFlow, flow );
+                gap = bisectGap(x, validLinks, totAonFlow, totalLinkFlow, totalLinkCost );
                 
                 if (gap <= 0)
                     xleft = x;
@@ -353,6 +480,7 @@ public class FW {
             }
             
             lambdas[iter] = x;
+            lineSearchSteps[iter] = numBisectIterations;
             return(false);
             
         }
@@ -360,6 +488,93 @@ public class FW {
     }
 
     
+    /**
+     * Safeguarded secant routine to calculate optimal lambdas.  Each step is the secant step through the last two
+     * evaluations of the objective derivative, so the vdfs evaluated in one step give the derivative estimate for the
+     * next.  The first step is to the previous iteration's lambda, since lambdas change slowly from one iteration to
+     * the next.  The root stays bracketed, and a bisection step is taken instead whenever the secant step falls
+     * outside the bracket or the last step did not halve the objective derivative.
+     */
+    private boolean secant ( int iter, boolean[] validLinks, double[][] aonFlow, double[][] flow ) {
+        
+        int maxSteps = (int)(Math.log(1.0e-07)/Math.log(0.5) + 1.5);
+        double gap = ofGap( validLinks, aonFlow, flow );
+
+        if ( Math.abs(gap) <= 1.0e-07 ) {
+            lambdas[iter] = 0.5;
+            return(true);
+        }
+        
+        double[] totAonFlow = getTotalFlow( aonFlow );
+        double[] totalLinkFlow = getTotalFlow( flow );
+        double[] totalLinkCost = nh.getTotalLinkCost();
+
+        double xleft = 0.0;
+        double xright = 1.0;
+        boolean rightEvaluated = false;
+        
+        double xPrevious = xleft;
+        double gPrevious = bisectGap( xleft, validLinks, totAonFlow, totalLinkFlow, totalLinkCost );
+        int steps = 1;
+
+        // the direction does not decrease the objective
+        if ( gPrevious >= 0 ) {
+            lambdas[iter] = 0.0;
+            lineSearchSteps[iter] = steps;
+            return(false);
+        }
+        
+        double tolerance = LINE_SEARCH_GAP_TOLERANCE*Math.abs(gPrevious);
+        
+        double x = ( iter > 1 && lambdas[iter-1] > 0.0 && lambdas[iter-1] < 1.0 ? lambdas[iter-1] : 0.5 );
+        double g = bisectGap( x, validLinks, totAonFlow, totalLinkFlow, totalLinkCost );
+        steps++;
+        boolean secantStep = true;
+        
+        while ( steps < maxSteps && Math.abs(g) > tolerance && Math.abs(x - xPrevious) > 1.0e-07 ) {
+
+            if (g <= 0)
+                xleft = x;
+            else {
+                xright = x;
+                rightEvaluated = true;
+            }
+
+            double xNext = x - g*(x - xPrevious)/(g - gPrevious);
+
+            // the objective may decrease all the way to the AON flows
+            if ( xNext >= 1.0 && ! rightEvaluated ) {
+                xNext = 1.0;
+                rightEvaluated = true;
+            }
+            else if ( ! secantStep || xNext <= xleft || xNext >= xright || Double.isNaN(xNext) ) {
+                xNext = (xleft + xright)/2.0;
+            }
+            
+            xPrevious = x;
+            gPrevious = g;
+            x = xNext;
+            g = bisectGap( x, validLinks, totAonFlow, totalLinkFlow, totalLinkCost );
+            steps++;
+
+            if ( x == 1.0 && g <= 0 )
+                break;
+            
+            secantStep = ( Math.abs(g) <= 0.5*Math.abs(gPrevious) );
+            
+            if(logger.isDebugEnabled()) {
+                logger.debug ("iter=" + iter + ", step=" + steps + ", gap=" + g + ", xleft=" + xleft + ", xright=" + xright + ", x=" + x);
+            }
+            
+        }
+        
+        lambdas[iter] = x;
+        lineSearchSteps[iter] = steps;
+        return(false);
+        
+    }
+
+    
 
     private double ofValue ( boolean[] validLinks, double[][] flow )  {
 
@@ -424,33 +639,26 @@ public class FW {
     }
 
 
-    private double bisectGap (double x, boolean[] validLinks, double[][] aonFlow, double[][] flow ) {
+    /**
+     * Derivative of the objective with respect to x at flow + x*(aonFlow - flow).  The line searches sum flows over
+     * user classes and get the fixed link costs once, rather than for every evaluation.  The derivative is taken
+     * along the full direction, so it does not vanish at x=1 and can be used by the secant line search.
+     */
+    private double bisectGap (double x, boolean[] validLinks, double[] totAonFlow, double[] totalFlow, double[] totalLinkCost ) {
 
-        double[] totAonFlow = new double[numLinks];
         double[] totalLinkFlow = new double[numLinks];
-        
-        // sum total flow over all user classes for each link 
-        for (int k=0; k < totalLinkFlow.length; k++) {
-            totAonFlow[k] = 0.0;
-            totalLinkFlow[k] = 0.0;
-            for (int m=0; m < numAutoClasses; m++) {
-                totalLinkFlow[k] += flow[m][k];
-                totAonFlow[k] += aonFlow[m][k];
-            }
-            totalLinkFlow[k] = totalLinkFlow[k] + x*(totAonFlow[k] - totalLinkFlow[k]);
-        }
+        for (int k=0; k < totalLinkFlow.length; k++)
+            totalLinkFlow[k] = totalFlow[k] + x*(totAonFlow[k] - totalFlow[k]);
         
         nh.setVolau(totalLinkFlow);
         nh.applyVdfs();
 
         double[] cTime = nh.getCongestedTime();
-        double[] totalLinkCost = nh.getTotalLinkCost();
 
         double gap = 0.0;
         for (int k=0; k < totalLinkFlow.length; k++)
             if ( validLinks[k] )
-                gap += ( cTime[k] + totalLinkCost[k] )*( totAonFlow[k] - totalLinkFlow[k] );
-                //gap += cTime[k]*(totAonFlow[k] - totalLinkFlow[k]) + totalLinkCost[k]*(1.0 - x);
+                gap += ( cTime[k] + totalLinkCost[k] )*( totAonFlow[k] - totalFlow[k] );
 
 
         return(gap);
@@ -458,11 +666,32 @@ public class FW {
 
 
 	
+    // sum flow over all user classes for each link
+    private double[] getTotalFlow ( double[][] flow ) {
+
+        double[] totalFlow = new double[numLinks];
+        for (int k=0; k < numLinks; k++) {
+            totalFlow[k] = 0.0;
+            for (int m=0; m < numAutoClasses; m++)
+                totalFlow[k] += flow[m][k];
+        }
+
+        return totalFlow;
+    }
+
+
+	
     private double[] getFWFlowProps () {
         // Determine the proportions of O/D flow assigned during each FW iteration.
 
         double[] Proportions = new double[maxFwIters];
 
+        // with conjugate directions, the proportions are tracked as the flows are updated.
+        if ( ! directionType.equals( FW_DIRECTION ) ) {
+            System.arraycopy( flowProportions, 0, Proportions, 0, maxFwIters );
+            return(Proportions);
+        }
+        
         for (int i=0; i < maxFwIters; i++) {
             Proportions[i] = lambdas[i];
             for (int k=i+1; k < maxFwIters; k++)
@@ -474,6 +703,145 @@ public class FW {
 
 
 
+    /**
+     * Weights on the AON flows and the previous two search directions for the next search direction, as in
+     * Mitradjieva and Lindberg's conjugate and bi-conjugate Frank-Wolfe methods.  The link cost derivatives
+     * at the current flows are used as the Hessian.  CFW is used in the first conjugate iteration of BFW,
+     * and when the last step was a full step.
+     */
+    private double[] getConjugateWeights ( int iter, boolean[] validLinks, double[][] aonFlow, double[][] flow ) {
+        
+        double[] x = new double[numLinks];
+        double[] y = new double[numLinks];
+        double[] z = new double[numLinks];
+        double[] w = new double[numLinks];
+        
+        // sum total flow over all user classes for each link 
+        for (int k=0; k < numLinks; k++) {
+            for (int m=0; m < numAutoClasses; m++) {
+                x[k] += flow[m][k];
+                y[k] += aonFlow[m][k];
+                z[k] += prevTarget[m][k];
+                if ( prevPrevTarget != null )
+                    w[k] += prevPrevTarget[m][k];
+            }
+        }
+
+        double[] h = getLinkCostDerivatives( x );
+        
+        double tau = lambdas[iter-1];
+        double[] betas = new double[3];
+        
+        if ( directionType.equals( BFW_DIRECTION ) && prevPrevTarget != null && tau < 1.0 ) {
+
+            double muNumerator = 0.0;
+            double muDenominator = 0.0;
+            double nuNumerator = 0.0;
+            double nuDenominator = 0.0;
+            for (int k=0; k < numLinks; k++) {
+                if ( validLinks[k] ) {
+                    double dBar = z[k] - x[k];
+                    double dBarBar = tau*z[k] + (1.0 - tau)*w[k] - x[k];
+                    muNumerator += h[k]*(y[k] - x[k])*dBarBar;
+                    muDenominator += h[k]*(w[k] - z[k])*dBarBar;
+                    nuNumerator += h[k]*(y[k] - x[k])*dBar;
+                    nuDenominator += h[k]*dBar*dBar;
+                }
+            }
+
+            double mu = ( muDenominator != 0.0 ? -muNumerator/muDenominator : 0.0 );
+            mu = Math.max( 0.0, mu );
+            double nu = ( nuDenominator != 0.0 ? -nuNumerator/nuDenominator + mu*tau/(1.0 - tau) : 0.0 );
+            nu = Math.max( 0.0, nu );
+
+            betas[0] = 1.0/(1.0 + mu + nu);
+            betas[1] = nu*betas[0];
+            betas[2] = mu*betas[0];
+
+        }
+        else {
+
+            double numerator = 0.0;
+            double denominator = 0.0;
+            for (int k=0; k < numLinks; k++) {
+                if ( validLinks[k] ) {
+                    double dBar = z[k] - x[k];
+                    numerator += h[k]*dBar*(y[k] - x[k]);
+                    denominator += h[k]*dBar*(y[k] - z[k]);
+                }
+            }
+            
+            double alpha = 0.0;
+            if ( denominator != 0.0 ) {
+                alpha = numerator/denominator;
+                if ( alpha > 1.0 - CONJUGATE_DELTA )
+                    alpha = 1.0 - CONJUGATE_DELTA;
+                else if ( alpha < 0.0 )
+                    alpha = 0.0;
+            }
+
+            betas[0] = 1.0 - alpha;
+            betas[1] = alpha;
+            betas[2] = 0.0;
+
+        }
+        
+        logger.info ( String.format( "FW iteration %d %s direction weights: aon=%.6f, previous=%.6f, second previous=%.6f", iter, directionType, betas[0], betas[1], betas[2] ) );
+
+        return betas;
+    }
+
+
+
+    private double[][] getTarget ( double[] betas, double[][] aonFlow ) {
+
+        double[][] target = new double[numAutoClasses][numLinks];
+        for (int m=0; m < numAutoClasses; m++) {
+            for (int k=0; k < numLinks; k++) {
+                target[m][k] = betas[0]*aonFlow[m][k] + betas[1]*prevTarget[m][k];
+                if ( betas[2] > 0.0 )
+                    target[m][k] += betas[2]*prevPrevTarget[m][k];
+            }
+        }
+
+        return target;
+    }
+
+
+
+    /**
+     * Approximate the derivative of link congested time with respect to flow by evaluating the vdfs at
+     * slightly higher flows.  The network is left with the vdfs evaluated at the given flows.
+     */
+    private double[] getLinkCostDerivatives ( double[] totalLinkFlow ) {
+
+        nh.setVolau(totalLinkFlow);
+        nh.applyVdfs();
+        double[] time = nh.getCongestedTime();
+
+        double[] step = new double[numLinks];
+        double[] perturbedFlow = new double[numLinks];
+        for (int k=0; k < numLinks; k++) {
+            step[k] = Math.max( DERIVATIVE_STEP_FRACTION*totalLinkFlow[k], MIN_DERIVATIVE_STEP );
+            perturbedFlow[k] = totalLinkFlow[k] + step[k];
+        }
+
+        nh.setVolau(perturbedFlow);
+        nh.applyVdfs();
+        double[] perturbedTime = nh.getCongestedTime();
+
+        double[] derivative = new double[numLinks];
+        for (int k=0; k < numLinks; k++)
+            derivative[k] = (perturbedTime[k] - time[k])/step[k];
+
+        nh.setVolau(totalLinkFlow);
+        nh.applyVdfs();
+
+        return derivative;
+    }
+
+
+
     private void createSelectLinkAnalysisDiskObject ( double[] fwFlowProps ) {
 
         // get the locations of the files for storing the network and assignment proportions
@@ -24,7 +24,10 @@ import com.pb.common.rpc.DafNode;
 
 import com.pb.tlumip.ts.assign.Network;
 import com.pb.tlumip.ts.transit.AuxTrNet;
+import com.pb.tlumip.ts.transit.AuxTrNetCache;
+import com.pb.tlumip.ts.transit.AuxTrNetSnapshot;
 import com.pb.tlumip.ts.transit.TrRoute;
+import com.pb.tlumip.ts.transit.TrRouteCache;
 
 import org.apache.log4j.Logger;
 
@@ -43,6 +46,9 @@ public class NetworkHandler implements NetworkHandlerIF {
     ShortestPathTreeH sp = null;
     NetworkDataServer ns = null;
     String rpcConfigFile = null;
+    
+    // snapshot file written for the current highway network, if one has been requested
+    String networkSnapshotFileName = null;
 
     
     public NetworkHandler() {
@@ -427,6 +433,30 @@ public class NetworkHandler implements NetworkHandlerIF {
         return g.getWalkSpeed();
     }
 
+    public String getShortestPathHeapType () {
+        return g.getShortestPathHeapType();
+    }
+
+    public String getShortestPathMode () {
+        return g.getShortestPathMode();
+    }
+
+    public String getShortestPathLoadMethod () {
+        return g.getShortestPathLoadMethod();
+    }
+
+    public int getSavedShortestPathTreeMegabytes () {
+        return g.getSavedShortestPathTreeMegabytes();
+    }
+
+    // write the network snapshot file for the current highway network the first time it's requested,
+    // and return its name, or null if no snapshot directory was specified.
+    public String writeNetworkSnapshot () {
+        if ( networkSnapshotFileName == null && g.getNetworkSnapshotDirectory() != null )
+            networkSnapshotFileName = NetworkSnapshot.write( g.getNetworkSnapshotDirectory(), g.getTimePeriod(), this );
+        return networkSnapshotFileName;
+    }
+
     public int writeNetworkAttributes ( String fileName ) {
         g.writeHighwayAsignmentResults(fileName);
         return 1;
@@ -439,6 +469,8 @@ public class NetworkHandler implements NetworkHandlerIF {
     
     public int setupHighwayNetworkObject ( String timePeriod, String[] propertyValues  ) {
         
+        networkSnapshotFileName = null;
+        
         try {
             
             String networkFileName = propertyValues[NETWORK_FILENAME_INDEX];
@@ -475,31 +507,65 @@ public class NetworkHandler implements NetworkHandlerIF {
 
     public int setupTransitNetworkObject ( String identifier, String period, String accessMode, String auxTransitNetworkListingFileName, String transitNetworkListings, String[] d221Files, String[] rteTypes, int maxRoutes ) {
         
-        // create transit routes object
-        TrRoute tr = new TrRoute ( maxRoutes );
+        // use the network saved when these route files were read for an earlier period, if it is still valid, updating its in-vehicle times for the current highway times.
+        AuxTrNet ag = AuxTrNetCache.getAuxTrNet( this, accessMode, d221Files, rteTypes, maxRoutes );
 
-        //read transit route info from Emme/2 for d221 file for the specified time period
-        tr.readTransitRoutes ( this, d221Files, rteTypes );
+        if ( ag != null ) {
+
+            logger.info( String.format("using saved %s transit network links with in-vehicle times updated for %s period.", accessMode, period) );
+
+            if ( transitNetworkListings != null )
+                ag.getTrRoute().printTransitRouteFile ( transitNetworkListings );
+
+        }
+        else {
+
+            // use the routes saved in a cache file when these route files were last read on this highway network, if a cache directory was specified.
+            // the cache lock is held until the routes are written, so another access mode set up concurrently with the same route files reads them from the cache file.
+            TrRoute tr = null;
+            if ( g.getTransitRouteCacheDirectory() != null ) {
+
+                TrRouteCache routeCache = new TrRouteCache ( g.getTransitRouteCacheDirectory(), this, d221Files, rteTypes, maxRoutes );
+                synchronized ( routeCache.getLock() ) {
+
+                    tr = routeCache.read ( this );
+                    if ( tr == null ) {
+                        tr = readTransitRoutes ( d221Files, rteTypes, maxRoutes );
+                        routeCache.write ( this, tr );
+                    }
+
+                }
+
+            }
+            else {
+
+                tr = readTransitRoutes ( d221Files, rteTypes, maxRoutes );
+
+            }
             
-//        // associate transit segment node sequence with highway link indices
-//        tr.getLinkIndices (this);
+//            // associate transit segment node sequence with highway link indices
+//            tr.getLinkIndices (this);
 
 
-        if ( transitNetworkListings != null )
-            tr.printTransitRouteFile ( transitNetworkListings );
+            if ( transitNetworkListings != null )
+                tr.printTransitRouteFile ( transitNetworkListings );
 
 
-        // create an auxilliary transit network object
-        AuxTrNet ag = new AuxTrNet(this, tr);
+            // create an auxilliary transit network object
+            ag = new AuxTrNet(this, tr);
 
-        // build the auxilliary links for the given transit routes object
-        ag.buildAuxTrNet ( accessMode, rteTypes );
+            // build the auxilliary links for the given transit routes object
+            ag.buildAuxTrNet ( accessMode, rteTypes );
         
-        // define the forward star index arrays, first by anode then by bnode
-        logger.info( "creating forward star representation for transit network.");
-        ag.setForwardStarArrays ();
-        logger.info( "creating backward star representation for transit network.");
-        ag.setBackwardStarArrays ();
+            // define the forward star index arrays, first by anode then by bnode
+            logger.info( "creating forward star representation for transit network.");
+            ag.setForwardStarArrays ();
+            logger.info( "creating backward star representation for transit network.");
+            ag.setBackwardStarArrays ();
+
+            AuxTrNetCache.putAuxTrNet( this, accessMode, d221Files, rteTypes, maxRoutes, ag );
+
+        }
 
 
         // store the transit network built in a HashMap so that several transit network objects can exist in parallel.
@@ -517,6 +583,18 @@ public class NetworkHandler implements NetworkHandlerIF {
         return 1;
     }
     
+    
+    private TrRoute readTransitRoutes ( String[] d221Files, String[] rteTypes, int maxRoutes ) {
+
+        // create transit routes object
+        TrRoute tr = new TrRoute ( maxRoutes );
+
+        //read transit route info from Emme/2 for d221 file for the specified time period
+        tr.readTransitRoutes ( this, d221Files, rteTypes );
+
+        return tr;
+    }
+    
 
     
     
@@ -631,6 +709,11 @@ public class NetworkHandler implements NetworkHandlerIF {
         return ag.getAuxLinkCount();
     }
 
+    public AuxTrNetSnapshot getAuxTrNetSnapshot (String identifier) {
+        AuxTrNet ag = (AuxTrNet)transitNetworks.get(identifier);
+        return ag.getSnapshot();
+    }
+    
     public double getAuxLinkImped (String identifier, int k) {
         AuxTrNet ag = (AuxTrNet)transitNetworks.get(identifier);
         return ag.getLinkImped(k);
@@ -729,6 +812,8 @@ public class NetworkHandler implements NetworkHandlerIF {
         
         if ( sp == null ) {
             sp = new ShortestPathTreeH( getLinkCount(), getNodeCount(), getNumCentroids(), getIa(), getIb(), getIpa(), getSortedLinkIndexA(), getIndexNode(), getNodeIndex(), getCentroid(), getTurnPenaltyIndices(), getTurnPenaltyArray() );
+            sp.setHeapType( getShortestPathHeapType() );
+            sp.configurePathMode( this );
 
             // set the highway network attribute on which to skim the network
             sp.setLinkCost( setLinkGeneralizedCost() );
@@ -747,6 +832,8 @@ public class NetworkHandler implements NetworkHandlerIF {
         
         if ( sp == null ) {
             sp = new ShortestPathTreeH( getLinkCount(), getNodeCount(), getNumCentroids(), getIa(), getIb(), getIpa(), getSortedLinkIndexA(), getIndexNode(), getNodeIndex(), getCentroid(), getTurnPenaltyIndices(), getTurnPenaltyArray() );
+            sp.setHeapType( getShortestPathHeapType() );
+            sp.configurePathMode( this );
 
             // set the highway network attribute on which to skim the network
             sp.setLinkCost( setLinkGeneralizedCost() );
@@ -767,6 +854,8 @@ public class NetworkHandler implements NetworkHandlerIF {
         
         if ( sp == null ) {
             sp = new ShortestPathTreeH( getLinkCount(), getNodeCount(), getNumCentroids(), getIa(), getIb(), getIpa(), getSortedLinkIndexA(), getIndexNode(), getNodeIndex(), getCentroid(), getTurnPenaltyIndices(), getTurnPenaltyArray() );
+            sp.setHeapType( getShortestPathHeapType() );
+            sp.configurePathMode( this );
 
             // set the highway network attribute on which to skim the network
             sp.setLinkCost( setLinkGeneralizedCost() );
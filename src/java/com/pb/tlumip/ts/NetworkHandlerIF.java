@@ -1,5 +1,7 @@
 package com.pb.tlumip.ts;
 
+import com.pb.tlumip.ts.transit.AuxTrNetSnapshot;
+
 
 public interface NetworkHandlerIF {
 
@@ -29,8 +31,15 @@ public interface NetworkHandlerIF {
     public static int USER_CLASS_VOT_PK_STRING_INDEX = 17;
     public static int USER_CLASS_VOT_OP_STRING_INDEX = 18;
     public static int USER_CLASS_OP_COST_STRING_INDEX = 19;
+    public static int SP_HEAP_TYPE_INDEX = 20;
+    public static int SP_PATH_MODE_INDEX = 21;
+    public static int VDF_VALIDATION_INDEX = 22;
+    public static int SP_LOAD_METHOD_INDEX = 23;
+    public static int NETWORK_SNAPSHOT_DIRECTORY_INDEX = 24;
+    public static int TRANSIT_ROUTE_CACHE_DIRECTORY_INDEX = 25;
+    public static int SAVED_SP_TREE_MEGABYTES_INDEX = 26;
 
-    public static int NUMBER_OF_PROPERTY_VALUES = 20;
+    public static int NUMBER_OF_PROPERTY_VALUES = 27;
     
     
     public void startDataServer();
@@ -107,6 +116,11 @@ public interface NetworkHandlerIF {
     public int[] getSortedLinkIndexA();
     public int[] getSortedLinkIndexB();
     public double getWalkSpeed ();
+    public String getShortestPathHeapType ();
+    public String getShortestPathMode ();
+    public String getShortestPathLoadMethod ();
+    public int getSavedShortestPathTreeMegabytes ();
+    public String writeNetworkSnapshot ();
     public int writeNetworkAttributes ( String fileName );
     public int checkForIsolatedLinks ();
     public String getAssignmentResultsString ();
@@ -144,6 +158,7 @@ public interface NetworkHandlerIF {
     public double[] getAuxRouteHeadway( String identifier );
     public int getAuxNodeCount( String identifier );
     public int getAuxLinkCount( String identifier );
+    public AuxTrNetSnapshot getAuxTrNetSnapshot (String identifier);
     public double getAuxLinkImped (String identifier, int k);
     public String getAuxRouteName(String identifier, int rte);
     public String getAuxRouteDescription(String identifier, int rte);
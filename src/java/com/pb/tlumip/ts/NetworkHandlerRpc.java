@@ -22,6 +22,7 @@ import java.util.Vector;
 
 import com.pb.common.rpc.RpcClient;
 import com.pb.common.rpc.RpcException;
+import com.pb.tlumip.ts.transit.AuxTrNetSnapshot;
 
 import org.apache.log4j.Logger;
 
@@ -1150,6 +1151,66 @@ public class NetworkHandlerRpc implements NetworkHandlerIF {
         return returnValue;
     }
 
+    public String getShortestPathHeapType () {
+        String returnValue = null;
+        try {
+            returnValue = (String)rc.execute(HANDLER_NAME+".getShortestPathHeapType", new Vector());
+        } catch (RpcException e) {
+            logger.error( e.getCause().getMessage(), e );
+        } catch (IOException e) {
+            logger.error( e.getCause().getMessage(), e );
+        }
+        return returnValue;
+    }
+
+    public String getShortestPathMode () {
+        String returnValue = null;
+        try {
+            returnValue = (String)rc.execute(HANDLER_NAME+".getShortestPathMode", new Vector());
+        } catch (RpcException e) {
+            logger.error( e.getCause().getMessage(), e );
+        } catch (IOException e) {
+            logger.error( e.getCause().getMessage(), e );
+        }
+        return returnValue;
+    }
+
+    public String getShortestPathLoadMethod () {
+        String returnValue = null;
+        try {
+            returnValue = (String)rc.execute(HANDLER_NAME+".getShortestPathLoadMethod", new Vector());
+        } catch (RpcException e) {
+            logger.error( e.getCause().getMessage(), e );
+        } catch (IOException e) {
+            logger.error( e.getCause().getMessage(), e );
+        }
+        return returnValue;
+    }
+
+    public int getSavedShortestPathTreeMegabytes () {
+        int returnValue = -1;
+        try {
+            returnValue = (Integer)rc.execute(HANDLER_NAME+".getSavedShortestPathTreeMegabytes", new Vector());
+        } catch (RpcException e) {
+            logger.error( e.getCause().getMessage(), e );
+        } catch (IOException e) {
+            logger.error( e.getCause().getMessage(), e );
+        }
+        return returnValue;
+    }
+
+    public String writeNetworkSnapshot () {
+        String returnValue = null;
+        try {
+            returnValue = (String)rc.execute(HANDLER_NAME+".writeNetworkSnapshot", new Vector());
+        } catch (RpcException e) {
+            logger.error( e.getCause().getMessage(), e );
+        } catch (IOException e) {
+            logger.error( e.getCause().getMessage(), e );
+        }
+        return returnValue;
+    }
+
     public int[] getIa() {
         
         int[] returnArray = null;
@@ -1691,6 +1752,22 @@ public class NetworkHandlerRpc implements NetworkHandlerIF {
         return returnValue;
     }
 
+    public AuxTrNetSnapshot getAuxTrNetSnapshot (String identifier) {
+        AuxTrNetSnapshot returnValue = null;
+        
+        try {
+            Vector params = new Vector();
+            params.add( identifier );
+            returnValue = (AuxTrNetSnapshot)rc.execute(HANDLER_NAME+".getAuxTrNetSnapshot", params);
+        } catch (RpcException e) {
+            logger.error( e.getCause().getMessage(), e );
+        } catch (IOException e) {
+            logger.error( e.getCause().getMessage(), e );
+        }
+        
+        return returnValue;
+    }
+
     public double getAuxLinkImped (String identifier, int k) {
         double returnValue = -1;
         
@@ -0,0 +1,449 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Immutable snapshot of the network arrays used by SpBuildLoadHandlers to build and load
+ * shortest path trees, written to a file once by NetworkHandler so that handlers running on
+ * the same host can read it through a read-only memory mapping instead of receiving copies
+ * of every array in their setup() call.  The file pages are shared by all VMs on the host;
+ * the arrays are copied out of the mapping once per VM, since ShortestPathTreeH works on
+ * primitive arrays.
+ *
+ * The file starts with a magic number and a layout version, followed by the network counts
+ * and then each array as its int length (-1 for null) and its elements; two dimensional
+ * arrays are written as the number of rows followed by each row.  Booleans are stored as one
+ * byte each.  A file is written under a temporary name and renamed when complete, and is never
+ * rewritten, so a reader never sees a partially written snapshot.
+ *
+ * The most recently read snapshot is kept for the VM, so handlers set up again with the same
+ * snapshot file share the arrays already read.  A snapshot file is no longer needed once a newer one
+ * has been written or read, so the previous file is deleted then, rather than left until the VM exits.
+ */
+public class NetworkSnapshot {
+
+    protected static Logger logger = Logger.getLogger(NetworkSnapshot.class);
+
+    static final int MAGIC = 0x54534e53;
+    static final int LAYOUT_VERSION = 1;
+
+    static final String FILE_PREFIX = "tsNetworkSnapshot_";
+    static final String FILE_SUFFIX = ".bin";
+
+    private static NetworkSnapshot lastSnapshot = null;
+    private static String lastWrittenFileName = null;
+
+    String fileName;
+
+    int numUserClasses;
+    int numLinks;
+    int numNodes;
+    int numZones;
+
+    int[] ia;
+    int[] ib;
+    int[] ipa;
+    int[] sortedLinkIndexA;
+    int[] indexNode;
+    int[] nodeIndex;
+    boolean[] centroid;
+    boolean[][] validLinksForClasses;
+    int[][] turnPenaltyIndices;
+    float[][] turnPenaltyArray;
+
+
+    private NetworkSnapshot () {
+    }
+
+
+
+    /**
+     * Write the network arrays held by the NetworkHandler to a new snapshot file in the directory
+     * and return the name of the file written.
+     */
+    public static synchronized String write ( String directory, String timePeriod, NetworkHandlerIF nh ) {
+
+        NetworkSnapshot snapshot = new NetworkSnapshot();
+        snapshot.numUserClasses = nh.getNumUserClasses();
+        snapshot.numLinks = nh.getLinkCount();
+        snapshot.numNodes = nh.getNodeCount();
+        snapshot.numZones = nh.getNumCentroids();
+        snapshot.ia = nh.getIa();
+        snapshot.ib = nh.getIb();
+        snapshot.ipa = nh.getIpa();
+        snapshot.sortedLinkIndexA = nh.getSortedLinkIndexA();
+        snapshot.indexNode = nh.getIndexNode();
+        snapshot.nodeIndex = nh.getNodeIndex();
+        snapshot.centroid = nh.getCentroid();
+        snapshot.validLinksForClasses = nh.getValidLinksForAllClasses();
+        snapshot.turnPenaltyIndices = nh.getTurnPenaltyIndices();
+        snapshot.turnPenaltyArray = nh.getTurnPenaltyArray();
+
+        File file = new File( directory, FILE_PREFIX + timePeriod + "_" + System.currentTimeMillis() + FILE_SUFFIX );
+        File tempFile = new File( directory, file.getName() + ".tmp" );
+
+        ByteBuffer buffer = ByteBuffer.allocate( snapshot.getByteCount() );
+        snapshot.put( buffer );
+        buffer.flip();
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream( tempFile );
+            FileChannel channel = out.getChannel();
+            while ( buffer.hasRemaining() )
+                channel.write( buffer );
+            out.close();
+            out = null;
+        }
+        catch (IOException e) {
+            logger.error ( "IOException writing network snapshot file " + tempFile.getAbsolutePath() + ".", e );
+            throw new RuntimeException(e);
+        }
+        finally {
+            if ( out != null ) {
+                try {
+                    out.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+
+        if ( ! tempFile.renameTo( file ) ) {
+            logger.error ( "could not rename network snapshot file " + tempFile.getAbsolutePath() + " to " + file.getName() + "." );
+            throw new RuntimeException();
+        }
+        file.deleteOnExit();
+
+        logger.info ( String.format("wrote %d byte network snapshot file %s.", file.length(), file.getAbsolutePath()) );
+
+        if ( lastWrittenFileName != null )
+            deleteSnapshotFile( lastWrittenFileName );
+        lastWrittenFileName = file.getAbsolutePath();
+
+        return lastWrittenFileName;
+
+    }
+
+
+    /**
+     * Return the network snapshot in the file, or null if the file cannot be read from this VM,
+     * for example because it was written on another host.
+     */
+    public static synchronized NetworkSnapshot read ( String fileName ) {
+
+        if ( lastSnapshot != null && lastSnapshot.fileName.equals( fileName ) )
+            return lastSnapshot;
+
+        File file = new File( fileName );
+        if ( ! file.canRead() )
+            return null;
+
+        NetworkSnapshot snapshot = new NetworkSnapshot();
+        snapshot.fileName = fileName;
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream( file );
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if ( magic != MAGIC || version != LAYOUT_VERSION ) {
+                logger.error ( String.format("network snapshot file %s has magic number %x and layout version %d, expected %x and %d.", fileName, magic, version, MAGIC, LAYOUT_VERSION) );
+                throw new RuntimeException();
+            }
+
+            snapshot.get( buffer );
+        }
+        catch (IOException e) {
+            logger.error ( "IOException reading network snapshot file " + fileName + ".", e );
+            throw new RuntimeException(e);
+        }
+        finally {
+            if ( in != null ) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+
+        if ( lastSnapshot != null )
+            deleteSnapshotFile( lastSnapshot.fileName );
+        lastSnapshot = snapshot;
+        return snapshot;
+
+    }
+
+
+    // the file may already have been deleted by the VM that wrote it or by another VM that read it.
+    private static void deleteSnapshotFile ( String fileName ) {
+        File file = new File( fileName );
+        if ( file.delete() )
+            logger.info ( "deleted previous network snapshot file " + fileName + "." );
+    }
+
+
+
+    private int getByteCount () {
+
+        int bytes = 6*4;
+        bytes += getByteCount( ia ) + getByteCount( ib ) + getByteCount( ipa ) + getByteCount( sortedLinkIndexA );
+        bytes += getByteCount( indexNode ) + getByteCount( nodeIndex );
+        bytes += 4 + ( centroid == null ? 0 : centroid.length );
+
+        bytes += 4;
+        if ( validLinksForClasses != null )
+            for (int i=0; i < validLinksForClasses.length; i++)
+                bytes += 4 + ( validLinksForClasses[i] == null ? 0 : validLinksForClasses[i].length );
+
+        bytes += 4;
+        if ( turnPenaltyIndices != null )
+            for (int i=0; i < turnPenaltyIndices.length; i++)
+                bytes += getByteCount( turnPenaltyIndices[i] );
+
+        bytes += 4;
+        if ( turnPenaltyArray != null )
+            for (int i=0; i < turnPenaltyArray.length; i++)
+                bytes += 4 + ( turnPenaltyArray[i] == null ? 0 : 4*turnPenaltyArray[i].length );
+
+        return bytes;
+
+    }
+
+
+    private int getByteCount ( int[] values ) {
+        return 4 + ( values == null ? 0 : 4*values.length );
+    }
+
+
+    private void put ( ByteBuffer buffer ) {
+
+        buffer.putInt( MAGIC );
+        buffer.putInt( LAYOUT_VERSION );
+        buffer.putInt( numUserClasses );
+        buffer.putInt( numLinks );
+        buffer.putInt( numNodes );
+        buffer.putInt( numZones );
+
+        putInts( buffer, ia );
+        putInts( buffer, ib );
+        putInts( buffer, ipa );
+        putInts( buffer, sortedLinkIndexA );
+        putInts( buffer, indexNode );
+        putInts( buffer, nodeIndex );
+        putBooleans( buffer, centroid );
+
+        buffer.putInt( validLinksForClasses == null ? -1 : validLinksForClasses.length );
+        if ( validLinksForClasses != null )
+            for (int i=0; i < validLinksForClasses.length; i++)
+                putBooleans( buffer, validLinksForClasses[i] );
+
+        buffer.putInt( turnPenaltyIndices == null ? -1 : turnPenaltyIndices.length );
+        if ( turnPenaltyIndices != null )
+            for (int i=0; i < turnPenaltyIndices.length; i++)
+                putInts( buffer, turnPenaltyIndices[i] );
+
+        buffer.putInt( turnPenaltyArray == null ? -1 : turnPenaltyArray.length );
+        if ( turnPenaltyArray != null )
+            for (int i=0; i < turnPenaltyArray.length; i++)
+                putFloats( buffer, turnPenaltyArray[i] );
+
+    }
+
+
+    private void get ( ByteBuffer buffer ) {
+
+        numUserClasses = buffer.getInt();
+        numLinks = buffer.getInt();
+        numNodes = buffer.getInt();
+        numZones = buffer.getInt();
+
+        ia = getInts( buffer );
+        ib = getInts( buffer );
+        ipa = getInts( buffer );
+        sortedLinkIndexA = getInts( buffer );
+        indexNode = getInts( buffer );
+        nodeIndex = getInts( buffer );
+        centroid = getBooleans( buffer );
+
+        int rows = buffer.getInt();
+        if ( rows >= 0 ) {
+            validLinksForClasses = new boolean[rows][];
+            for (int i=0; i < rows; i++)
+                validLinksForClasses[i] = getBooleans( buffer );
+        }
+
+        rows = buffer.getInt();
+        if ( rows >= 0 ) {
+            turnPenaltyIndices = new int[rows][];
+            for (int i=0; i < rows; i++)
+                turnPenaltyIndices[i] = getInts( buffer );
+        }
+
+        rows = buffer.getInt();
+        if ( rows >= 0 ) {
+            turnPenaltyArray = new float[rows][];
+            for (int i=0; i < rows; i++)
+                turnPenaltyArray[i] = getFloats( buffer );
+        }
+
+    }
+
+
+    private void putInts ( ByteBuffer buffer, int[] values ) {
+        if ( values == null ) {
+            buffer.putInt( -1 );
+            return;
+        }
+        buffer.putInt( values.length );
+        buffer.asIntBuffer().put( values );
+        buffer.position( buffer.position() + 4*values.length );
+    }
+
+
+    private void putFloats ( ByteBuffer buffer, float[] values ) {
+        if ( values == null ) {
+            buffer.putInt( -1 );
+            return;
+        }
+        buffer.putInt( values.length );
+        buffer.asFloatBuffer().put( values );
+        buffer.position( buffer.position() + 4*values.length );
+    }
+
+
+    private void putBooleans ( ByteBuffer buffer, boolean[] values ) {
+        if ( values == null ) {
+            buffer.putInt( -1 );
+            return;
+        }
+        buffer.putInt( values.length );
+        for (int i=0; i < values.length; i++)
+            buffer.put( values[i] ? (byte)1 : (byte)0 );
+    }
+
+
+    private int[] getInts ( ByteBuffer buffer ) {
+        int length = buffer.getInt();
+        if ( length < 0 )
+            return null;
+        int[] values = new int[length];
+        buffer.asIntBuffer().get( values );
+        buffer.position( buffer.position() + 4*length );
+        return values;
+    }
+
+
+    private float[] getFloats ( ByteBuffer buffer ) {
+        int length = buffer.getInt();
+        if ( length < 0 )
+            return null;
+        float[] values = new float[length];
+        buffer.asFloatBuffer().get( values );
+        buffer.position( buffer.position() + 4*length );
+        return values;
+    }
+
+
+    private boolean[] getBooleans ( ByteBuffer buffer ) {
+        int length = buffer.getInt();
+        if ( length < 0 )
+            return null;
+        boolean[] values = new boolean[length];
+        for (int i=0; i < length; i++)
+            values[i] = ( buffer.get() != 0 );
+        return values;
+    }
+
+
+
+    public String getFileName () {
+        return fileName;
+    }
+
+    public int getNumUserClasses () {
+        return numUserClasses;
+    }
+
+    public int getLinkCount () {
+        return numLinks;
+    }
+
+    public int getNodeCount () {
+        return numNodes;
+    }
+
+    public int getNumCentroids () {
+        return numZones;
+    }
+
+    public int[] getIa () {
+        return ia;
+    }
+
+    public int[] getIb () {
+        return ib;
+    }
+
+    public int[] getIpa () {
+        return ipa;
+    }
+
+    public int[] getSortedLinkIndexA () {
+        return sortedLinkIndexA;
+    }
+
+    public int[] getIndexNode () {
+        return indexNode;
+    }
+
+    public int[] getNodeIndex () {
+        return nodeIndex;
+    }
+
+    public boolean[] getCentroid () {
+        return centroid;
+    }
+
+    public boolean[][] getValidLinksForAllClasses () {
+        return validLinksForClasses;
+    }
+
+    public int[][] getTurnPenaltyIndices () {
+        return turnPenaltyIndices;
+    }
+
+    public float[][] getTurnPenaltyArray () {
+        return turnPenaltyArray;
+    }
+
+}
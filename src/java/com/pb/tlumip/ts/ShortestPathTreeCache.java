@@ -0,0 +1,205 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+
+/**
+ * Shortest path trees saved by an int key, such as a packed [user class, origin] work element, held in
+ * compressed form within a memory budget.  A tree that would take the saved trees over the budget is not
+ * saved; its key is remembered as dropped, so the owner can rebuild the tree when it is asked for.
+ *
+ * A tree is given and returned as its predecessor link array.  Since the predecessor link of node n is a
+ * link k with ib[k] == n, the tree is kept as just the set of its links, in increasing order, each written
+ * as a variable length difference from the previous one - typically one or two bytes per node reached,
+ * rather than four bytes for every node in the network.
+ */
+public class ShortestPathTreeCache {
+
+    // bytes counted for each saved tree in addition to its compressed links
+    static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private int numNodes;
+    private int[] ib;
+    private long maxBytes;
+    private long bytes;
+    private HashSet<Integer> dropped = new HashSet<Integer>();
+
+    private HashMap<Integer,byte[]> trees = new HashMap<Integer,byte[]>();
+
+
+
+    public ShortestPathTreeCache ( int numNodes, int[] ib, long maxBytes ) {
+        this.numNodes = numNodes;
+        this.ib = ib;
+        this.maxBytes = maxBytes;
+    }
+
+
+
+    /**
+     * Save the tree with the predecessorLink array, replacing any tree saved with the key.
+     * return false if the tree was dropped because it would exceed the memory budget.
+     */
+    public boolean put ( int key, int[] predecessorLink ) {
+
+        // trees are compressed and decompressed outside the lock, so threads only wait for map updates.
+        byte[] links = compress( predecessorLink );
+
+        synchronized ( this ) {
+
+            byte[] previous = trees.remove( key );
+            if ( previous != null )
+                bytes -= ENTRY_OVERHEAD_BYTES + previous.length;
+
+            if ( bytes + ENTRY_OVERHEAD_BYTES + links.length > maxBytes ) {
+                dropped.add( key );
+                return false;
+            }
+
+            dropped.remove( key );
+            trees.put( key, links );
+            bytes += ENTRY_OVERHEAD_BYTES + links.length;
+            return true;
+
+        }
+
+    }
+
+
+    /**
+     * return the predecessorLink array of the tree saved with the key, or null if there is none.
+     */
+    public int[] get ( int key ) {
+
+        byte[] links = null;
+        synchronized ( this ) {
+            links = trees.get( key );
+        }
+
+        if ( links == null )
+            return null;
+        return decompress( links );
+
+    }
+
+
+    /** return true if the last tree put with the key was dropped to stay within the memory budget. */
+    public synchronized boolean isDropped ( int key ) {
+        return dropped.contains( key );
+    }
+
+
+    public synchronized void clear () {
+        trees.clear();
+        dropped.clear();
+        bytes = 0;
+    }
+
+
+    public synchronized int size () {
+        return trees.size();
+    }
+
+
+    /** return the bytes counted against the memory budget for the saved trees. */
+    public synchronized long getBytes () {
+        return bytes;
+    }
+
+
+    /** return the number of trees dropped to stay within the memory budget since the last clear(). */
+    public synchronized int getNumberDropped () {
+        return dropped.size();
+    }
+
+
+
+    private byte[] compress ( int[] predecessorLink ) {
+
+        int count = 0;
+        for (int n=0; n < predecessorLink.length; n++)
+            if ( predecessorLink[n] >= 0 )
+                count++;
+
+        int[] links = new int[count];
+        count = 0;
+        for (int n=0; n < predecessorLink.length; n++)
+            if ( predecessorLink[n] >= 0 )
+                links[count++] = predecessorLink[n];
+        Arrays.sort( links );
+
+        // at most 5 bytes for the count and each difference
+        byte[] buffer = new byte[5*(count+1)];
+        int p = putVarInt( buffer, 0, count );
+        int previous = -1;
+        for (int i=0; i < count; i++) {
+            p = putVarInt( buffer, p, links[i] - previous );
+            previous = links[i];
+        }
+
+        return Arrays.copyOf( buffer, p );
+
+    }
+
+
+    private int[] decompress ( byte[] links ) {
+
+        int[] predecessorLink = new int[numNodes+1];
+        Arrays.fill( predecessorLink, -1 );
+
+        int[] position = new int[1];
+        int count = getVarInt( links, position );
+        int k = -1;
+        for (int i=0; i < count; i++) {
+            k += getVarInt( links, position );
+            predecessorLink[ib[k]] = k;
+        }
+
+        return predecessorLink;
+
+    }
+
+
+    private static int putVarInt ( byte[] buffer, int p, int value ) {
+        while ( ( value & ~0x7f ) != 0 ) {
+            buffer[p++] = (byte)( ( value & 0x7f ) | 0x80 );
+            value >>>= 7;
+        }
+        buffer[p++] = (byte)value;
+        return p;
+    }
+
+
+    private static int getVarInt ( byte[] buffer, int[] position ) {
+        int p = position[0];
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[p++];
+            value |= ( b & 0x7f ) << shift;
+            shift += 7;
+        } while ( ( b & 0x80 ) != 0 );
+        position[0] = p;
+        return value;
+    }
+
+}
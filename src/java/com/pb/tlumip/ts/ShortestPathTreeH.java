@@ -36,6 +36,19 @@ public class ShortestPathTreeH {
     static final double COMPARE_EPSILON = 1.0e-07;
     static final int MAX_PATH_LENGTH = 500;
 
+    // values for the shortestPath.heapType property which selects the candidate heap implementation
+    public static final String BINARY_HEAP = "binary";
+    public static final String DARY_HEAP = "dary";
+
+    // values for the shortestPath.pathMode property which selects the point to point algorithm used by buildPath()
+    public static final String DIJKSTRA_PATH = "dijkstra";
+    public static final String ASTAR_PATH = "astar";
+    public static final String BIDIRECTIONAL_PATH = "bidirectional";
+
+    // values for the shortestPath.loadMethod property which selects how loadTree() and buildAndLoadTrees() load trips
+    public static final String TREE_LOAD = "tree";
+    public static final String PATH_LOAD = "path";
+
     private int inOrigin;
     private int inDestination;
 
@@ -47,6 +60,13 @@ public class ShortestPathTreeH {
     private int[] sortedLinkIndex;
     private int[][] turnPenaltyIndices;
     private float[][] turnPenaltyArray;
+
+    // turn penalties compiled by predecessor link into rows aligned with the forward star of the link's b node:
+    // the penalty for turning from link j onto the link at position i in sortedLinkIndex is
+    // turnPenaltyByStar[turnPenaltyOffset[j] + i - ip[ib[j]]].  turnPenaltyOffset[j] is -1 if no turns from j are
+    // penalized, and turnPenaltyOffset is null if the network has no turn penalties.
+    private int[] turnPenaltyOffset;
+    private float[] turnPenaltyByStar;
     private boolean[] centroid;
     private boolean[] validLink;
     private double[] linkCost;
@@ -65,10 +85,42 @@ public class ShortestPathTreeH {
 	private long buildTime = 0;
 	private long loadTime = 0;
 
-	private Heap candidateHeap;
+	private CandidateHeap candidateHeap;
 	private int[] heapContents;
 
     private boolean debug = false;
+
+    private String pathMode = DIJKSTRA_PATH;
+    private int numNodesLabeled;
+
+    // node coordinates by internal node index, and the cost per unit of straight line distance
+    // that no valid link is cheaper than, used for the A* lower bound.
+    private double[] nodeX;
+    private double[] nodeY;
+    private double costPerDistance = -1.0;
+    private double[] nodeKeys;
+    private NodeHeap aStarHeap;
+
+    // backward star arrays and labels from the destination used by the bidirectional search.
+    private int[] ipb;
+    private int[] sortedLinkIndexB;
+    private double[] nodeLabelsB;
+    private int[] nodeLabeledB;
+    private int[] successorLink;
+    private NodeHeap forwardHeap;
+    private NodeHeap backwardHeap;
+    private boolean turnPenaltyWarningLogged = false;
+
+    // nodes in the order buildTree() labeled them permanently, starting with the origin, and the skim values
+    // accumulated at each node by getTreeSkims().  treeBuilt is false if the last build was not a full tree.
+    private int[] treeOrder;
+    private int treeOrderCount;
+    private boolean treeBuilt = false;
+    private double[] nodeSkim;
+
+    // trips to each node accumulated by the tree order loading, and whether it's used instead of tracing each path.
+    private double[] nodeFlow;
+    private boolean treeOrderLoading = true;
     
     
 
@@ -91,14 +143,18 @@ public class ShortestPathTreeH {
         
         turnPenaltyIndices = nh.getTurnPenaltyIndices();
         turnPenaltyArray = nh.getTurnPenaltyArray();
+        compileTurnPenalties();
         
         
         nodeLabeled = new int[numNodes+1];
         nodeLabels = new double[numNodes+1];
+        treeOrder = new int[numNodes+1];
 
         //Create a new heap structure to sort candidate node labels
-        candidateHeap = new Heap(numNodes+1);
         heapContents = new int[numNodes];
+        setHeapType( nh.getShortestPathHeapType() );
+        configurePathMode( nh );
+        setLoadMethod( nh.getShortestPathLoadMethod() );
         
     }
 
@@ -122,9 +178,11 @@ public class ShortestPathTreeH {
         
         this.turnPenaltyIndices = turnPenaltyIndices;
         this.turnPenaltyArray = turnPenaltyArray;
+        compileTurnPenalties();
 
         nodeLabeled = new int[numNodes+1];
         nodeLabels = new double[numNodes+1];
+        treeOrder = new int[numNodes+1];
 
         //Create a new heap structure to sort candidate node labels
         candidateHeap = new Heap(numNodes+1);
@@ -133,6 +191,134 @@ public class ShortestPathTreeH {
     }
 
     
+    /**
+     * Select the heap used to order candidate node labels.  BINARY_HEAP (the default) is the original
+     * binary heap; DARY_HEAP is an indexed 4-ary heap with decrease-key.  Both order candidates by
+     * node label and break ties on external node number, so the trees built are the same.
+     */
+    public void setHeapType ( String heapType ) {
+        
+        if ( heapType == null || heapType.equals("") || heapType.equalsIgnoreCase( BINARY_HEAP ) ) {
+            candidateHeap = new Heap(numNodes+1);
+        }
+        else if ( heapType.equalsIgnoreCase( DARY_HEAP ) ) {
+            candidateHeap = new IndexedDaryHeap(numNodes+1);
+        }
+        else {
+            logger.error ( "shortest path heap type specified as: " + heapType + ", but must be either '" + BINARY_HEAP + "' or '" + DARY_HEAP + "'." );
+            System.exit(-1);
+        }
+        
+    }
+
+    
+    /**
+     * Select the algorithm used by buildPath(), one of DIJKSTRA_PATH (the default), ASTAR_PATH or BIDIRECTIONAL_PATH.
+     * A* needs node coordinates set with setNodeCoordinates(), and the bidirectional search needs the backward star
+     * set with setBackwardStar().  configurePathMode() sets the mode and whichever arrays it needs from a NetworkHandler.
+     */
+    public void setPathMode ( String pathMode ) {
+        
+        if ( pathMode == null || pathMode.equals("") || pathMode.equalsIgnoreCase( DIJKSTRA_PATH ) ) {
+            this.pathMode = DIJKSTRA_PATH;
+        }
+        else if ( pathMode.equalsIgnoreCase( ASTAR_PATH ) ) {
+            this.pathMode = ASTAR_PATH;
+            if ( aStarHeap == null ) {
+                nodeKeys = new double[numNodes+1];
+                aStarHeap = new NodeHeap( nodeKeys );
+            }
+        }
+        else if ( pathMode.equalsIgnoreCase( BIDIRECTIONAL_PATH ) ) {
+            this.pathMode = BIDIRECTIONAL_PATH;
+            if ( backwardHeap == null ) {
+                nodeLabelsB = new double[numNodes+1];
+                nodeLabeledB = new int[numNodes+1];
+                successorLink = new int[numNodes+1];
+                forwardHeap = new NodeHeap( nodeLabels );
+                backwardHeap = new NodeHeap( nodeLabelsB );
+            }
+        }
+        else {
+            logger.error ( "shortest path mode specified as: " + pathMode + ", but must be one of '" + DIJKSTRA_PATH + "', '" + ASTAR_PATH + "' or '" + BIDIRECTIONAL_PATH + "'." );
+            System.exit(-1);
+        }
+        
+    }
+
+    
+    /**
+     * Select how loadTree() and buildAndLoadTrees() load trips.  TREE_LOAD (the default) accumulates the trips to
+     * each node and pushes them back to the origin in one sweep over the nodes in reverse labeling order.  PATH_LOAD
+     * traces the path back from each destination separately, and is kept to validate the tree order loading.
+     * Both load the same trips on the same links; the sums are taken in a different order, so link flows can differ
+     * in the last bits.
+     */
+    public void setLoadMethod ( String loadMethod ) {
+        
+        if ( loadMethod == null || loadMethod.equals("") || loadMethod.equalsIgnoreCase( TREE_LOAD ) ) {
+            treeOrderLoading = true;
+        }
+        else if ( loadMethod.equalsIgnoreCase( PATH_LOAD ) ) {
+            treeOrderLoading = false;
+        }
+        else {
+            logger.error ( "shortest path load method specified as: " + loadMethod + ", but must be either '" + TREE_LOAD + "' or '" + PATH_LOAD + "'." );
+            System.exit(-1);
+        }
+        
+    }
+
+    
+    public void configurePathMode ( NetworkHandlerIF nh ) {
+        
+        String mode = nh.getShortestPathMode();
+        
+        if ( mode != null && mode.equalsIgnoreCase( ASTAR_PATH ) ) {
+            
+            // node coordinates are stored by node table row, so put them in internal node order
+            int[] nodeTableRow = nh.getInternalNodeToNodeTableRow();
+            double[] x = nh.getNodeX();
+            double[] y = nh.getNodeY();
+            double[] internalX = new double[numNodes];
+            double[] internalY = new double[numNodes];
+            for (int i=0; i < numNodes; i++) {
+                internalX[i] = x[nodeTableRow[i]];
+                internalY[i] = y[nodeTableRow[i]];
+            }
+            setNodeCoordinates( internalX, internalY );
+            
+        }
+        else if ( mode != null && mode.equalsIgnoreCase( BIDIRECTIONAL_PATH ) ) {
+            setBackwardStar( nh.getIpb(), nh.getSortedLinkIndexB() );
+        }
+        
+        setPathMode( mode );
+        
+    }
+
+    
+    public void setNodeCoordinates ( double[] nodeX, double[] nodeY ) {
+        this.nodeX = nodeX;
+        this.nodeY = nodeY;
+        costPerDistance = -1.0;
+    }
+
+    
+    public void setBackwardStar ( int[] ipb, int[] sortedLinkIndexB ) {
+        this.ipb = ipb;
+        this.sortedLinkIndexB = sortedLinkIndexB;
+    }
+
+    
+    /**
+     * Return the number of nodes labeled permanently by the last buildPath() call.
+     */
+    public int getNumberOfNodesLabeled () {
+        return numNodesLabeled;
+    }
+    
+    
     private void initData() {
 
         long start = System.currentTimeMillis();
@@ -147,6 +333,9 @@ public class ShortestPathTreeH {
 
         candidateHeap.clear();
 
+        treeOrderCount = 0;
+        treeBuilt = false;
+
         initTime += (System.currentTimeMillis() - start);
 
     }
@@ -161,25 +350,48 @@ public class ShortestPathTreeH {
         initData();
 
         // set labels for links eminating from the origin node
+        treeOrder[treeOrderCount++] = inOrigin;
         setTreeRootLabels ( inOrigin );
 
         // continue labeling until candidateHeap is empty
 		int k;
         while ((k = candidateHeap.remove()) >= 0) {
+            treeOrder[treeOrderCount++] = ib[k];
             setTreeRootLabels ( ib[k] );
 			nodeLabeled[ib[k]] = 1;
         }
+        treeBuilt = true;
 
         buildTime += (System.currentTimeMillis() - start);
     }
 
 
+    /**
+     * Build the shortest path from inOrigin to inDestination with the algorithm set by setPathMode().
+     * Afterwards the predecessorLink array traces the path back from inDestination to inOrigin
+     * for getNodeList() and getLinkIdList(), whichever algorithm was used.
+     */
     public boolean buildPath(int inOrigin, int inDestination) {
+        
+        treeBuilt = false;
+
+        if ( pathMode.equals( ASTAR_PATH ) && nodeX != null )
+            return buildAStarPath( inOrigin, inDestination );
+        else if ( pathMode.equals( BIDIRECTIONAL_PATH ) && ipb != null && inOrigin != inDestination && ! hasTurnPenalties() )
+            return buildBidirectionalPath( inOrigin, inDestination );
+        else
+            return buildDijkstraPath( inOrigin, inDestination );
+        
+    }
+
+
+    private boolean buildDijkstraPath(int inOrigin, int inDestination) {
         int k;
         boolean debug = false;
 
         this.inOrigin = inOrigin;
         this.inDestination = inDestination;
+        numNodesLabeled = 0;
 
         if (debug) {
             logger.debug ("building path from " + inOrigin + "(" + indexNode[inOrigin] + ")" + " to " + inDestination + "(" + indexNode[inDestination] + ")");
@@ -201,6 +413,7 @@ public class ShortestPathTreeH {
             setPathRootLabels (ib[k], inDestination);
             if (debug) candidateHeap.dataPrint();
             nodeLabeled[ib[k]] = 1;
+            numNodesLabeled++;
             k = candidateHeap.remove();
             if (k == -1) {
                 return false;
@@ -215,6 +428,242 @@ public class ShortestPathTreeH {
     }
 
     
+    /**
+     * A* search labeling nodes in order of path cost plus a straight line lower bound on the cost to inDestination.
+     * The bound is consistent, so a node's label is final when it is removed from the heap and the path found
+     * has the same cost as the one found by buildDijkstraPath().
+     */
+    private boolean buildAStarPath(int inOrigin, int inDestination) {
+
+        this.inOrigin = inOrigin;
+        this.inDestination = inDestination;
+        numNodesLabeled = 0;
+
+        if ( costPerDistance < 0 )
+            costPerDistance = getCostPerDistanceLowerBound();
+        
+        initData();
+        aStarHeap.clear();
+
+        setAStarRootLabels (inOrigin, inDestination);
+
+        int n;
+        while ( (n = aStarHeap.remove()) != inDestination ) {
+            if (n == -1)
+                return false;
+            setAStarRootLabels (n, inDestination);
+            nodeLabeled[n] = 1;
+            numNodesLabeled++;
+        }
+
+        return true;
+    }
+
+    
+    private void setAStarRootLabels ( int rootNode, int destNode ) {
+
+        int start = ip[rootNode];
+        if ( start == 0 && rootNode > 0 )
+            return;
+        int end = getStarEnd( ip, rootNode );
+        int penaltyOffset = getTurnPenaltyOffset( rootNode );
+
+        for (int i=start; i < end; i++) {
+            
+            int k = sortedLinkIndex[i];
+
+            double turnPenalty = 0.0;
+            if ( penaltyOffset >= 0 )
+                turnPenalty = turnPenaltyByStar[penaltyOffset + i - start];
+
+            if ( validLink[k] && turnPenalty >= 0 && nodeLabeled[ib[k]] == 0 ) {
+                double label = linkCost[k] + nodeLabels[ia[k]] + turnPenalty;
+                if (label - nodeLabels[ib[k]] < -COMPARE_EPSILON) {
+                    nodeLabels[ib[k]] = label;
+                    if (!centroid[k] || rootNode == inOrigin || ib[k] == destNode) {
+                        nodeKeys[ib[k]] = label + costPerDistance*getDistance( ib[k], destNode );
+                        aStarHeap.add( ib[k] );
+                    }
+                    predecessorLink[ib[k]] = k;
+                }
+            }
+        }
+        
+    }
+
+    
+    /**
+     * Bidirectional search alternating between a forward search from inOrigin and a backward search from
+     * inDestination over the backward star, stopping when the two smallest labels in the heaps sum to at least
+     * the cost of the best path joining the two searches.  Turn penalties depend on the link used to enter a node,
+     * which the backward search does not know, so buildPath() uses buildDijkstraPath() when the network has them.
+     */
+    private boolean buildBidirectionalPath(int inOrigin, int inDestination) {
+
+        this.inOrigin = inOrigin;
+        this.inDestination = inDestination;
+        numNodesLabeled = 0;
+        
+        initData();
+        Arrays.fill(nodeLabeledB, 0);
+        Arrays.fill(nodeLabelsB, 1.0e+99);
+        Arrays.fill(successorLink, -1);
+        nodeLabelsB[inDestination] = 0.0;
+        
+        // initData() marks the origin labeled; here nodes are labeled when removed from the forward heap.
+        nodeLabeled[inOrigin] = 0;
+        
+        forwardHeap.clear();
+        backwardHeap.clear();
+        forwardHeap.add( inOrigin );
+        backwardHeap.add( inDestination );
+
+        double bestCost = 1.0e+99;
+        int meetingLink = -1;
+        
+        while ( forwardHeap.size() > 0 && backwardHeap.size() > 0 ) {
+            
+            double forwardMin = nodeLabels[forwardHeap.peek()];
+            double backwardMin = nodeLabelsB[backwardHeap.peek()];
+            if ( forwardMin + backwardMin >= bestCost )
+                break;
+
+            if ( forwardMin <= backwardMin ) {
+                
+                int n = forwardHeap.remove();
+                nodeLabeled[n] = 1;
+                numNodesLabeled++;
+                
+                int start = ip[n];
+                if ( start == 0 && n > 0 )
+                    continue;
+                int end = getStarEnd( ip, n );
+                
+                for (int i=start; i < end; i++) {
+                    int k = sortedLinkIndex[i];
+                    if ( !validLink[k] )
+                        continue;
+                    if ( centroid[k] && n != inOrigin && ib[k] != inDestination )
+                        continue;
+                    
+                    double label = nodeLabels[n] + linkCost[k];
+                    if ( label + nodeLabelsB[ib[k]] - bestCost < -COMPARE_EPSILON ) {
+                        bestCost = label + nodeLabelsB[ib[k]];
+                        meetingLink = k;
+                    }
+                    
+                    if ( nodeLabeled[ib[k]] == 0 && label - nodeLabels[ib[k]] < -COMPARE_EPSILON ) {
+                        nodeLabels[ib[k]] = label;
+                        predecessorLink[ib[k]] = k;
+                        forwardHeap.add( ib[k] );
+                    }
+                }
+                
+            }
+            else {
+                
+                int n = backwardHeap.remove();
+                nodeLabeledB[n] = 1;
+                numNodesLabeled++;
+                
+                int start = ipb[n];
+                if ( start == 0 && n > 0 )
+                    continue;
+                int end = getStarEnd( ipb, n );
+                
+                for (int i=start; i < end; i++) {
+                    int k = sortedLinkIndexB[i];
+                    if ( !validLink[k] )
+                        continue;
+                    if ( centroid[k] && n != inDestination && ia[k] != inOrigin )
+                        continue;
+                    
+                    double label = nodeLabelsB[n] + linkCost[k];
+                    if ( label + nodeLabels[ia[k]] - bestCost < -COMPARE_EPSILON ) {
+                        bestCost = label + nodeLabels[ia[k]];
+                        meetingLink = k;
+                    }
+                    
+                    if ( nodeLabeledB[ia[k]] == 0 && label - nodeLabelsB[ia[k]] < -COMPARE_EPSILON ) {
+                        nodeLabelsB[ia[k]] = label;
+                        successorLink[ia[k]] = k;
+                        backwardHeap.add( ia[k] );
+                    }
+                }
+                
+            }
+            
+        }
+        
+        if ( meetingLink < 0 )
+            return false;
+
+        // join the backward part of the path onto the forward predecessor links so the path
+        // can be traced back from the destination as for the other modes.
+        int k = meetingLink;
+        predecessorLink[ib[k]] = k;
+        while ( ib[k] != inDestination ) {
+            k = successorLink[ib[k]];
+            predecessorLink[ib[k]] = k;
+        }
+        
+        return true;
+    }
+
+    
+    // determine the last index for links in the forward or backward star of a node
+    private int getStarEnd ( int[] pointers, int node ) {
+        int offset = 1;
+        int end = pointers[node + offset++];
+        while ( end <= 0 && node + offset < pointers.length )
+            end = pointers[node + offset++];
+        return end;
+    }
+    
+    
+    private boolean hasTurnPenalties () {
+        
+        boolean result = ( turnPenaltyOffset != null );
+        
+        if ( result && ! turnPenaltyWarningLogged ) {
+            logger.warn ( "turn penalties are defined, so " + DIJKSTRA_PATH + " is used for paths instead of " + BIDIRECTIONAL_PATH + "." );
+            turnPenaltyWarningLogged = true;
+        }
+        
+        return result;
+    }
+    
+    
+    private double getDistance ( int fromNode, int toNode ) {
+        double dx = nodeX[fromNode] - nodeX[toNode];
+        double dy = nodeY[fromNode] - nodeY[toNode];
+        return Math.sqrt( dx*dx + dy*dy );
+    }
+    
+    
+    /**
+     * The smallest cost per unit straight line length over valid links makes distance times this
+     * value a lower bound on the cost between any two nodes, since no path is shorter than the
+     * straight line between its ends and turn penalties used in paths are never negative.
+     */
+    private double getCostPerDistanceLowerBound () {
+        
+        double minRatio = 1.0e+99;
+        for (int k=0; k < numLinks; k++) {
+            if ( validLink[k] ) {
+                double length = getDistance( ia[k], ib[k] );
+                if ( length > 0 )
+                    minRatio = Math.min( minRatio, linkCost[k]/length );
+            }
+        }
+        
+        if ( minRatio == 1.0e+99 || minRatio < 0 )
+            minRatio = 0.0;
+        
+        return minRatio;
+    }
+    
+    
     private void setTreeRootLabels ( int rootNode ) {
         // not setting a destination node will cause a shortest path tree to be built
         setRootLabels ( rootNode, -99999 );
@@ -256,6 +705,9 @@ public class ShortestPathTreeH {
 //        if( debug )
 //            spDebugLogger.info ("[rootNode]:  rootNode=" + indexNode[rootNode] +"(external node label)" + ", ip[" + rootNode + "]=" + ip[rootNode] + ", ip[" + (rootNode+1) + "]=" + ip[(rootNode+1)] + ", start=" + start + ", end=" + end + ", offset=" + offset );
         
+        // the penalties for turns from the link entering rootNode onto the links in its forward star
+        int penaltyOffset = getTurnPenaltyOffset( rootNode );
+
         boolean first = true;
         for (int i=start; i < end; i++) {
             
@@ -271,8 +723,8 @@ public class ShortestPathTreeH {
 //            }
 
             turnPenalty = 0.0;
-            if ( turnPenaltyIndices != null && turnPenaltyIndices.length > 0 && predecessorLink[ia[k]] >= 0 )
-                turnPenalty = getTurnPenalty( k, predecessorLink[ia[k]] );
+            if ( penaltyOffset >= 0 )
+                turnPenalty = turnPenaltyByStar[penaltyOffset + i - start];
 
 //            if(logger.isDebugEnabled())
 //                logger.debug ("i=" + i + ", k=" + k + ", ia[k=" + k + "]=" + ia[k] + ", ib[k=" + k + "]=" + ib[k] + ", an[k=" + k + "]=" + indexNode[ia[k]] + ", bn[k=" + k + "]=" + indexNode[ib[k]] + ", linkCost[k=" + k + "]=" + linkCost[k] +  ", nodeLabeled[ib[k]=" + ib[k] + "]=" +  nodeLabeled[ib[k]] +  ", nodeLabels[ib[k]=" + ib[k] + "]=" + nodeLabels[ib[k]] +  ", nodeLabels[ia[k]=" + ia[k] + "]=" + nodeLabels[ia[k]] + ", validLink[k=" + k + "]=" + validLink[k] + ", turnPenalty=" + turnPenalty);
@@ -324,21 +776,11 @@ public class ShortestPathTreeH {
 
         Arrays.fill (aonFlow, 0.0);
         
-        int k;
-        for (int j=0; j < numZones; j++) {
-            if ( tripRow[j] > 0 && j != inOrigin ) {
-                k = predecessorLink[j];
-                if (k == -1) {
-                    logger.info ("no path from " + indexNode[inOrigin] + " to " + indexNode[j] + " for userClass " + userClass);
-                    continue;
-                }
-                aonFlow[k] += tripRow[j];
-                while (ia[k] != inOrigin) {
-                    k = predecessorLink[ia[k]];
-                    aonFlow[k] += tripRow[j];
-                }
-            }
-        }
+        if ( treeOrderLoading && treeBuilt )
+            loadTreeOrder ( tripRow, userClass );
+        else
+            loadPaths ( tripRow, userClass );
+
         loadTime += (System.currentTimeMillis() - start);
         
         return aonFlow;
@@ -348,14 +790,12 @@ public class ShortestPathTreeH {
 
 
     /**
-     * For the user class and origin zone pair, get the trip table row from the DemandHandler
-     * and buid and load the shortest path tree from the origin.
-     * The loaded Aon link flows are then returned. 
+     * For the user class and origin zone pair, buid and load the shortest path tree from the origin
+     * with the trips in the row of the sparse demand table for the pair.  Only the destinations with
+     * trips are visited.  The loaded Aon link flows are then returned. 
      */
-    public double[] buildAndLoadTrees ( int userClass, int origin, double[] originTrips  ) {
+    public double[] buildAndLoadTrees ( int userClass, int origin, SparseTripTable demand, int row  ) {
 
-        int k;
-        
         Arrays.fill (aonFlow, 0.0);
         
 
@@ -364,24 +804,10 @@ public class ShortestPathTreeH {
 
         
         // load these trips onto the links on routes from z to all destinations j, if there are trips from z to j. 
-        for (int j=0; j < numZones; j++) {
-            
-            if ( originTrips[j] > 0 && j != origin ) {
-                
-                k = predecessorLink[j];
-                if (k == -1) {
-                    logger.info ("no path from " + indexNode[origin] + " to " + indexNode[j] + " for userClass " + userClass );
-                    continue;
-                }
-                
-                
-                aonFlow[k] += originTrips[j];
-                while (ia[k] != origin) {
-                    k = predecessorLink[ia[k]];
-                    aonFlow[k] += originTrips[j];
-                }
-            }
-        }
+        if ( treeOrderLoading )
+            loadTreeOrder ( demand.getColumns(), demand.getValues(), demand.getRowStart( row ), demand.getRowEnd( row ), userClass );
+        else
+            loadPaths ( demand.getColumns(), demand.getValues(), demand.getRowStart( row ), demand.getRowEnd( row ), userClass );
 
 
         return aonFlow;
@@ -390,6 +816,125 @@ public class ShortestPathTreeH {
 
 
 
+    /**
+     * Load the trips to each destination zone onto the links of its path, traced back from the destination to the origin.
+     */
+    private void loadPaths ( double[] tripRow, int userClass ) {
+
+        for (int j=0; j < numZones; j++) {
+            if ( tripRow[j] > 0 && j != inOrigin )
+                loadPath ( j, tripRow[j], userClass );
+        }
+
+    }
+
+
+    /**
+     * Load the trips[k] to each destinations[k], for k from start to end-1, as loadPaths() does for a dense trip row.
+     */
+    private void loadPaths ( int[] destinations, double[] trips, int start, int end, int userClass ) {
+
+        for (int k=start; k < end; k++) {
+            if ( trips[k] > 0 && destinations[k] != inOrigin )
+                loadPath ( destinations[k], trips[k], userClass );
+        }
+
+    }
+
+
+    private void loadPath ( int j, double trips, int userClass ) {
+
+        int k = predecessorLink[j];
+        if (k == -1) {
+            logger.info ("no path from " + indexNode[inOrigin] + " to " + indexNode[j] + " for userClass " + userClass);
+            return;
+        }
+        aonFlow[k] += trips;
+        while (ia[k] != inOrigin) {
+            k = predecessorLink[ia[k]];
+            aonFlow[k] += trips;
+        }
+
+    }
+
+
+
+    /**
+     * Load the trips to all destination zones in one sweep over the tree, visiting nodes in the reverse of the
+     * order buildTree() labeled them.  Each node's accumulated trips are loaded on its predecessor link and added
+     * to its predecessor node, which was labeled earlier and so is visited later.
+     */
+    private void loadTreeOrder ( double[] tripRow, int userClass ) {
+
+        if ( nodeFlow == null )
+            nodeFlow = new double[numNodes+1];
+
+        for (int j=0; j < numZones; j++) {
+            if ( tripRow[j] > 0 && j != inOrigin )
+                addDestinationFlow ( j, tripRow[j], userClass );
+        }
+
+        loadNodeFlows();
+
+    }
+
+
+    /**
+     * Load the trips[k] to each destinations[k], for k from start to end-1, as loadTreeOrder() does for a dense trip row.
+     */
+    private void loadTreeOrder ( int[] destinations, double[] trips, int start, int end, int userClass ) {
+
+        if ( nodeFlow == null )
+            nodeFlow = new double[numNodes+1];
+
+        for (int k=start; k < end; k++) {
+            if ( trips[k] > 0 && destinations[k] != inOrigin )
+                addDestinationFlow ( destinations[k], trips[k], userClass );
+        }
+
+        loadNodeFlows();
+
+    }
+
+
+    private void addDestinationFlow ( int j, double trips, int userClass ) {
+
+        int k = predecessorLink[j];
+        if (k == -1) {
+            logger.info ("no path from " + indexNode[inOrigin] + " to " + indexNode[j] + " for userClass " + userClass);
+            return;
+        }
+        if ( nodeLabeled[j] == 1 ) {
+            nodeFlow[j] += trips;
+        }
+        else {
+            // zones reached on centroid connectors are not labeled permanently, so load their connector here.
+            aonFlow[k] += trips;
+            nodeFlow[ia[k]] += trips;
+        }
+
+    }
+
+
+    private void loadNodeFlows () {
+
+        int k;
+        int node;
+        for (int i=treeOrderCount-1; i > 0; i--) {
+            node = treeOrder[i];
+            if ( nodeFlow[node] > 0 ) {
+                k = predecessorLink[node];
+                aonFlow[k] += nodeFlow[node];
+                nodeFlow[ia[k]] += nodeFlow[node];
+                nodeFlow[node] = 0.0;
+            }
+        }
+        nodeFlow[inOrigin] = 0.0;
+
+    }
+
+
+
     /**
      * Trace the shortest path tree to get all the skims for each attribute sent in to all
      * destination zones from this origin.
@@ -473,6 +1018,72 @@ public class ShortestPathTreeH {
     }
 
 
+    /**
+     * Accumulate the skims for each attribute sent in to all destination zones from this origin in one pass
+     * over the nodes in the order buildTree() labeled them, and return them as float rows dimensioned to the
+     * number of zones.  Each node's predecessor was labeled before it, so a node's skim is its predecessor
+     * node's skim plus the attribute of the link between them, and the cost is O(nodes x attributes) rather
+     * than the O(zones x path length x attributes) of tracing every path back from its destination in getSkims().
+     * The sums are taken from the origin out rather than from the destination back, so values can differ from
+     * getSkims() in the last bits of the double sums.
+     */
+    public float[][] getTreeSkims ( double[][] linkAttributesToSkim ) {
+        return getTreeSkims ( linkAttributesToSkim, new float[linkAttributesToSkim.length][numZones] );
+    }
+
+
+    /**
+     * Same as getTreeSkims(double[][]) but stores the skims in the skimRows arrays passed in, which are returned.
+     */
+    public float[][] getTreeSkims ( double[][] linkAttributesToSkim, float[][] skimRows ) {
+
+        // if the last build was not a full tree, the labeling order doesn't reach every zone, so trace the paths instead.
+        if ( ! treeBuilt ) {
+            double[][] skims = getSkims( linkAttributesToSkim );
+            for (int k=0; k < linkAttributesToSkim.length; k++) {
+                for (int j=0; j < numZones; j++)
+                    skimRows[k][j] = (float)skims[k][j];
+            }
+            return skimRows;
+        }
+
+        if ( nodeSkim == null )
+            nodeSkim = new double[numNodes+1];
+
+        int p;
+        for (int k=0; k < linkAttributesToSkim.length; k++) {
+
+            double[] linkAttribute = linkAttributesToSkim[k];
+
+            nodeSkim[inOrigin] = 0.0;
+            for (int i=1; i < treeOrderCount; i++) {
+                p = predecessorLink[treeOrder[i]];
+                nodeSkim[treeOrder[i]] = nodeSkim[ia[p]] + linkAttribute[p];
+            }
+
+            // zones reached on centroid connectors are not labeled permanently, so get their values from their predecessor node.
+            float[] skimRow = skimRows[k];
+            for (int j=0; j < numZones; j++) {
+                if ( j == inOrigin ) {
+                    skimRow[j] = 0.0f;
+                    continue;
+                }
+                p = predecessorLink[j];
+                if (p == -1) {
+                    //centroid is not connected
+                    skimRow[j] = Float.NEGATIVE_INFINITY;
+                    continue;
+                }
+                skimRow[j] = (float)( nodeSkim[ia[p]] + linkAttribute[p] );
+            }
+
+        }
+
+        return skimRows;
+
+    }
+
+
 	public void printPath ( int origin, int destination ) {
 	    
 		// origin and destination are external numbers
@@ -505,11 +1116,14 @@ public class ShortestPathTreeH {
 
 	public void setValidLinks ( boolean[] validLinks) {
 		this.validLink = validLinks;
+		costPerDistance = -1.0;
 	}
     
     
+	// the A* lower bound is derived from link costs, so call again if the values in linkCost are changed.
 	public void setLinkCost ( double[] linkCost) {
 		this.linkCost = linkCost;
+		costPerDistance = -1.0;
 	}
     
     
@@ -580,25 +1194,65 @@ public class ShortestPathTreeH {
     
     
     
-    private float getTurnPenalty( int k, int predecessorLink ) {
-        
-        float penalty = 0.0f;
-        
-        if ( turnPenaltyIndices[predecessorLink] != null ) {
-            
-            for (int i=0; i < turnPenaltyIndices[predecessorLink].length; i++) {
-                
-                if ( turnPenaltyIndices[predecessorLink][i] == k ) {
-                    penalty = turnPenaltyArray[predecessorLink][i];
-                    break;
-                }
-                
-            }
+    /**
+     * Compile the turn penalties listed by predecessor link into one row per penalized predecessor link, with an entry
+     * for each link in the forward star of its b node in sortedLinkIndex order, so label setting finds the penalty
+     * for a turn by position rather than by searching the list.  Turns not listed have a penalty of 0, and if a turn
+     * is listed more than once, the first value is used.
+     */
+    private void compileTurnPenalties () {
+
+        turnPenaltyOffset = null;
+        turnPenaltyByStar = null;
+
+        if ( turnPenaltyIndices == null )
+            return;
 
+        int[] offsets = new int[turnPenaltyIndices.length];
+        Arrays.fill( offsets, -1 );
+        int size = 0;
+
+        for (int j=0; j < turnPenaltyIndices.length; j++) {
+            if ( turnPenaltyIndices[j] == null )
+                continue;
+            int node = ib[j];
+            int start = ip[node];
+            if ( start == 0 && node > 0 )
+                continue;
+            offsets[j] = size;
+            size += getStarEnd( ip, node ) - start;
         }
-        
-        return penalty;
-        
+
+        if ( size == 0 )
+            return;
+
+        // position of each link in sortedLinkIndex
+        int[] starPosition = new int[numLinks];
+        for (int i=0; i < numLinks; i++)
+            starPosition[sortedLinkIndex[i]] = i;
+
+        turnPenaltyByStar = new float[size];
+        for (int j=0; j < turnPenaltyIndices.length; j++) {
+            if ( offsets[j] < 0 )
+                continue;
+            int start = ip[ib[j]];
+            for (int i=turnPenaltyIndices[j].length - 1; i >= 0; i--) {
+                int k = turnPenaltyIndices[j][i];
+                if ( k >= 0 && ia[k] == ib[j] )
+                    turnPenaltyByStar[offsets[j] + starPosition[k] - start] = turnPenaltyArray[j][i];
+            }
+        }
+
+        turnPenaltyOffset = offsets;
+
+    }
+
+
+    // offset in turnPenaltyByStar of the penalties for turns from the link entering rootNode, or -1 if there are none.
+    private int getTurnPenaltyOffset ( int rootNode ) {
+        if ( turnPenaltyOffset == null || predecessorLink[rootNode] < 0 )
+            return -1;
+        return turnPenaltyOffset[predecessorLink[rootNode]];
     }
 
     
@@ -676,9 +1330,18 @@ public class ShortestPathTreeH {
     
     
     
-    /*-------------------- Inner class --------------------*/
+    /*-------------------- Inner classes --------------------*/
+
+    private interface CandidateHeap {
+        public void clear();
+        public void add(int x);
+        public int remove();
+        public void dataPrint();
+    }
+
+    
 
-    public class Heap {
+    public class Heap implements CandidateHeap {
 
 
 
@@ -923,4 +1586,266 @@ public class ShortestPathTreeH {
     */
     }
 
+
+
+    /**
+     * Indexed 4-ary heap of candidate links keyed by the label of the link's b-node.
+     * The heap position of each node is kept so that a decreased label is sifted up
+     * directly rather than found by scanning the heap.  A node that has been removed
+     * is not added again in the same tree, as in Heap.
+     */
+    public class IndexedDaryHeap implements CandidateHeap {
+
+        static final int D = 4;
+        static final int NOT_IN_HEAP = -1;
+        static final int REMOVED = -2;
+
+        private int data[];
+        private int position[];
+        private int touched[];
+        private int size;
+        private int numTouched;
+
+
+        public IndexedDaryHeap(int size) {
+            data = new int[size];
+            position = new int[size];
+            touched = new int[size];
+            Arrays.fill(position, NOT_IN_HEAP);
+            this.size = 0;
+            numTouched = 0;
+        }
+
+
+        // only the positions of nodes added since the last clear need to be reset
+        public void clear() {
+            for (int i=0; i < numTouched; i++)
+                position[touched[i]] = NOT_IN_HEAP;
+            numTouched = 0;
+            size = 0;
+        }
+
+
+        public void add(int x) {
+            int node = ib[x];
+            int idx = position[node];
+
+            if (idx == REMOVED)
+                return;
+
+            if (idx == NOT_IN_HEAP) {
+                idx = size++;
+                touched[numTouched++] = node;
+            }
+
+            // a link already in the heap for this node is replaced by x, whose label is no larger
+            data[idx] = x;
+            siftUp(idx);
+        }
+
+
+        public int remove() {
+            if (size == 0) return -1;   // no item left
+            int min = data[0];
+            position[ib[min]] = REMOVED;
+
+            size--;
+            if (size > 0) {
+                data[0] = data[size];
+                siftDown(0);
+            }
+
+            return min;
+        }
+
+
+        private void siftUp(int idx) {
+            int k = data[idx];
+            while (idx > 0) {
+                int parentIdx = (idx - 1) / D;
+                int kParent = data[parentIdx];
+                if ( !precedes(k, kParent) )
+                    break;
+                data[idx] = kParent;
+                position[ib[kParent]] = idx;
+                idx = parentIdx;
+            }
+            data[idx] = k;
+            position[ib[k]] = idx;
+        }
+
+
+        private void siftDown(int idx) {
+            int k = data[idx];
+            while (true) {
+                int childIdx = D*idx + 1;
+                if (childIdx >= size)
+                    break;
+                int last = Math.min(childIdx + D, size);
+                int minIdx = childIdx;
+                for (int i=childIdx+1; i < last; i++) {
+                    if ( precedes(data[i], data[minIdx]) )
+                        minIdx = i;
+                }
+                int kChild = data[minIdx];
+                if ( !precedes(kChild, k) )
+                    break;
+                data[idx] = kChild;
+                position[ib[kChild]] = idx;
+                idx = minIdx;
+            }
+            data[idx] = k;
+            position[ib[k]] = idx;
+        }
+
+
+        // same ordering as Heap: smaller label first, with ties within COMPARE_EPSILON broken on the smaller external node number
+        private boolean precedes(int k1, int k2) {
+            double diff = nodeLabels[ib[k1]] - nodeLabels[ib[k2]];
+            if (diff < -COMPARE_EPSILON)
+                return true;
+            return (diff <= COMPARE_EPSILON && indexNode[ib[k1]] < indexNode[ib[k2]]);
+        }
+
+
+        public void dataPrint() {
+            int k;
+
+            for (int i = 0; i < size; i++) {
+                k = data[i];
+                logger.debug("i=" + i + ", k=" + k + ", ib[k]=" + ib[k] + ", an=" + indexNode[ia[k]] + ", bn=" + indexNode[ib[k]] + ", nodeLabels[ib]=" + nodeLabels[ib[k]] + ", nodeLabeled[ib]=" + nodeLabeled[ib[k]]);
+            }
+            logger.debug("");
+        }
+
+    }
+
+
+
+    /**
+     * Indexed 4-ary heap of nodes ordered by the key values in the array it is given, with ties
+     * broken on external node number.  Used by the A* and bidirectional searches, which order
+     * nodes by values other than the forward node labels used by the candidate link heaps.
+     */
+    private class NodeHeap {
+
+        static final int D = 4;
+        static final int NOT_IN_HEAP = -1;
+        static final int REMOVED = -2;
+
+        private double keys[];
+        private int data[];
+        private int position[];
+        private int touched[];
+        private int size;
+        private int numTouched;
+
+
+        public NodeHeap(double[] keys) {
+            this.keys = keys;
+            data = new int[keys.length];
+            position = new int[keys.length];
+            touched = new int[keys.length];
+            Arrays.fill(position, NOT_IN_HEAP);
+        }
+
+
+        public void clear() {
+            for (int i=0; i < numTouched; i++)
+                position[touched[i]] = NOT_IN_HEAP;
+            numTouched = 0;
+            size = 0;
+        }
+
+
+        public int size() {
+            return size;
+        }
+
+
+        public int peek() {
+            if (size == 0) return -1;
+            return data[0];
+        }
+
+
+        // add a node, or move it up if already in the heap after its key was decreased
+        public void add(int node) {
+            int idx = position[node];
+
+            if (idx == REMOVED)
+                return;
+
+            if (idx == NOT_IN_HEAP) {
+                idx = size++;
+                data[idx] = node;
+                touched[numTouched++] = node;
+            }
+
+            siftUp(idx);
+        }
+
+
+        public int remove() {
+            if (size == 0) return -1;
+            int min = data[0];
+            position[min] = REMOVED;
+
+            size--;
+            if (size > 0) {
+                data[0] = data[size];
+                siftDown(0);
+            }
+
+            return min;
+        }
+
+
+        private void siftUp(int idx) {
+            int node = data[idx];
+            while (idx > 0) {
+                int parentIdx = (idx - 1) / D;
+                if ( !precedes(node, data[parentIdx]) )
+                    break;
+                data[idx] = data[parentIdx];
+                position[data[idx]] = idx;
+                idx = parentIdx;
+            }
+            data[idx] = node;
+            position[node] = idx;
+        }
+
+
+        private void siftDown(int idx) {
+            int node = data[idx];
+            while (true) {
+                int childIdx = D*idx + 1;
+                if (childIdx >= size)
+                    break;
+                int last = Math.min(childIdx + D, size);
+                int minIdx = childIdx;
+                for (int i=childIdx+1; i < last; i++) {
+                    if ( precedes(data[i], data[minIdx]) )
+                        minIdx = i;
+                }
+                if ( !precedes(data[minIdx], node) )
+                    break;
+                data[idx] = data[minIdx];
+                position[data[idx]] = idx;
+                idx = minIdx;
+            }
+            data[idx] = node;
+            position[node] = idx;
+        }
+
+
+        private boolean precedes(int n1, int n2) {
+            double diff = keys[n1] - keys[n2];
+            if (diff < -COMPARE_EPSILON)
+                return true;
+            return (diff <= COMPARE_EPSILON && indexNode[n1] < indexNode[n2]);
+        }
+
+    }
+
 }
@@ -18,15 +18,27 @@ package com.pb.tlumip.ts;
 
 
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
+import com.pb.common.util.IndexSort;
+
 
 /**
  *   This class manages information that is common to all threads running SpBuildLoadMt.run() rethods on the vm from
  *   which an instance of this class was created.  Common information includes the workQueue, the results arrays in
  *   which results computed by the running threads are accumulated, and network setup data.
  * 
+ *   The work elements assigned to this handler are not statically split among threads.  They are ordered by the
+ *   time each one took to build and load in the previous iteration, largest first, and grouped into chunks whose
+ *   estimated cost shrinks as the remaining work shrinks.  Threads take the next unclaimed chunk from the queue
+ *   until it is empty, so an iteration finishes when the total work is done rather than when the slowest
+ *   statically assigned partition is done.
+ *
+ *   When a memory budget for saved trees is given in setup(), the shortest path tree built for each work element in
+ *   the current iteration is saved in a ShortestPathTreeCache, so FW can write the trees to its path file.
  */
 
 public class SpBuildLoadCommon {
@@ -35,16 +47,46 @@ public class SpBuildLoadCommon {
     
     private static SpBuildLoadCommon instance = new SpBuildLoadCommon();
 
+    // remaining work is divided by CHUNK_FACTOR*numThreads to get the target cost of the next chunk.
+    static final int CHUNK_FACTOR = 2;
+    
+    // chunks are never targeted smaller than total cost divided by MAX_CHUNKS_PER_THREAD*numThreads.
+    static final int MAX_CHUNKS_PER_THREAD = 64;
+    
+    // a work element is packed into a single int with the user class in the high bits and the origin taz in the low bits.
+    static final int ORIGIN_BITS = 24;
+    static final int ORIGIN_MASK = ( 1 << ORIGIN_BITS ) - 1;
+
     ShortestPathTreeH[][] sp = null;
     
     private int[] packetsCompletedByThread;
+    private long[] computeTimeByThread;
+    
+    // counted down by each thread as it publishes its results, so waiting callers are released when the last one finishes.
+    private CountDownLatch threadsCompleted;
     
-    private int[][][] workElements;
-    private double[][][] workElementsDemand;
+    // the first error thrown by a thread since the last reset(), or null if none failed.
+    private Throwable threadFailure;
+    
+    // all packed work elements [userclass, origin taz] assigned to this handler and their trip table rows.
+    // the rows are shared with the demand tables they came from and must not be modified.
+    private int[] workElements;
+    private SparseTripTable workElementsDemand;
     private double[][][] cumulativeBuildLoadResults;
 
-    // shortest path trees computed by this node are saved by user class and origin taz (internal index)
-    private int[][][] savedPaths;
+    // build and load time in microseconds for each work element measured during the previous iteration
+    private int[] elementBuildTime;
+    
+    // work element indices ordered by decreasing cost, and the boundaries of the chunks in that order
+    private int[] elementOrder;
+    private int[] chunkBoundaries;
+    private int numChunks;
+    private AtomicInteger nextChunk = new AtomicInteger();
+
+    // shortest path trees computed by this node since the last reset() are saved by packed [user class, origin taz]
+    // work element, or null if no trees are saved.
+    private ShortestPathTreeCache savedTrees;
+    private int savedTreeMegabytes;
     
     private String handlerName;
     private int numThreads;
@@ -67,14 +109,20 @@ public class SpBuildLoadCommon {
     /** setup data structures to be used by all threads
      *  working on building and loading aon link flows.
      */
-    public void setup( String handlerName, int[][][] workElements, double[][][] workElementsDemand, int numUserClasses, int numLinks, int numNodes, int numZones, int[] ia, int[] ib, int[] ipa, int[] sortedLinkIndexA, int[] indexNode, int[] nodeIndex, boolean[] centroid, boolean[][] validLinksForClasses, double[] linkCost, int[][] turnPenaltyIndices, float[][] turnPenaltyArray ) {
+    public void setup( String handlerName, int numThreads, int[] workElements, SparseTripTable workElementsDemand, int numUserClasses, int numLinks, int numNodes, int numZones, int[] ia, int[] ib, int[] ipa, int[] sortedLinkIndexA, int[] indexNode, int[] nodeIndex, boolean[] centroid, boolean[][] validLinksForClasses, double[] linkCost, int[][] turnPenaltyIndices, float[][] turnPenaltyArray, String heapType, String loadMethod, int savedTreeMegabytes ) {
 
         this.handlerName = handlerName;
-        this.numThreads = workElements.length;
+        this.numThreads = numThreads;
         
         this.workElements = workElements;
         this.workElementsDemand = workElementsDemand;
         
+        int numElements = workElements.length;
+        
+        // no timings exist before the first iteration, so all elements are assumed to cost the same.
+        elementBuildTime = new int[numElements];
+        Arrays.fill ( elementBuildTime, 1 );
+        
         this.numUserClasses = numUserClasses;
         this.numLinks = numLinks;
 
@@ -84,13 +132,19 @@ public class SpBuildLoadCommon {
         for (int i=0; i < numThreads; i++) {
             for (int j=0; j < numUserClasses; j++) {
                 sp[i][j] = new ShortestPathTreeH( numLinks, numNodes, numZones, ia, ib, ipa,  sortedLinkIndexA, indexNode, nodeIndex, centroid, turnPenaltyIndices, turnPenaltyArray );
+                sp[i][j].setHeapType( heapType );
+                sp[i][j].setLoadMethod( loadMethod );
                 sp[i][j].setValidLinks( validLinksForClasses[j] );
                 sp[i][j].setLinkCost( linkCost );
             }
         }
 
         
-        savedPaths = new int[numUserClasses][numZones][];
+        this.savedTreeMegabytes = savedTreeMegabytes;
+        if ( savedTreeMegabytes > 0 )
+            savedTrees = new ShortestPathTreeCache( numNodes, ib, savedTreeMegabytes*1024L*1024 );
+        else
+            savedTrees = null;
         
         
         logger.info( handlerName + " SpBuildLoadCommon.setup() calling reset()." );        
@@ -104,6 +158,9 @@ public class SpBuildLoadCommon {
         
         packetsCompletedByThread = new int[numThreads];
         Arrays.fill ( packetsCompletedByThread, -1 );
+        computeTimeByThread = new long[numThreads];
+        threadsCompleted = new CountDownLatch( numThreads );
+        threadFailure = null;
         
         for (int i=0; i < numThreads; i++) {
             for (int j=0; j < numUserClasses; j++) {
@@ -111,6 +168,106 @@ public class SpBuildLoadCommon {
             }
         }
 
+        setWorkChunks();
+
+        // only the trees built in the current iteration are kept.
+        if ( savedTrees != null ) {
+            if ( savedTrees.size() > 0 || savedTrees.getNumberDropped() > 0 )
+                logger.info( String.format( "%s saved %d shortest path trees in %.1f MB in the previous iteration, %d dropped to stay within %d MB and built again if requested.",
+                        handlerName, savedTrees.size(), savedTrees.getBytes()/(1024.0*1024.0), savedTrees.getNumberDropped(), savedTreeMegabytes ) );
+            savedTrees.clear();
+        }
+        
+    }
+    
+
+    /**
+     * Order the work elements by decreasing cost measured in the previous iteration and divide them into chunks.
+     * Each chunk is targeted to cost a fixed fraction of the work remaining when it is started, so the costly
+     * elements are started first and the last chunks handed out are small enough to keep all threads busy
+     * until the queue is empty.
+     */
+    private void setWorkChunks() {
+
+        int numElements = workElements.length;
+        
+        int[] sortIndices = ( numElements > 0 ? IndexSort.indexSort( elementBuildTime ) : new int[0] );
+        elementOrder = new int[numElements];
+        
+        long totalCost = 0;
+        for (int i=0; i < numElements; i++) {
+            elementOrder[i] = sortIndices[numElements - 1 - i];
+            totalCost += elementBuildTime[i];
+        }
+
+        long minChunkCost = totalCost / ( MAX_CHUNKS_PER_THREAD*numThreads );
+        
+        int[] tempBoundaries = new int[numElements + 1];
+        int chunks = 0;
+        
+        long remainingCost = totalCost;
+        int i = 0;
+        while ( i < numElements ) {
+            
+            long targetCost = Math.max( remainingCost / ( CHUNK_FACTOR*numThreads ), minChunkCost );
+
+            tempBoundaries[chunks++] = i;
+            
+            long chunkCost = 0;
+            do {
+                chunkCost += elementBuildTime[elementOrder[i]];
+                i++;
+            } while ( i < numElements && chunkCost + elementBuildTime[elementOrder[i]] <= targetCost );
+            
+            remainingCost -= chunkCost;
+        }
+        tempBoundaries[chunks] = numElements;
+        
+        chunkBoundaries = new int[chunks + 1];
+        for (int c=0; c <= chunks; c++)
+            chunkBoundaries[c] = tempBoundaries[c];
+        numChunks = chunks;
+        
+        nextChunk.set( 0 );
+        
+        logger.info( String.format( "%s divided %d work elements into %d chunks for %d threads.", handlerName, numElements, numChunks, numThreads ) );
+        
+    }
+    
+
+    /** return the index of the next chunk of work elements not yet claimed by a thread, or -1 if all have been claimed.
+     */
+    public int getNextWorkChunk() {
+        int chunk = nextChunk.getAndIncrement();
+        return chunk < numChunks ? chunk : -1;
+    }
+
+    
+    /** return the position in the work element order of the first element in the chunk.
+     */
+    public int getChunkStart( int chunk ) {
+        return chunkBoundaries[chunk];
+    }
+    
+
+    /** return the position in the work element order one past the last element in the chunk.
+     */
+    public int getChunkEnd( int chunk ) {
+        return chunkBoundaries[chunk + 1];
+    }
+    
+
+    /** return the work element index at the position in the work element order.
+     */
+    public int getOrderedWorkElement( int position ) {
+        return elementOrder[position];
+    }
+    
+    
+    /** save the build and load time for the work element to be used in ordering and chunking the next iteration.
+     */
+    public void setElementBuildTime( int workElement, long nanoseconds ) {
+        elementBuildTime[workElement] = (int)Math.max( 1, Math.min( Integer.MAX_VALUE, nanoseconds/1000 ) );
     }
     
 
@@ -159,26 +316,63 @@ public class SpBuildLoadCommon {
     
     
     /*
-     * return the work elements array for the specified thread
+     * return the user class of the work element
      */
-    public int[][] getWorkElements( int threadId ) {
-        return workElements[threadId];
+    public int getWorkElementUserClass( int workElement ) {
+        return workElements[workElement] >>> ORIGIN_BITS;
     }
     
     
-    /** return the row from the trip table for the specified user class and origin zone.
-     * *
+    /*
+     * return the origin taz (internal index) of the work element
      */
-    public double[] getElementDemand( int threadId, int workElement ) {
-        double[] tripTableRow = workElementsDemand[threadId][workElement];
-        return tripTableRow;
+    public int getWorkElementOrigin( int workElement ) {
+        return workElements[workElement] & ORIGIN_MASK;
+    }
+    
+    
+    /*
+     * return a user class and origin taz packed into a single int work element
+     */
+    public static int packWorkElement( int userClass, int origin ) {
+        return ( userClass << ORIGIN_BITS ) | origin;
+    }
+    
+    
+    /** return the sparse table whose row for each work element holds the non-zero trips from the trip table
+     *  for the user class and origin zone of the work element.
+     */
+    public SparseTripTable getElementDemand() {
+        return workElementsDemand;
     }
 
     
-    /** set the number of packets handled by th thread.
+    /** set the number of packets handled by the thread and the time it spent on them, and signal that the thread is finished.
+     *  this must be the last call a thread makes, after its results array has been set.
      */
-    public void setPacketsCompletedByThread ( int threadId, int packetsCompleted ) {
+    public synchronized void setPacketsCompletedByThread ( int threadId, int packetsCompleted, long computeNanoseconds ) {
         packetsCompletedByThread[threadId] = packetsCompleted;
+        computeTimeByThread[threadId] = computeNanoseconds;
+        threadsCompleted.countDown();
+    }
+
+    
+    /** record the error that stopped the thread, and signal that the thread is finished if it hasn't already.
+     */
+    public synchronized void setThreadFailed ( int threadId, Throwable e ) {
+        if ( threadFailure == null )
+            threadFailure = e;
+        if ( packetsCompletedByThread[threadId] < 0 ) {
+            packetsCompletedByThread[threadId] = 0;
+            threadsCompleted.countDown();
+        }
+    }
+
+    
+    /** return the first error thrown by a thread started since the last reset(), or null if none failed.
+     */
+    public synchronized Throwable getThreadFailure () {
+        return threadFailure;
     }
 
     
@@ -189,32 +383,55 @@ public class SpBuildLoadCommon {
     }
 
 
-    /** return the number of threads that have a non-negative packet count indicating they's finished.
+    /** return the time in seconds the thread spent building and loading trees.
      */
-    public int getNumberOfThreadsCompleted () {
+    public double getComputeSecondsByThread ( int threadId ) {
+        return computeTimeByThread[threadId] / 1.0e9;
+    }
 
-        int numThreadsCompleted = 0;
-        for ( int i=0; i < packetsCompletedByThread.length; i++ ) {
-            //logger.info( handlerName + " thread " + i + " completed " + packetsCompletedByThread[i] + " packets, numThreadsCompleted=" + numThreadsCompleted + ".");
-            if ( packetsCompletedByThread[i] >= 0 )
-                numThreadsCompleted++;
-        }
 
-        return numThreadsCompleted;
-        
+    /** return the number of threads that have signaled they're finished.
+     */
+    public int getNumberOfThreadsCompleted () {
+        return numThreads - (int)threadsCompleted.getCount();
+    }
+
+    
+    /** block until every thread started since the last reset() has signaled it's finished.
+     */
+    public void awaitCompletion () throws InterruptedException {
+        threadsCompleted.await();
     }
 
     
+    /** return the predecessor link array of the tree built for the user class and origin since the last reset(),
+     *  or null if trees are not saved or there is none.  A tree that was dropped to stay within the memory budget
+     *  is built again with the link costs of the last reset(), so it is the same tree the worker thread loaded.
+     */
     public int[] getShortestPathTree ( int userClassIndex, int internalOriginTazIndex ) {
-        return savedPaths[userClassIndex][internalOriginTazIndex];
+        if ( savedTrees == null )
+            return null;
+        
+        int key = packWorkElement( userClassIndex, internalOriginTazIndex );
+        int[] shortestPathTree = savedTrees.get( key );
+        if ( shortestPathTree == null && savedTrees.isDropped( key ) ) {
+            // trees are requested after the worker threads have finished, so the first thread's object is idle.
+            ShortestPathTreeH treeBuilder = sp[0][userClassIndex];
+            synchronized ( treeBuilder ) {
+                treeBuilder.buildTree( internalOriginTazIndex );
+                shortestPathTree = treeBuilder.getPredecessorLink().clone();
+            }
+        }
+        return shortestPathTree;
     }
     
     
     public void setShortestPathTree ( int userClassIndex, int internalOriginTazIndex, int[] shortestPathTree ) {
-        savedPaths[userClassIndex][internalOriginTazIndex] = shortestPathTree;
+        if ( savedTrees != null )
+            savedTrees.put( packWorkElement( userClassIndex, internalOriginTazIndex ), shortestPathTree );
     }
-    
-    
+
+
     public String getHandlerName() {
         return handlerName;
     }
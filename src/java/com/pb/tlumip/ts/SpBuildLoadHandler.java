@@ -82,7 +82,7 @@ public class SpBuildLoadHandler implements SpBuildLoadHandlerIF {
     
     
     // this method is called by local instances of SpBuildLoadHandler.
-    public int setup( String handlerName, String rpcConfigFile, int[][][] workElements, double[][][] workElementsDemand, int numUserClasses, int numLinks, int numNodes, int numZones, int[] ia, int[] ib, int[] ipa, int[] sortedLinkIndexA, int[] indexNode, int[] nodeIndex, boolean[] centroid, boolean[][] validLinksForClasses, double[] linkCost, int[][] turnPenaltyIndices, float[][] turnPenaltyArray ) {
+    public int setup( String handlerName, String rpcConfigFile, int[] workElements, SparseTripTable workElementsDemand, int numUserClasses, int numLinks, int numNodes, int numZones, int[] ia, int[] ib, int[] ipa, int[] sortedLinkIndexA, int[] indexNode, int[] nodeIndex, boolean[] centroid, boolean[][] validLinksForClasses, double[] linkCost, int[][] turnPenaltyIndices, float[][] turnPenaltyArray, String heapType, String loadMethod, int savedTreeMegabytes ) {
 
         logger.info( handlerName + " running SpBuildLoadHandler.setup()." );
         
@@ -90,7 +90,28 @@ public class SpBuildLoadHandler implements SpBuildLoadHandlerIF {
         
         // a local instance made this call and is loaded in the same VM as this instance, so NetworkHandler and DemandHandler handles are passed in
         // and can be passed on by this handler.
-        spCommon.setup( handlerName, workElements, workElementsDemand, numUserClasses, numLinks, numNodes, numZones, ia, ib, ipa, sortedLinkIndexA, indexNode, nodeIndex, centroid, validLinksForClasses, linkCost,  turnPenaltyIndices, turnPenaltyArray );
+        spCommon.setup( handlerName, numberOfThreads, workElements, workElementsDemand, numUserClasses, numLinks, numNodes, numZones, ia, ib, ipa, sortedLinkIndexA, indexNode, nodeIndex, centroid, validLinksForClasses, linkCost,  turnPenaltyIndices, turnPenaltyArray, heapType, loadMethod, savedTreeMegabytes );
+        
+        return 1;
+    }
+
+    
+    
+    // this method is called instead of setup() when the network arrays were written to a snapshot file by NetworkHandler.
+    // returns 0 without setting up if the file cannot be read from this VM, so the caller can use setup() instead.
+    public int setupFromSnapshot( String handlerName, String rpcConfigFile, int[] workElements, SparseTripTable workElementsDemand, String networkSnapshotFile, double[] linkCost, String heapType, String loadMethod, int savedTreeMegabytes ) {
+
+        NetworkSnapshot snapshot = NetworkSnapshot.read( networkSnapshotFile );
+        if ( snapshot == null ) {
+            logger.info( handlerName + " cannot read network snapshot file " + networkSnapshotFile + "." );
+            return 0;
+        }
+        
+        logger.info( handlerName + " running SpBuildLoadHandler.setupFromSnapshot() with " + networkSnapshotFile + "." );
+        
+        spCommon = SpBuildLoadCommon.getInstance();
+        
+        spCommon.setup( handlerName, numberOfThreads, workElements, workElementsDemand, snapshot.getNumUserClasses(), snapshot.getLinkCount(), snapshot.getNodeCount(), snapshot.getNumCentroids(), snapshot.getIa(), snapshot.getIb(), snapshot.getIpa(), snapshot.getSortedLinkIndexA(), snapshot.getIndexNode(), snapshot.getNodeIndex(), snapshot.getCentroid(), snapshot.getValidLinksForAllClasses(), linkCost, snapshot.getTurnPenaltyIndices(), snapshot.getTurnPenaltyArray(), heapType, loadMethod, savedTreeMegabytes );
         
         return 1;
     }
@@ -151,6 +172,37 @@ public class SpBuildLoadHandler implements SpBuildLoadHandlerIF {
     }
 
     
+    /**
+     * Block until all threads started by the last call to start() have published their results, then
+     * return the seconds each thread spent building and loading trees.  If interrupted while waiting, the
+     * results are incomplete, so a RuntimeException is thrown rather than returning.
+     */
+    public double[] waitForCompletion() {
+        
+        try {
+            spCommon.awaitCompletion();
+        }
+        catch (InterruptedException e) {
+            logger.error ( "interrupted waiting for " + spCommon.getHandlerName() + " threads to finish.", e );
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        
+        // a thread that failed has signaled it's finished without setting its results, so the flows are incomplete.
+        if ( spCommon.getThreadFailure() != null ) {
+            logger.error ( spCommon.getHandlerName() + " has a thread that failed building and loading shortest path trees." );
+            throw new RuntimeException( spCommon.getThreadFailure() );
+        }
+        
+        double[] computeSeconds = new double[numberOfThreads];
+        for (int i=0; i < numberOfThreads; i++)
+            computeSeconds[i] = spCommon.getComputeSecondsByThread( i );
+        
+        return computeSeconds;
+        
+    }
+
+    
     public int getNumberOfThreads () {
         return numberOfThreads;
     }
@@ -56,7 +56,7 @@ public class SpBuildLoadHandlerRpc implements SpBuildLoadHandlerIF {
     
     // when an instance of this rpc handler is used to call the setup method of an SpBuildLoadHandler running in
     // another VM, the primitive data type arguments are placed in the params Vector<Object> as objects, so the alternate setupRpc remote method is called.  
-    public int setup( String handlerName, String rpcConfigFile, int[][][] workElements, double[][][] workElementsDemand, int numUserClasses, int numLinks, int numNodes, int numZones, int[] ia, int[] ib, int[] ipa, int[] sortedLinkIndexA, int[] indexNode, int[] nodeIndex, boolean[] centroid, boolean[][] validLinksForClasses, double[] linkCost, int[][] turnPenaltyIndices, float[][] turnPenaltyArray ) {
+    public int setup( String handlerName, String rpcConfigFile, int[] workElements, SparseTripTable workElementsDemand, int numUserClasses, int numLinks, int numNodes, int numZones, int[] ia, int[] ib, int[] ipa, int[] sortedLinkIndexA, int[] indexNode, int[] nodeIndex, boolean[] centroid, boolean[][] validLinksForClasses, double[] linkCost, int[][] turnPenaltyIndices, float[][] turnPenaltyArray, String heapType, String loadMethod, int savedTreeMegabytes ) {
 
         int returnValue = -1;
         try {
@@ -80,6 +80,9 @@ public class SpBuildLoadHandlerRpc implements SpBuildLoadHandlerIF {
             params.add(linkCost);
             params.add(turnPenaltyIndices);
             params.add(turnPenaltyArray);
+            params.add(heapType);
+            params.add(loadMethod);
+            params.add(savedTreeMegabytes);
             returnValue = (Integer)rc.execute(handlerName+".setup", params );
         } catch (RpcException e) {
             logger.error( e );
@@ -91,6 +94,31 @@ public class SpBuildLoadHandlerRpc implements SpBuildLoadHandlerIF {
     }
     
     
+    public int setupFromSnapshot( String handlerName, String rpcConfigFile, int[] workElements, SparseTripTable workElementsDemand, String networkSnapshotFile, double[] linkCost, String heapType, String loadMethod, int savedTreeMegabytes ) {
+
+        int returnValue = -1;
+        try {
+            Vector<Object> params = new Vector<Object>();
+            params.add(handlerName);
+            params.add(rpcConfigFile);
+            params.add(workElements);
+            params.add(workElementsDemand);
+            params.add(networkSnapshotFile);
+            params.add(linkCost);
+            params.add(heapType);
+            params.add(loadMethod);
+            params.add(savedTreeMegabytes);
+            returnValue = (Integer)rc.execute(handlerName+".setupFromSnapshot", params );
+        } catch (RpcException e) {
+            logger.error( e );
+        } catch (IOException e) {
+            logger.error(  e );
+        }
+        return returnValue;
+        
+    }
+    
+    
     public int start( double[] linkCost ) {
         int returnValue = -1;
         try {
@@ -136,6 +164,20 @@ public class SpBuildLoadHandlerRpc implements SpBuildLoadHandlerIF {
     }
     
 
+    // the remote call blocks until the threads of the remote handler have all finished.
+    public double[] waitForCompletion() {
+        double[] returnArray = null;
+        try {
+            returnArray = (double[])rc.execute(handlerName+".waitForCompletion", new Vector<Object>() );
+        } catch (RpcException e) {
+            logger.error( e );
+        } catch (IOException e) {
+            logger.error(  e );
+        }
+        return returnArray;
+    }
+    
+
     public int getNumberOfThreads() {
         int returnValue = -1;
         try {
@@ -23,9 +23,8 @@ public class SpBuildLoadMt implements Runnable
     
 
     
-    // a distributed queue common to all instances of this class running in different
-    // threads and possibly in different VMs hold packets of work elements to be
-    // processed, i.e. int[][userClass, originTaz].
+    // a queue common to all instances of this class running in different threads in
+    // this VM holds chunks of work elements to be processed, i.e. int[][userClass, originTaz].
     public SpBuildLoadMt ( int threadId, SpBuildLoadCommon spBuildLoadShared ) {
         
         this.threadId = threadId;
@@ -46,53 +45,78 @@ public class SpBuildLoadMt implements Runnable
 
     
     // this method is run by threads created by spBuildLoadHandlers.
-    // it gets a packet of work elements, i.e. an array of user class and origin taz pairs, and
+    // it gets a chunk of work elements, i.e. a range of user class and origin taz pairs, and
     // builds shorrtest path trees and loads trips from the trip table on links of those trees.
     // the method accumulates aon flows for links in the SpBuildLoadCommon class before exiting.
-    // this method trys to get packets from the workQueue until it gets a null packet, at which
-    // time the workQueue has been emptied, and this method can finalize its results and return. 
+    // this method trys to get chunks from the shared queue until none are left, at which
+    // time the queue has been emptied, and this method can finalize its results and return. 
     public void run () {
         
+        try {
+            buildAndLoad();
+        }
+        catch (Throwable e) {
+            // the handler waits for every thread to signal completion, so a failed thread, including one that ran
+            // out of memory, must still signal, and the failure is reported by the handler's waitForCompletion().
+            logger.error( "exception caught building and loading trees in thread " + threadId + " on " + spBuildLoadShared.getHandlerName() + ".", e );
+            spBuildLoadShared.setThreadFailed( threadId, e );
+        }
+        
+    }
+    
+    
+    private void buildAndLoad () {
+        
+        long threadStart = System.nanoTime();
+        
         int userClass = 0;
         int origin = 0;
-        double[] originTrips = null;
+        SparseTripTable elementDemand = spBuildLoadShared.getElementDemand();
         
         double[][] cumulativeAonFlowsThread = new double[numUserClasses][numLinks];
 
-        int[][] workElements = spBuildLoadShared.getWorkElements(this.threadId);
+        int elementsCompleted = 0;
         
         double sum = 0.0;
         double totalFlow = 0.0;
-        for ( int i=0; i < workElements.length; i++ ) {
-            
-            userClass = workElements[i][0];
-            origin = workElements[i][1];
-            
-            originTrips = spBuildLoadShared.getElementDemand(this.threadId, i);
-            
-            sum = 0.0;
-            for (int j=0; j < originTrips.length; j++)
-                sum += originTrips[j];
-            
-            double[] aonFlows = sp[userClass].buildAndLoadTrees ( userClass, origin, originTrips );
+        int chunk;
+        while ( (chunk = spBuildLoadShared.getNextWorkChunk()) >= 0 ) {
 
-            for (int k=0; k < numLinks; k++) {
-                cumulativeAonFlowsThread[userClass][k] += aonFlows[k];
-                totalFlow += aonFlows[k];
-            }
-                  
-            spBuildLoadShared.setShortestPathTree( userClass, origin, sp[userClass].getPredecessorLink() );
-
-            if ( logger.isDebugEnabled() )
-                logger.debug( i + ": " + ", origin=" + origin + ", sum=" + sum + ", totalFlow=" + totalFlow );
+            int end = spBuildLoadShared.getChunkEnd( chunk );
+            for ( int p=spBuildLoadShared.getChunkStart( chunk ); p < end; p++ ) {
+                
+                long elementStart = System.nanoTime();
 
+                int i = spBuildLoadShared.getOrderedWorkElement( p );
+                userClass = spBuildLoadShared.getWorkElementUserClass( i );
+                origin = spBuildLoadShared.getWorkElementOrigin( i );
+                
+                sum = elementDemand.getRowSum( i );
+                
+                double[] aonFlows = sp[userClass].buildAndLoadTrees ( userClass, origin, elementDemand, i );
+    
+                for (int k=0; k < numLinks; k++) {
+                    cumulativeAonFlowsThread[userClass][k] += aonFlows[k];
+                    totalFlow += aonFlows[k];
+                }
+                      
+                spBuildLoadShared.setShortestPathTree( userClass, origin, sp[userClass].getPredecessorLink() );
+    
+                spBuildLoadShared.setElementBuildTime( i, System.nanoTime() - elementStart );
+                elementsCompleted++;
+                
+                if ( logger.isDebugEnabled() )
+                    logger.debug( i + ": " + ", origin=" + origin + ", sum=" + sum + ", totalFlow=" + totalFlow );
+    
+            }
+            
         }
 
         spBuildLoadShared.setResultsArray( threadId, cumulativeAonFlowsThread );
         
-        spBuildLoadShared.setPacketsCompletedByThread ( threadId, workElements.length );
+        spBuildLoadShared.setPacketsCompletedByThread ( threadId, elementsCompleted, System.nanoTime() - threadStart );
         
-        logger.info( totalFlow + " total link flow from " + workElements.length + " packets assigned by thread " + threadId + " on " + spBuildLoadShared.getHandlerName() );
+        logger.info( totalFlow + " total link flow from " + elementsCompleted + " packets assigned by thread " + threadId + " on " + spBuildLoadShared.getHandlerName() );
         
     }
 
@@ -0,0 +1,171 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts;
+
+import java.io.Serializable;
+
+
+/**
+ * A trip table holding only its non-zero cells, in compressed sparse row form.
+ *
+ * The destinations and trips of the non-zero cells of row i are columns[k] and values[k]
+ * for k from getRowStart(i) to getRowEnd(i)-1, in increasing destination order.  Values are
+ * kept as doubles so that trips loaded from a sparse row are the same as those loaded from the
+ * dense row it was built from.  Every cell costs 8 bytes in a dense double[][] table and every
+ * non-zero cell 12 bytes here, so a table smaller than its dense form has fewer than 2/3 of
+ * its cells non-zero, which holds for all of the assignment user classes.
+ */
+public class SparseTripTable implements Serializable {
+
+    static final long serialVersionUID = 1L;
+
+    int numColumns;
+    int[] rowStart;
+    int[] columns;
+    double[] values;
+
+
+
+    /**
+     * Build the sparse table of the non-zero cells of a dense trip table.
+     */
+    public SparseTripTable ( double[][] tripTable ) {
+
+        numColumns = ( tripTable.length > 0 ? tripTable[0].length : 0 );
+        rowStart = new int[tripTable.length+1];
+
+        int count = 0;
+        for (int i=0; i < tripTable.length; i++)
+            for (int j=0; j < tripTable[i].length; j++)
+                if ( tripTable[i][j] != 0.0 )
+                    count++;
+
+        columns = new int[count];
+        values = new double[count];
+
+        int k = 0;
+        for (int i=0; i < tripTable.length; i++) {
+            rowStart[i] = k;
+            for (int j=0; j < tripTable[i].length; j++) {
+                if ( tripTable[i][j] != 0.0 ) {
+                    columns[k] = j;
+                    values[k] = tripTable[i][j];
+                    k++;
+                }
+            }
+        }
+        rowStart[tripTable.length] = k;
+
+    }
+
+
+    /**
+     * Build a sparse table whose row r is row rows[r] of tables[tableIndices[r]], as used for the
+     * demand of a list of [user class, origin] work elements.
+     */
+    public SparseTripTable ( SparseTripTable[] tables, int[] tableIndices, int[] rows ) {
+
+        numColumns = 0;
+        rowStart = new int[rows.length+1];
+
+        int count = 0;
+        for (int r=0; r < rows.length; r++) {
+            SparseTripTable table = tables[tableIndices[r]];
+            count += table.getRowEnd( rows[r] ) - table.getRowStart( rows[r] );
+            numColumns = Math.max( numColumns, table.numColumns );
+        }
+
+        columns = new int[count];
+        values = new double[count];
+
+        int k = 0;
+        for (int r=0; r < rows.length; r++) {
+            SparseTripTable table = tables[tableIndices[r]];
+            int start = table.getRowStart( rows[r] );
+            int length = table.getRowEnd( rows[r] ) - start;
+            rowStart[r] = k;
+            System.arraycopy( table.columns, start, columns, k, length );
+            System.arraycopy( table.values, start, values, k, length );
+            k += length;
+        }
+        rowStart[rows.length] = k;
+
+    }
+
+
+
+    public int getNumRows () {
+        return rowStart.length - 1;
+    }
+
+    public int getNumColumns () {
+        return numColumns;
+    }
+
+    public int getNonZeroCount () {
+        return values.length;
+    }
+
+    /** return the index into getColumns() and getValues() of the first non-zero cell of the row. */
+    public int getRowStart ( int row ) {
+        return rowStart[row];
+    }
+
+    /** return one past the index into getColumns() and getValues() of the last non-zero cell of the row. */
+    public int getRowEnd ( int row ) {
+        return rowStart[row+1];
+    }
+
+    public int[] getColumns () {
+        return columns;
+    }
+
+    public double[] getValues () {
+        return values;
+    }
+
+
+    public double getRowSum ( int row ) {
+        double sum = 0.0;
+        for (int k=rowStart[row]; k < rowStart[row+1]; k++)
+            sum += values[k];
+        return sum;
+    }
+
+
+    /**
+     * return the row as a dense array.
+     */
+    public double[] getRow ( int row ) {
+        double[] tripRow = new double[numColumns];
+        for (int k=rowStart[row]; k < rowStart[row+1]; k++)
+            tripRow[columns[k]] = values[k];
+        return tripRow;
+    }
+
+
+    /**
+     * return the table as a dense array.
+     */
+    public double[][] getTable () {
+        double[][] tripTable = new double[getNumRows()][];
+        for (int i=0; i < tripTable.length; i++)
+            tripTable[i] = getRow( i );
+        return tripTable;
+    }
+
+}
@@ -56,6 +56,10 @@ public class TS {
 	static final String VERSION = "TS version 24 jul 2009, 1";
 	
     static final boolean CREATE_NEW_NETWORK = true;
+
+    // values for the <period>.assignment.algorithm property
+    static final String FW_ALGORITHM = "fw";
+    static final String BUSH_ALGORITHM = "bush";
     public boolean SKIM_ONLY = false;
     
 
@@ -107,20 +111,52 @@ public class TS {
         
 		long startTime = System.currentTimeMillis();
 		
-		// create Frank-Wolfe Algortihm Object
+        // the assignment algorithm can be chosen by period; Frank-Wolfe is used unless bush based assignment is specified.
+        String algorithm = FW_ALGORITHM;
+        try {
+            String algorithmTarget = String.format( "%s.assignment.algorithm", assignmentPeriod.toLowerCase() );
+            algorithm = appRb.getString( algorithmTarget );
+        }
+        catch (MissingResourceException e) {
+            // if this exception is caught, no algorithm was specified, so continue with Frank-Wolfe.
+        }
+
         String myDateString;
-		myDateString = DateFormat.getDateTimeInstance().format(new Date());
-		logger.info ("creating and initializing a " + assignmentPeriod + " FW object at: " + myDateString);
-		FW fw = new FW();
-		fw.initialize( appRb, globalRb,nh, nh.getHighwayModeCharacters() );
+        if ( algorithm.equalsIgnoreCase( BUSH_ALGORITHM ) ) {
 
+            myDateString = DateFormat.getDateTimeInstance().format(new Date());
+            logger.info ("creating and initializing a " + assignmentPeriod + " BushAssignment object at: " + myDateString);
+            BushAssignment ba = new BushAssignment();
+            ba.initialize( appRb, globalRb, nh, nh.getHighwayModeCharacters() );
 
-		// Compute Frank-Wolfe solution
-		myDateString = DateFormat.getDateTimeInstance().format(new Date());
-		logger.info ("starting " + assignmentPeriod + " FW iterations at: " + myDateString);
-		fw.iterate ();
-		myDateString = DateFormat.getDateTimeInstance().format(new Date());
-		logger.info ("end of " + assignmentPeriod + " FW iterations at: " + myDateString);
+            myDateString = DateFormat.getDateTimeInstance().format(new Date());
+            logger.info ("starting " + assignmentPeriod + " bush assignment iterations at: " + myDateString);
+            ba.iterate ();
+            myDateString = DateFormat.getDateTimeInstance().format(new Date());
+            logger.info ("end of " + assignmentPeriod + " bush assignment iterations at: " + myDateString);
+
+        }
+        else if ( algorithm.equalsIgnoreCase( FW_ALGORITHM ) ) {
+        
+    		// create Frank-Wolfe Algortihm Object
+    		myDateString = DateFormat.getDateTimeInstance().format(new Date());
+    		logger.info ("creating and initializing a " + assignmentPeriod + " FW object at: " + myDateString);
+    		FW fw = new FW();
+    		fw.initialize( appRb, globalRb,nh, nh.getHighwayModeCharacters() );
+    
+    
+    		// Compute Frank-Wolfe solution
+    		myDateString = DateFormat.getDateTimeInstance().format(new Date());
+    		logger.info ("starting " + assignmentPeriod + " FW iterations at: " + myDateString);
+    		fw.iterate ();
+    		myDateString = DateFormat.getDateTimeInstance().format(new Date());
+    		logger.info ("end of " + assignmentPeriod + " FW iterations at: " + myDateString);
+
+        }
+        else {
+            logger.error ( assignmentPeriod + " assignment algorithm specified as: " + algorithm + ", but must be either '" + FW_ALGORITHM + "' or '" + BUSH_ALGORITHM + "'." );
+            System.exit(-1);
+        }
 
         logger.info( assignmentPeriod + " highway assignment finished in " +
 			((System.currentTimeMillis() - startTime) / 60000.0) + " minutes.");
@@ -439,6 +475,16 @@ public class TS {
 
         String walkSpeed = (String)globalMap.get( "sdt.walk.mph" );
         
+        String spHeapType = (String)appMap.get( "shortestPath.heapType" );
+        String spPathMode = (String)appMap.get( "shortestPath.pathMode" );
+        String spLoadMethod = (String)appMap.get( "shortestPath.loadMethod" );
+        String networkSnapshotDirectory = (String)appMap.get( "spBuildLoad.networkSnapshotDirectory" );
+        String transitRouteCacheDirectory = (String)appMap.get( "transitRoutes.cacheDirectory" );
+        String savedTreeMegabytes = (String)appMap.get( "spBuildLoad.savedTreeMegabytes" );
+        // shortest path trees are only saved to write the FW path file, so none are saved if no file is written.
+        if ( appMap.get( "diskObject.pathName" ) == null ) savedTreeMegabytes = "0";
+        String vdfValidation = (String)appMap.get( "vdf.validate" );
+        
         
         String[] propertyValues = new String[NetworkHandler.NUMBER_OF_PROPERTY_VALUES];
         Arrays.fill(propertyValues, "");
@@ -464,6 +510,13 @@ public class TS {
         if ( truckClass4String != null ) propertyValues[NetworkHandlerIF.TRUCKCLASS4_STRING_INDEX] = truckClass4String;
         if ( truckClass5String != null ) propertyValues[NetworkHandlerIF.TRUCKCLASS5_STRING_INDEX] = truckClass5String;
         if ( walkSpeed != null ) propertyValues[NetworkHandlerIF.WALK_SPEED_INDEX] = walkSpeed;
+        if ( spHeapType != null ) propertyValues[NetworkHandlerIF.SP_HEAP_TYPE_INDEX] = spHeapType;
+        if ( spPathMode != null ) propertyValues[NetworkHandlerIF.SP_PATH_MODE_INDEX] = spPathMode;
+        if ( spLoadMethod != null ) propertyValues[NetworkHandlerIF.SP_LOAD_METHOD_INDEX] = spLoadMethod;
+        if ( networkSnapshotDirectory != null ) propertyValues[NetworkHandlerIF.NETWORK_SNAPSHOT_DIRECTORY_INDEX] = networkSnapshotDirectory;
+        if ( transitRouteCacheDirectory != null ) propertyValues[NetworkHandlerIF.TRANSIT_ROUTE_CACHE_DIRECTORY_INDEX] = transitRouteCacheDirectory;
+        if ( savedTreeMegabytes != null ) propertyValues[NetworkHandlerIF.SAVED_SP_TREE_MEGABYTES_INDEX] = savedTreeMegabytes;
+        if ( vdfValidation != null ) propertyValues[NetworkHandlerIF.VDF_VALIDATION_INDEX] = vdfValidation;
         
         
         return nh.setupHighwayNetworkObject ( timePeriod, propertyValues );
@@ -100,6 +100,7 @@ public class TSModelComponent extends ModelComponent {
             createAndWriteHwyAndTransitDemandMatrices("mdoffpeak");
             createAndWriteHwyAndTransitDemandMatrices("pmpeak");
             createAndWriteHwyAndTransitDemandMatrices("ntoffpeak");
+            clearTripListCache();
             return;
         }
 
@@ -117,6 +118,14 @@ public class TSModelComponent extends ModelComponent {
             createAndWriteHwyAndTransitDemandMatrices("ntoffpeak");
         }
 
+        clearTripListCache();
+
+    }
+
+    // the trip lists read by DemandHandler are cached for all periods, so are released once the last period is done.
+    private void clearTripListCache() {
+        DemandHandlerIF dh = DemandHandler.getInstance( configFileName );
+        dh.clearTripListCache();
     }
 
     private void createAndWriteHwyAndTransitDemandMatrices(String period) {
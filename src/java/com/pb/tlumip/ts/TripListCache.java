@@ -0,0 +1,213 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.pb.common.datafile.OLD_CSVFileReader;
+import com.pb.common.datafile.TableDataSet;
+
+
+/**
+ * Trip lists read by DemandHandler, kept for the life of the VM so that each trip list file is
+ * read once for all of the periods and modes whose trip tables are built from it.
+ *
+ * A PT person trip list (SDT or LDT) is kept as the origin, destination, start time and mode
+ * of every trip, in file order, so the trip tables built from it for any period and set of modes
+ * are the same as those built while reading the file.  A CT or ET truck trip list is kept as the
+ * TableDataSet read from it.  A file is read again if its length or modification time has
+ * changed since it was read.
+ *
+ * At most MAX_TRIP_LISTS person trip lists and MAX_TRIP_LISTS truck trip lists are kept, the least
+ * recently used being released first, and all are released by clear() once the last period has
+ * built its trip tables.
+ */
+public class TripListCache {
+
+    protected static Logger logger = Logger.getLogger(TripListCache.class);
+
+    // the SDT and LDT person trip lists, and the CT and ET truck trip lists, are read for each period.
+    static final int MAX_TRIP_LISTS = 2;
+
+    private static LinkedHashMap<String,TripListCache> personTripLists = new TripListMap();
+    private static LinkedHashMap<String,TripListCache> truckTripLists = new TripListMap();
+
+    long fileLength;
+    long fileLastModified;
+
+    int lineCount;
+    int tripCount;
+    String[] modes;
+    int[] modeTripCounts;
+
+    int[] origins;
+    int[] destinations;
+    int[] startTimes;
+    int[] modeIndices;
+
+    TableDataSet table;
+
+
+    private TripListCache ( File file ) {
+        fileLength = file.length();
+        fileLastModified = file.lastModified();
+    }
+
+
+
+    /**
+     * Return the trips in the PT person trip list file, reading the file if it has not been read.
+     */
+    public static synchronized TripListCache getPersonTripList ( String fileName, int numberOfThreads ) {
+
+        File file = new File( fileName );
+
+        TripListCache tripList = personTripLists.get( fileName );
+        if ( tripList != null && tripList.isCurrent( file ) )
+            return tripList;
+
+        tripList = new TripListCache( file );
+
+        TripListReader reader = new TripListReader( fileName, new String[] { "origin", "destination", "tripStartTime" }, "tripMode", numberOfThreads );
+        reader.read( new TripListReader.TripFilter() {
+                public boolean keepTrip ( int[] intValues ) {
+                    return true;
+                }
+            }, null );
+
+        tripList.lineCount = reader.getLineCount();
+        tripList.tripCount = reader.getTripCount();
+        tripList.modes = reader.getStringValues();
+        tripList.modeTripCounts = reader.getStringValueTripCounts();
+        tripList.origins = reader.getRecordedIntValues( 0 );
+        tripList.destinations = reader.getRecordedIntValues( 1 );
+        tripList.startTimes = reader.getRecordedIntValues( 2 );
+        tripList.modeIndices = reader.getRecordedStringIndices();
+
+        logger.info ( String.format("cached %d trips read from %s for all periods.", tripList.tripCount, fileName) );
+
+        personTripLists.put( fileName, tripList );
+        return tripList;
+
+    }
+
+
+    /**
+     * Return the TableDataSet read from the CT or ET truck trip list file, reading the file if
+     * it has not been read.  The TableDataSet is shared, so must not be changed.
+     */
+    public static synchronized TableDataSet getTruckTripTable ( String fileName ) throws IOException {
+
+        File file = new File( fileName );
+
+        TripListCache tripList = truckTripLists.get( fileName );
+        if ( tripList != null && tripList.isCurrent( file ) )
+            return tripList.table;
+
+        tripList = new TripListCache( file );
+
+        OLD_CSVFileReader reader = new OLD_CSVFileReader();
+        tripList.table = reader.readFile( file );
+
+        logger.info ( String.format("cached %d trips read from %s for all periods.", tripList.table.getRowCount(), fileName) );
+
+        truckTripLists.put( fileName, tripList );
+        return tripList.table;
+
+    }
+
+
+    /**
+     * Release all of the cached trip lists, returning the number of files released.
+     */
+    public static synchronized int clear () {
+        int numFiles = personTripLists.size() + truckTripLists.size();
+        personTripLists.clear();
+        truckTripLists.clear();
+        logger.info ( String.format("released %d cached trip list files.", numFiles) );
+        return numFiles;
+    }
+
+
+    private boolean isCurrent ( File file ) {
+        return file.length() == fileLength && file.lastModified() == fileLastModified;
+    }
+
+
+
+    /** return the number of lines read after the header. */
+    public int getLineCount () {
+        return lineCount;
+    }
+
+    public int getTripCount () {
+        return tripCount;
+    }
+
+    /** return the distinct trip modes, in the order they first appear in the file. */
+    public String[] getModes () {
+        return modes;
+    }
+
+    /** return the number of trips for each mode in getModes(). */
+    public int[] getModeTripCounts () {
+        return modeTripCounts;
+    }
+
+    public int[] getOrigins () {
+        return origins;
+    }
+
+    public int[] getDestinations () {
+        return destinations;
+    }
+
+    public int[] getStartTimes () {
+        return startTimes;
+    }
+
+    /** return the index into getModes() of the mode of each trip. */
+    public int[] getModeIndices () {
+        return modeIndices;
+    }
+
+
+
+    // trip lists by file name, in least recently used order, with the eldest released beyond MAX_TRIP_LISTS.
+    private static class TripListMap extends LinkedHashMap<String,TripListCache> {
+
+        private static final long serialVersionUID = 1L;
+
+        TripListMap () {
+            super( 4, 0.75f, true );
+        }
+
+        protected boolean removeEldestEntry ( Map.Entry<String,TripListCache> eldest ) {
+            if ( size() <= MAX_TRIP_LISTS )
+                return false;
+            logger.info ( "released cached trip list read from " + eldest.getKey() + "." );
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,602 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Single pass reader for the PT SDT and LDT trip list csv files.
+ *
+ * The header is read once to find the positions of the int fields and the one string field
+ * wanted.  The rest of the file is divided into chunks on line boundaries, and each chunk is
+ * scanned byte by byte from a read-only memory mapping by its own thread.  Fields are
+ * delimited as by a StringTokenizer on commas and line ends, as the trip lists were read before.
+ * Int fields are parsed from the bytes without creating Strings, with the same value as
+ * (int)Float.parseFloat() of the field; distinct values of the string field are kept in a small
+ * table, so a String is only created the first time a value is seen.
+ *
+ * For each line, the TripFilter decides whether the trip is kept.  The lines read and kept are
+ * counted by string field value, and the int fields and string value of kept trips whose string
+ * value is one of the recorded values are saved.  Chunk results are combined in file order, so
+ * the saved trips are in the order they appear in the file for any number of threads.
+ */
+public class TripListReader {
+
+    protected static Logger logger = Logger.getLogger(TripListReader.class);
+
+    // files smaller than this are read by the calling thread as one chunk
+    static final long MIN_CHUNK_BYTES = 8*1024*1024;
+
+    // a chunk is mapped as one buffer, so is limited in size
+    static final long MAX_CHUNK_BYTES = 512*1024*1024;
+
+    // integer parts longer than this may not be exact as floats, so are parsed by Float.parseFloat()
+    static final int MAX_FAST_PARSE_DIGITS = 7;
+
+
+    public interface TripFilter {
+        /** return true if the trip with the int field values, in the order the fields were named, is kept. */
+        public boolean keepTrip ( int[] intValues );
+    }
+
+
+    private String fileName;
+    private String[] intFieldNames;
+    private String stringFieldName;
+    private int numberOfThreads;
+
+    private int lineCount;
+    private int tripCount;
+
+    private ArrayList<String> stringValues = new ArrayList<String>();
+    private int[] stringValueTripCounts;
+    private int[] stringValueKeptCounts;
+
+    private int numRecordedTrips;
+    private int[][] recordedIntValues;
+    private int[] recordedStringIndices;
+
+
+
+    public TripListReader ( String fileName, String[] intFieldNames, String stringFieldName, int numberOfThreads ) {
+        this.fileName = fileName;
+        this.intFieldNames = intFieldNames;
+        this.stringFieldName = stringFieldName;
+        this.numberOfThreads = Math.max( 1, numberOfThreads );
+    }
+
+
+
+    /**
+     * Read the trip list, keeping the trips accepted by the filter, and saving the kept trips
+     * whose string field value equals one of the recordedStringValues, ignoring case, or all
+     * kept trips if recordedStringValues is null.
+     */
+    public void read ( TripFilter filter, List<String> recordedStringValues ) {
+
+        FileInputStream in = null;
+        try {
+
+            in = new FileInputStream( new File( fileName ) );
+            FileChannel channel = in.getChannel();
+            long fileSize = channel.size();
+
+            // find the field positions from the header
+            MappedByteBuffer headerBuffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, Math.min( fileSize, 64*1024 ) );
+            int headerEnd = 0;
+            while ( headerEnd < headerBuffer.limit() && headerBuffer.get( headerEnd ) != '\n' && headerBuffer.get( headerEnd ) != '\r' )
+                headerEnd++;
+            if ( headerEnd == headerBuffer.limit() && headerEnd < fileSize ) {
+                logger.error ( "no line end found in the first " + headerEnd + " bytes of trip list file " + fileName + "." );
+                throw new RuntimeException();
+            }
+
+            byte[] headerBytes = new byte[headerEnd];
+            headerBuffer.get( headerBytes );
+            int[] fieldRoles = getFieldRoles( new String( headerBytes ) );
+
+            long dataStart = headerEnd;
+            if ( dataStart < fileSize && headerBuffer.get( (int)dataStart ) == '\r' )
+                dataStart++;
+            if ( dataStart < fileSize && headerBuffer.get( (int)dataStart ) == '\n' )
+                dataStart++;
+
+
+            long[] chunkStarts = getChunkStarts( channel, dataStart, fileSize );
+            int numChunks = chunkStarts.length - 1;
+
+            ChunkReader[] chunkReaders = new ChunkReader[numChunks];
+            for (int c=0; c < numChunks; c++)
+                chunkReaders[c] = new ChunkReader( channel, chunkStarts[c], chunkStarts[c+1], fieldRoles, filter, recordedStringValues );
+
+            int numWorkers = Math.min( numberOfThreads, numChunks );
+            if ( numWorkers <= 1 ) {
+                for (int c=0; c < numChunks; c++)
+                    chunkReaders[c].call();
+            }
+            else {
+
+                ExecutorService exec = Executors.newFixedThreadPool( numWorkers );
+
+                try {
+
+                    ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+                    for (int c=0; c < numChunks; c++)
+                        results.add( exec.submit( chunkReaders[c] ) );
+
+                    // get() rethrows any exception from a chunk reader
+                    for ( Future<Integer> result : results )
+                        result.get();
+
+                }
+                catch ( Exception e ) {
+                    logger.error ( "exception caught reading trip list file " + fileName + ".", e );
+                    throw new RuntimeException(e);
+                }
+                finally {
+                    exec.shutdown();
+                }
+
+            }
+
+            combineChunkResults( chunkReaders );
+
+        }
+        catch (IOException e) {
+            logger.error ( "error reading trip list file: " + fileName, e );
+            throw new RuntimeException(e);
+        }
+        finally {
+            if ( in != null ) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+
+    }
+
+
+
+    // return the role of each header field: 0 to n-1 for the int fields, -1 for the string field and -2 for fields not read.
+    private int[] getFieldRoles ( String header ) {
+
+        StringTokenizer st = new StringTokenizer( header, ",\n\r" );
+        int[] fieldRoles = new int[st.countTokens()];
+        Arrays.fill( fieldRoles, -2 );
+
+        boolean[] found = new boolean[intFieldNames.length + 1];
+
+        int i = 0;
+        while ( st.hasMoreTokens() ) {
+            String s = st.nextToken();
+            for (int k=0; k < intFieldNames.length; k++) {
+                if ( s.equals( intFieldNames[k] ) ) {
+                    fieldRoles[i] = k;
+                    found[k] = true;
+                }
+            }
+            if ( s.equals( stringFieldName ) ) {
+                fieldRoles[i] = -1;
+                found[intFieldNames.length] = true;
+            }
+            i++;
+        }
+
+        for (int k=0; k < intFieldNames.length; k++) {
+            if ( ! found[k] ) {
+                logger.error ( "field " + intFieldNames[k] + " not found in header of trip list file " + fileName + "." );
+                throw new RuntimeException();
+            }
+        }
+        if ( ! found[intFieldNames.length] ) {
+            logger.error ( "field " + stringFieldName + " not found in header of trip list file " + fileName + "." );
+            throw new RuntimeException();
+        }
+
+        return fieldRoles;
+
+    }
+
+
+    // divide the data part of the file into chunks that start at the beginning of a line.
+    private long[] getChunkStarts ( FileChannel channel, long dataStart, long fileSize ) throws IOException {
+
+        long dataSize = fileSize - dataStart;
+
+        int numChunks = 1;
+        if ( dataSize > MIN_CHUNK_BYTES )
+            numChunks = (int)Math.max( Math.min( numberOfThreads, dataSize / MIN_CHUNK_BYTES ), ( dataSize + MAX_CHUNK_BYTES - 1 ) / MAX_CHUNK_BYTES );
+
+        long[] starts = new long[numChunks + 1];
+        int n = 0;
+        starts[n++] = dataStart;
+
+        for (int c=1; c < numChunks; c++) {
+
+            long position = Math.max( dataStart + c*( dataSize / numChunks ), starts[n-1] );
+
+            // move to the byte after the next '\n', or to the end of the file if there is none.
+            MappedByteBuffer buffer = null;
+            while ( position < fileSize ) {
+                buffer = channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( fileSize - position, 64*1024 ) );
+                int i = 0;
+                while ( i < buffer.limit() && buffer.get( i ) != '\n' )
+                    i++;
+                position += i;
+                if ( i < buffer.limit() ) {
+                    position++;
+                    break;
+                }
+            }
+
+            if ( position > starts[n-1] && position < fileSize )
+                starts[n++] = position;
+
+        }
+        starts[n++] = fileSize;
+
+        return Arrays.copyOf( starts, n );
+
+    }
+
+
+    // combine the counts and recorded trips of the chunks, in file order, with the string values
+    // numbered in the order they first appear in the file.
+    private void combineChunkResults ( ChunkReader[] chunkReaders ) {
+
+        lineCount = 0;
+        tripCount = 0;
+        numRecordedTrips = 0;
+        stringValues.clear();
+
+        int[][] stringIndexMaps = new int[chunkReaders.length][];
+        for (int c=0; c < chunkReaders.length; c++) {
+            ChunkReader chunk = chunkReaders[c];
+            lineCount += chunk.lineCount;
+            tripCount += chunk.tripCount;
+            numRecordedTrips += chunk.numRecorded;
+
+            stringIndexMaps[c] = new int[chunk.numStringValues];
+            for (int s=0; s < chunk.numStringValues; s++) {
+                String value = new String( chunk.stringValueBytes[s], 0, chunk.stringValueBytes[s].length );
+                int index = stringValues.indexOf( value );
+                if ( index < 0 ) {
+                    index = stringValues.size();
+                    stringValues.add( value );
+                }
+                stringIndexMaps[c][s] = index;
+            }
+        }
+
+        stringValueTripCounts = new int[stringValues.size()];
+        stringValueKeptCounts = new int[stringValues.size()];
+        recordedIntValues = new int[intFieldNames.length][numRecordedTrips];
+        recordedStringIndices = new int[numRecordedTrips];
+
+        int r = 0;
+        for (int c=0; c < chunkReaders.length; c++) {
+            ChunkReader chunk = chunkReaders[c];
+            for (int s=0; s < chunk.numStringValues; s++) {
+                stringValueTripCounts[stringIndexMaps[c][s]] += chunk.stringValueTripCounts[s];
+                stringValueKeptCounts[stringIndexMaps[c][s]] += chunk.stringValueKeptCounts[s];
+            }
+            for (int k=0; k < intFieldNames.length; k++)
+                System.arraycopy( chunk.recordedIntValues[k], 0, recordedIntValues[k], r, chunk.numRecorded );
+            for (int i=0; i < chunk.numRecorded; i++)
+                recordedStringIndices[r + i] = stringIndexMaps[c][chunk.recordedStringIndices[i]];
+            r += chunk.numRecorded;
+        }
+
+    }
+
+
+
+    /** return the number of lines read after the header, including blank lines. */
+    public int getLineCount () {
+        return lineCount;
+    }
+
+    /** return the number of non-blank lines read after the header. */
+    public int getTripCount () {
+        return tripCount;
+    }
+
+    /** return the distinct values of the string field, in the order they first appear in the file. */
+    public String[] getStringValues () {
+        return stringValues.toArray( new String[stringValues.size()] );
+    }
+
+    /** return the number of trips read for each string value. */
+    public int[] getStringValueTripCounts () {
+        return stringValueTripCounts;
+    }
+
+    /** return the number of trips kept by the filter for each string value. */
+    public int[] getStringValueKeptCounts () {
+        return stringValueKeptCounts;
+    }
+
+    public int getNumRecordedTrips () {
+        return numRecordedTrips;
+    }
+
+    /** return the values of the int field, in the order the fields were named, for each recorded trip. */
+    public int[] getRecordedIntValues ( int field ) {
+        return recordedIntValues[field];
+    }
+
+    /** return the index into getStringValues() of the string field value of each recorded trip. */
+    public int[] getRecordedStringIndices () {
+        return recordedStringIndices;
+    }
+
+
+
+    /**
+     * Scans the lines of one chunk of the file.
+     */
+    class ChunkReader implements Callable<Integer> {
+
+        FileChannel channel;
+        long start;
+        long end;
+        int[] fieldRoles;
+        TripFilter filter;
+        List<String> recordedStringValues;
+
+        int lineCount;
+        int tripCount;
+
+        byte[][] stringValueBytes = new byte[8][];
+        boolean[] stringValueRecorded = new boolean[8];
+        int[] stringValueTripCounts = new int[8];
+        int[] stringValueKeptCounts = new int[8];
+        int numStringValues;
+
+        int numRecorded;
+        int[][] recordedIntValues;
+        int[] recordedStringIndices;
+
+
+        ChunkReader ( FileChannel channel, long start, long end, int[] fieldRoles, TripFilter filter, List<String> recordedStringValues ) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.fieldRoles = fieldRoles;
+            this.filter = filter;
+            this.recordedStringValues = recordedStringValues;
+
+            recordedIntValues = new int[intFieldNames.length][1024];
+            recordedStringIndices = new int[1024];
+        }
+
+
+        public Integer call() throws IOException {
+
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, start, end - start );
+            int limit = buffer.limit();
+
+            int numIntFields = intFieldNames.length;
+            int[] intValues = new int[numIntFields];
+            int allFieldsMask = ( 1 << (numIntFields + 1) ) - 1;
+
+            int field = 0;
+            int fieldsFound = 0;
+            int stringIndex = -1;
+            int tokenStart = -1;
+            int lineStart = 0;
+
+            for (int i=0; i <= limit; i++) {
+
+                byte b = ( i < limit ? buffer.get( i ) : (byte)'\n' );
+
+                if ( b == ',' || b == '\n' || b == '\r' ) {
+
+                    // end of a token
+                    if ( tokenStart >= 0 ) {
+                        int role = ( field < fieldRoles.length ? fieldRoles[field] : -2 );
+                        try {
+                            if ( role >= 0 ) {
+                                intValues[role] = parseInt( buffer, tokenStart, i );
+                                fieldsFound |= 1 << role;
+                            }
+                            else if ( role == -1 ) {
+                                stringIndex = getStringIndex( buffer, tokenStart, i );
+                                fieldsFound |= 1 << numIntFields;
+                            }
+                        }
+                        catch (NumberFormatException e) {
+                            logger.error ( String.format("reading trip list file = %s, line starting at byte %d.", fileName, start + lineStart), e );
+                            throw e;
+                        }
+                        field++;
+                        tokenStart = -1;
+                    }
+
+                    // end of a line, unless at the end of the chunk after a line end
+                    if ( b != ',' && ( i < limit || lineStart < limit ) ) {
+
+                        lineCount++;
+
+                        if ( field > 0 ) {
+
+                            if ( fieldsFound != allFieldsMask ) {
+                                logger.error ( String.format("trip list file = %s, line starting at byte %d has %d fields, some fields to be read are missing.", fileName, start + lineStart, field) );
+                                throw new RuntimeException();
+                            }
+
+                            tripCount++;
+                            stringValueTripCounts[stringIndex]++;
+
+                            boolean keep = false;
+                            try {
+                                keep = filter.keepTrip( intValues );
+                            }
+                            catch (RuntimeException e) {
+                                logger.error ( String.format("reading trip list file = %s, line starting at byte %d.", fileName, start + lineStart), e );
+                                throw e;
+                            }
+
+                            if ( keep ) {
+                                stringValueKeptCounts[stringIndex]++;
+                                if ( stringValueRecorded[stringIndex] )
+                                    record( intValues, stringIndex );
+                            }
+
+                        }
+
+                        // "\r\n" ends one line
+                        if ( b == '\r' && i + 1 < limit && buffer.get( i + 1 ) == '\n' )
+                            i++;
+
+                        field = 0;
+                        fieldsFound = 0;
+                        lineStart = i + 1;
+
+                    }
+
+                }
+                else if ( tokenStart < 0 ) {
+                    tokenStart = i;
+                }
+
+            }
+
+            return numRecorded;
+
+        }
+
+
+        // return the same value as (int)Float.parseFloat() for the bytes.
+        private int parseInt ( MappedByteBuffer buffer, int from, int to ) {
+
+            int i = from;
+            boolean negative = false;
+            byte b = buffer.get( i );
+            if ( b == '-' || b == '+' ) {
+                negative = ( b == '-' );
+                i++;
+            }
+
+            int value = 0;
+            int digits = 0;
+            while ( i < to && ( b = buffer.get( i ) ) >= '0' && b <= '9' ) {
+                value = 10*value + ( b - '0' );
+                digits++;
+                i++;
+            }
+
+            // an integer, or an integer followed by '.' and zeros, is exact; anything else is left to Float.parseFloat().
+            boolean exact = ( digits > 0 && digits <= MAX_FAST_PARSE_DIGITS );
+            if ( exact && i < to ) {
+                if ( buffer.get( i ) == '.' ) {
+                    i++;
+                    while ( i < to && buffer.get( i ) == '0' )
+                        i++;
+                }
+                exact = ( i == to );
+            }
+
+            if ( exact )
+                return negative ? -value : value;
+
+            byte[] bytes = new byte[to - from];
+            for (int j=from; j < to; j++)
+                bytes[j - from] = buffer.get( j );
+            return (int)Float.parseFloat( new String( bytes, 0, bytes.length ) );
+
+        }
+
+
+        private int getStringIndex ( MappedByteBuffer buffer, int from, int to ) {
+
+            int length = to - from;
+
+            for (int s=0; s < numStringValues; s++) {
+                byte[] value = stringValueBytes[s];
+                if ( value.length != length )
+                    continue;
+                int j = 0;
+                while ( j < length && value[j] == buffer.get( from + j ) )
+                    j++;
+                if ( j == length )
+                    return s;
+            }
+
+            byte[] value = new byte[length];
+            for (int j=0; j < length; j++)
+                value[j] = buffer.get( from + j );
+
+            if ( numStringValues == stringValueBytes.length ) {
+                int newLength = 2*numStringValues;
+                stringValueBytes = Arrays.copyOf( stringValueBytes, newLength );
+                stringValueRecorded = Arrays.copyOf( stringValueRecorded, newLength );
+                stringValueTripCounts = Arrays.copyOf( stringValueTripCounts, newLength );
+                stringValueKeptCounts = Arrays.copyOf( stringValueKeptCounts, newLength );
+            }
+
+            String stringValue = new String( value, 0, length );
+            boolean recorded = ( recordedStringValues == null );
+            if ( ! recorded )
+                for ( String recordedValue : recordedStringValues )
+                    if ( recordedValue.equalsIgnoreCase( stringValue ) )
+                        recorded = true;
+
+            stringValueBytes[numStringValues] = value;
+            stringValueRecorded[numStringValues] = recorded;
+            return numStringValues++;
+
+        }
+
+
+        private void record ( int[] intValues, int stringIndex ) {
+
+            if ( numRecorded == recordedStringIndices.length ) {
+                int newLength = 2*numRecorded;
+                for (int k=0; k < recordedIntValues.length; k++)
+                    recordedIntValues[k] = Arrays.copyOf( recordedIntValues[k], newLength );
+                recordedStringIndices = Arrays.copyOf( recordedStringIndices, newLength );
+            }
+
+            for (int k=0; k < recordedIntValues.length; k++)
+                recordedIntValues[k][numRecorded] = intValues[k];
+            recordedStringIndices[numRecorded] = stringIndex;
+            numRecorded++;
+
+        }
+
+    }
+
+}
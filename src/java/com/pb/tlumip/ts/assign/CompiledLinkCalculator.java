@@ -0,0 +1,827 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts.assign;
+
+import com.pb.common.calculator.LinkCalculator;
+import com.pb.common.datafile.TableDataSet;
+import com.pb.common.math.MathUtil;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Replacement for LinkCalculator when the same link functions (vdfs, vdf integrals,
+ * transit vdfs) are evaluated for all links many times, as in each FW iteration.
+ *
+ * Each function string is parsed once, exactly as com.pb.common.calculator.Expression
+ * parses it, into an operator tree.  The link attributes a function refers to are read
+ * from the LinkStore arrays, imported from the link table if the store does not have them
+ * yet.  solve(boolean[]) groups the links by function index and evaluates each operator as
+ * a loop over the links in the group, instead of interpreting the postfix stack link by
+ * link.  The operations and their order are those Expression performs.
+ *
+ * Functions that use PUT/GET, assignment, or anything else that cannot be compiled are
+ * evaluated by a LinkCalculator on the same strings, after the changed store columns are
+ * exported to the link table.  In validation mode, every solve is also done by the
+ * LinkCalculator, differences are logged, and the LinkCalculator results are returned.
+ * The link table holds float values, so results are compared with a relative tolerance.
+ */
+public class CompiledLinkCalculator implements Serializable {
+
+    protected static transient Logger logger = Logger.getLogger(CompiledLinkCalculator.class);
+
+    static final int MAX_VALIDATION_ERRORS_LOGGED = 10;
+    static final double VALIDATION_TOLERANCE = 1.0e-5;
+
+    // operator codes used in compiled trees - function names are mapped to the same characters Expression uses.
+    static final char LN = 'l';
+    static final char EXP = 'e';
+    static final char ABS = 'a';
+    static final char SIGN = 's';
+    static final char INT = 't';
+    static final char MAX = 'm';
+    static final char MIN = 'n';
+    static final char IF = 'i';
+    static final char PUT = 'p';
+    static final char GET = 'g';
+    static final char SQRT = 'q';
+    static final char GREATER_EQUAL = '}';
+    static final char LESS_EQUAL = '{';
+
+    static final int NUMBER = 1;
+    static final int VARIABLE = 2;
+    static final int DELIMITER = 3;
+
+    TableDataSet linkTable;
+    LinkStore linkStore;
+    String functionIndexFieldName;
+    String[] expStrings;
+
+    // compiled function trees by function index, null if the function is evaluated by lc.
+    Node[] functions;
+
+    // link attributes referenced by any compiled function, and their store arrays, in the order of the slots used in the trees.
+    ArrayList<String> variableNames = new ArrayList<String>();
+    double[][] columnValues;
+
+    LinkCalculator lc;
+
+    boolean validate = false;
+    double[] linkResults;
+
+
+
+    public CompiledLinkCalculator ( TableDataSet linkTable, LinkStore linkStore, String[] expStrings, String functionIndexFieldName ) {
+
+        this.linkTable = linkTable;
+        this.linkStore = linkStore;
+        this.expStrings = expStrings;
+        this.functionIndexFieldName = functionIndexFieldName;
+
+        lc = new LinkCalculator ( linkTable, expStrings, functionIndexFieldName );
+        linkResults = new double[linkTable.getRowCount()];
+
+        if ( ! linkStore.hasIntColumn( functionIndexFieldName ) )
+            linkStore.importIntColumn( linkTable, functionIndexFieldName );
+
+        functions = new Node[expStrings.length];
+        for (int i=0; i < expStrings.length; i++) {
+
+            if ( expStrings[i] == null )
+                continue;
+
+            try {
+                functions[i] = compile ( expStrings[i] );
+            }
+            catch (Exception e) {
+                functions[i] = null;
+            }
+
+            if ( functions[i] == null )
+                logger.info ( String.format("link function %d (%s) for %s could not be compiled and will be interpreted by LinkCalculator.", i, expStrings[i], functionIndexFieldName) );
+
+        }
+
+        // the store keeps the same arrays for the life of the network, so they're looked up once.
+        columnValues = new double[variableNames.size()][];
+        for (int v=0; v < columnValues.length; v++)
+            columnValues[v] = linkStore.getDoubleColumn( variableNames.get(v) );
+
+    }
+
+
+    public void setValidation ( boolean validate ) {
+        this.validate = validate;
+    }
+
+
+    public boolean getValidation () {
+        return validate;
+    }
+
+
+    public boolean isCompiled ( int functionIndex ) {
+        return functionIndex >= 0 && functionIndex < functions.length && functions[functionIndex] != null;
+    }
+
+
+
+    // apply the link functions to all links i in the link TableDataSet for which validLinks[i] is true.
+    // results for other links are NaN, as in LinkCalculator.solve(boolean[] validLinks).
+	public double[] solve ( boolean[] validLinks ) {
+
+        int nLinks = linkTable.getRowCount();
+
+        int[] functionIndices = linkStore.getIntColumn( functionIndexFieldName );
+
+        // group the valid link indices by function index, using a counting sort so each group is in link order.
+        // valid links with functions that are not compiled are marked for the LinkCalculator.
+        int[] groupStart = new int[functions.length + 2];
+        boolean[] interpretedLinks = new boolean[nLinks];
+        boolean interpret = false;
+        for (int i=0; i < nLinks; i++) {
+            if ( validLinks[i] ) {
+                if ( isCompiled(functionIndices[i]) ) {
+                    groupStart[functionIndices[i] + 2]++;
+                }
+                else {
+                    interpretedLinks[i] = true;
+                    interpret = true;
+                }
+            }
+        }
+        for (int f=2; f < groupStart.length; f++)
+            groupStart[f] += groupStart[f-1];
+
+        int[] groupLinks = new int[groupStart[groupStart.length-1]];
+        for (int i=0; i < nLinks; i++) {
+            if ( validLinks[i] && isCompiled(functionIndices[i]) )
+                groupLinks[groupStart[functionIndices[i] + 1]++] = i;
+        }
+
+
+        double[] results = linkResults;
+
+        // links with functions that could not be compiled, if any, get their values from the LinkCalculator.
+        // in validation mode, the LinkCalculator solves all valid links.
+        double[] interpretedResults = null;
+        if ( validate || interpret )
+            linkStore.exportTo( linkTable );
+        if ( validate )
+            interpretedResults = lc.solve( validLinks );
+        else if ( interpret )
+            interpretedResults = lc.solve( interpretedLinks );
+
+        for (int i=0; i < nLinks; i++) {
+            if ( ! validLinks[i] )
+                results[i] = Double.NaN;
+            else if ( ! isCompiled(functionIndices[i]) )
+                results[i] = interpretedResults[i];
+        }
+
+
+        for (int f=0; f < functions.length; f++) {
+
+            int start = groupStart[f];
+            int n = groupStart[f+1] - start;
+            if ( n == 0 )
+                continue;
+
+            int[] links = new int[n];
+            System.arraycopy( groupLinks, start, links, 0, n );
+
+            double[] values = functions[f].evaluate( links, n, columnValues );
+            for (int j=0; j < n; j++)
+                results[links[j]] = values[j];
+
+        }
+
+
+        if ( validate )
+            validateResults ( results, interpretedResults, validLinks, functionIndices );
+
+		return results;
+
+	}
+
+
+	// apply the link function specified to only the one link specified
+	public double solve ( int linkIndex, int functionIndex ) {
+
+        if ( ! isCompiled(functionIndex) ) {
+            linkStore.exportTo( linkTable );
+            return lc.solve( linkIndex, functionIndex );
+        }
+
+        double result = functions[functionIndex].evaluate( columnValues, linkIndex );
+
+        if ( validate ) {
+            linkStore.exportTo( linkTable );
+            double interpretedResult = lc.solve( linkIndex, functionIndex );
+            if ( ! agree( result, interpretedResult ) ) {
+                logger.error ( String.format("compiled link function %d (%s) for %s differs from LinkCalculator for link i=%d: compiled=%.17g, LinkCalculator=%.17g.", functionIndex, expStrings[functionIndex], functionIndexFieldName, linkIndex, result, interpretedResult) );
+                result = interpretedResult;
+            }
+        }
+
+        return result;
+
+	}
+
+
+
+	private void validateResults ( double[] results, double[] interpretedResults, boolean[] validLinks, int[] functionIndices ) {
+
+        int numDifferent = 0;
+        double maxDifference = 0.0;
+
+        for (int i=0; i < results.length; i++) {
+
+            if ( ! validLinks[i] || ! isCompiled(functionIndices[i]) )
+                continue;
+
+            if ( ! agree( results[i], interpretedResults[i] ) ) {
+
+                if ( numDifferent < MAX_VALIDATION_ERRORS_LOGGED )
+                    logger.error ( String.format("compiled link function %d (%s) for %s differs from LinkCalculator for link i=%d: compiled=%.17g, LinkCalculator=%.17g.", functionIndices[i], expStrings[functionIndices[i]], functionIndexFieldName, i, results[i], interpretedResults[i]) );
+
+                numDifferent++;
+                maxDifference = Math.max( maxDifference, Math.abs( results[i] - interpretedResults[i] ) );
+            }
+
+        }
+
+        if ( numDifferent > 0 )
+            logger.error ( String.format("%d links had compiled %s function results different from LinkCalculator, max absolute difference = %.6e.  LinkCalculator results are used.", numDifferent, functionIndexFieldName, maxDifference) );
+        else
+            logger.info ( String.format("compiled %s function results validated against LinkCalculator for all links.", functionIndexFieldName) );
+
+        System.arraycopy( interpretedResults, 0, results, 0, results.length );
+
+	}
+
+
+
+    private boolean agree ( double compiled, double interpreted ) {
+        if ( Double.isNaN(compiled) || Double.isNaN(interpreted) )
+            return Double.isNaN(compiled) && Double.isNaN(interpreted);
+        if ( compiled == interpreted )
+            return true;
+        return Math.abs( compiled - interpreted ) <= VALIDATION_TOLERANCE * Math.max( Math.abs(compiled), Math.abs(interpreted) );
+    }
+
+
+
+    /*
+     * Parse the function string following the same rules as Expression.parse() and Expression.get_token(),
+     * including operator precedence and stack handling, to get the same postfix sequence, then build the tree
+     * in the order Expression.solve1() evaluates the sequence.  Returns null if the function uses features
+     * that are not compiled.
+     */
+    private Node compile ( String prog ) {
+
+        if ( prog.equals("") )
+            return null;
+
+        // unbalanced parentheses
+        int depth = 0;
+        for (int i=0; i < prog.length(); i++) {
+            if ( prog.charAt(i) == '(' )
+                depth++;
+            else if ( prog.charAt(i) == ')' )
+                depth--;
+        }
+        if ( depth != 0 )
+            return null;
+
+        // assignments to a variable (x=...) are not compiled
+        for (int i=0; i < prog.length(); i++) {
+            if ( prog.charAt(i) == '=' ) {
+                if ( (prog.charAt(i-1) == '=') || (prog.charAt(i+1) == '=') || (prog.charAt(i-1) == '!') ||
+                     (prog.charAt(i-1) == '<') || (prog.charAt(i-1) == '>') )
+                    continue;
+                return null;
+            }
+        }
+
+
+        ArrayList<Object> postfix = new ArrayList<Object>();
+        ArrayList<Integer> postfixType = new ArrayList<Integer>();
+        char[] temp = new char[prog.length() + 1];
+        int tempindex = 0;
+
+        Tokenizer tk = new Tokenizer( prog );
+        tk.next();
+        while ( ! tk.token.equals("_end_") ) {
+
+            switch ( tk.type ) {
+
+                case NUMBER:
+                    postfix.add( Double.valueOf(tk.token) );
+                    postfixType.add( NUMBER );
+                    break;
+
+                case VARIABLE:
+                    char c = reservedFunction( tk.token );
+                    if ( c == PUT || c == GET )
+                        return null;
+                    if ( c > 0 ) {
+                        temp[tempindex++] = c;
+                    }
+                    else {
+                        if ( ! linkStore.hasDoubleColumn( tk.token ) ) {
+                            if ( linkTable.getColumnPosition( tk.token ) < 0 )
+                                return null;
+                            linkStore.importDoubleColumn( linkTable, tk.token );
+                        }
+                        if ( ! variableNames.contains( tk.token ) )
+                            variableNames.add( tk.token );
+                        postfix.add( variableNames.indexOf( tk.token ) );
+                        postfixType.add( VARIABLE );
+                    }
+                    break;
+
+                case DELIMITER:
+                    char d = tk.token.charAt(0);
+                    if ( d == '(' ) {
+                        temp[tempindex++] = d;
+                    }
+                    else if ( d == ',' || d == ')' ) {
+                        while ( (temp[--tempindex] != '(') && (temp[tempindex] != ',') ) {
+                            postfix.add( temp[tempindex] );
+                            postfixType.add( DELIMITER );
+                        }
+                        if ( d == ',' ) {
+                            temp[tempindex++] = d;
+                        }
+                        else if ( (tempindex-1) >= 0 && isReservedFunction(temp[tempindex-1]) ) {
+                            --tempindex;
+                            postfix.add( temp[tempindex] );
+                            postfixType.add( DELIMITER );
+                        }
+                    }
+                    else if ( tempindex == 0 || temp[tempindex - 1] == '(' || precedence(temp[tempindex - 1]) < precedence(d) ) {
+                        temp[tempindex++] = operatorMapping( tk.token );
+                    }
+                    else {
+                        postfix.add( temp[tempindex - 1] );
+                        postfixType.add( DELIMITER );
+                        temp[tempindex - 1] = operatorMapping( tk.token );
+                    }
+                    break;
+
+                default:
+                    return null;
+
+            }
+
+            tk.next();
+
+        }
+
+        while ( (--tempindex) >= 0 ) {
+            postfix.add( temp[tempindex] );
+            postfixType.add( DELIMITER );
+        }
+
+
+        PostfixReader reader = new PostfixReader( postfix, postfixType );
+        return reader.build();
+
+    }
+
+
+    private static char operatorMapping ( String token ) {
+        if ( token.startsWith(">=") )
+            return GREATER_EQUAL;
+        else if ( token.startsWith("<=") )
+            return LESS_EQUAL;
+        else
+            return token.charAt(0);
+    }
+
+
+    private static char reservedFunction ( String name ) {
+        String s = name.toUpperCase();
+        if ( s.equals("LN") ) return LN;
+        if ( s.equals("EXP") ) return EXP;
+        if ( s.equals("ABS") ) return ABS;
+        if ( s.equals("SIGN") ) return SIGN;
+        if ( s.equals("INT") ) return INT;
+        if ( s.equals("MAX") ) return MAX;
+        if ( s.equals("MIN") ) return MIN;
+        if ( s.equals("IF") ) return IF;
+        if ( s.equals("PUT") ) return PUT;
+        if ( s.equals("GET") ) return GET;
+        if ( s.equals("SQRT") ) return SQRT;
+        return 0;
+    }
+
+
+    private static boolean isReservedFunction ( char c ) {
+        return "leastmnipgq".indexOf(c) >= 0;
+    }
+
+
+    private static int precedence ( char c ) {
+        if (c == '=' || c == '!')
+            return 1;
+        if (c == '<' || c == '>' || c == '{' || c == '}')
+            return 2;
+        if (c == '+' || c == '-')
+            return 3;
+        if (c == '*' || c == '/' || c == '%')
+            return 4;
+        if (c == '^')
+            return 5;
+        return 0;
+    }
+
+
+    private static int numberOfArguments ( char c ) {
+        switch (c) {
+            case LN: case EXP: case ABS: case SIGN: case INT: case SQRT:
+                return 1;
+            case '+': case '-': case '*': case '/': case '%': case '^': case MAX: case MIN:
+            case '>': case '<': case '=': case '!': case GREATER_EQUAL: case LESS_EQUAL:
+                return 2;
+            case IF:
+                return 3;
+        }
+        return 0;
+    }
+
+
+
+    /*
+     * Splits a function string into tokens as Expression.get_token() does.
+     */
+    private static class Tokenizer {
+
+        String prog;
+        String token;
+        int type;
+        int count = 0;
+
+        Tokenizer ( String prog ) {
+            this.prog = prog;
+        }
+
+        void next () {
+
+            type = 0;
+            token = "";
+
+            if ( count >= prog.length() ) {
+                token = "_end_";
+                return;
+            }
+
+            while ( Character.isWhitespace(prog.charAt(count)) )
+                count++;
+
+            char c = prog.charAt(count);
+            boolean processed = false;
+
+            if ( Character.isLetter(c) || c == '$' || c == '@' ) {
+                token = readOperand( count );
+                type = VARIABLE;
+            }
+
+            if ( Character.isDigit(c) || c == '.' ) {
+                token = readOperand( count );
+                type = NUMBER;
+            }
+
+            // a minus sign with a delimiter to the left and a digit to the right is a negative number
+            if ( c == '-' ) {
+                char c1 = prog.charAt(count+1);
+                if ( (Character.isDigit(c1) || c1 == '.') && (count == 0 || isDelimiter(prog.charAt(count-1))) ) {
+                    int start = count;
+                    count++;
+                    readOperand( start );
+                    token = prog.substring( start, count );
+                    type = NUMBER;
+                    processed = true;
+                }
+            }
+
+            if ( isDelimiter(c) && ! processed ) {
+                type = DELIMITER;
+                if ( (count+1 < prog.length()) && (prog.charAt(count+1) == '=' ) ) {
+                    token = prog.substring( count, count+2 );
+                    count += 2;
+                }
+                else {
+                    token = prog.substring( count, ++count );
+                }
+            }
+
+        }
+
+        private String readOperand ( int start ) {
+            while ( ! isDelimiter(prog.charAt(count)) && count < prog.length() - 1 )
+                count++;
+            if ( ! isDelimiter(prog.charAt(count)) )
+                return prog.substring( start, ++count );
+            else
+                return prog.substring( start, count );
+        }
+
+        private static boolean isDelimiter ( char c ) {
+            return "+-/*%^=()>,<! ".indexOf(c) != -1 || c == 9 || c == 0;
+        }
+
+    }
+
+
+    /*
+     * Builds the operator tree from the end of the postfix sequence, consuming operands
+     * in the order Expression.solve1() and Expression.get_oprand() consume them.
+     */
+    private static class PostfixReader {
+
+        ArrayList<Object> postfix;
+        ArrayList<Integer> postfixType;
+        int index;
+
+        PostfixReader ( ArrayList<Object> postfix, ArrayList<Integer> postfixType ) {
+            this.postfix = postfix;
+            this.postfixType = postfixType;
+            index = postfix.size() - 1;
+        }
+
+        Node build () {
+
+            if ( index < 0 )
+                return null;
+
+            if ( index == 0 ) {
+                if ( postfixType.get(0) == NUMBER )
+                    return new Constant( (Double)postfix.get(0) );
+                if ( postfixType.get(0) == VARIABLE )
+                    return new Variable( (Integer)postfix.get(0) );
+            }
+
+            char op = (Character)postfix.get(index);
+            int nArgs = numberOfArguments( op );
+            if ( nArgs == 0 )
+                return null;
+
+            Node[] args = new Node[nArgs];
+            for (int k=nArgs-1; k >= 0; k--) {
+                args[k] = operand();
+                if ( args[k] == null )
+                    return null;
+            }
+
+            if ( nArgs == 1 )
+                return new UnaryOperation( op, args[0] );
+            else if ( nArgs == 2 )
+                return new BinaryOperation( op, args[0], args[1] );
+            else
+                return new Conditional( args[0], args[1], args[2] );
+
+        }
+
+        private Node operand () {
+
+            if ( --index < 0 )
+                return null;
+
+            if ( postfixType.get(index) == VARIABLE )
+                return new Variable( (Integer)postfix.get(index) );
+            else if ( postfixType.get(index) == NUMBER )
+                return new Constant( (Double)postfix.get(index) );
+            else
+                return build();
+
+        }
+
+    }
+
+
+
+    /*
+     * Compiled function tree nodes.  evaluate(links, n, columns) returns the values for the n links
+     * in links[], where columns[slot] holds the values of a variable for all links.
+     * evaluate(columns, k) returns the value for the single link k.
+     */
+    static abstract class Node implements Serializable {
+
+        transient double[] values;
+
+        abstract double[] evaluate ( int[] links, int n, double[][] columns );
+        abstract double evaluate ( double[][] columns, int k );
+
+        double[] getValues ( int n ) {
+            if ( values == null || values.length < n )
+                values = new double[n];
+            return values;
+        }
+
+    }
+
+
+    static class Constant extends Node {
+        double value;
+        Constant ( double value ) {
+            this.value = value;
+        }
+        double[] evaluate ( int[] links, int n, double[][] columns ) {
+            double[] result = getValues(n);
+            for (int j=0; j < n; j++)
+                result[j] = value;
+            return result;
+        }
+        double evaluate ( double[][] columns, int k ) {
+            return value;
+        }
+    }
+
+
+    static class Variable extends Node {
+        int slot;
+        Variable ( int slot ) {
+            this.slot = slot;
+        }
+        double[] evaluate ( int[] links, int n, double[][] columns ) {
+            double[] column = columns[slot];
+            double[] result = getValues(n);
+            for (int j=0; j < n; j++)
+                result[j] = column[links[j]];
+            return result;
+        }
+        double evaluate ( double[][] columns, int k ) {
+            return columns[slot][k];
+        }
+    }
+
+
+    static class UnaryOperation extends Node {
+        char op;
+        Node arg;
+        UnaryOperation ( char op, Node arg ) {
+            this.op = op;
+            this.arg = arg;
+        }
+        double[] evaluate ( int[] links, int n, double[][] columns ) {
+            double[] a = arg.evaluate( links, n, columns );
+            double[] result = getValues(n);
+            switch (op) {
+                case LN:
+                    for (int j=0; j < n; j++)
+                        result[j] = MathUtil.log( a[j] );
+                    break;
+                case EXP:
+                    for (int j=0; j < n; j++)
+                        result[j] = Math.pow( Math.E, a[j] );
+                    break;
+                case ABS:
+                    for (int j=0; j < n; j++)
+                        result[j] = Math.abs( a[j] );
+                    break;
+                case INT:
+                    for (int j=0; j < n; j++)
+                        result[j] = Math.floor( a[j] );
+                    break;
+                case SQRT:
+                    for (int j=0; j < n; j++)
+                        result[j] = Math.sqrt( a[j] );
+                    break;
+                default:
+                    for (int j=0; j < n; j++)
+                        result[j] = apply( a[j] );
+                    break;
+            }
+            return result;
+        }
+        double evaluate ( double[][] columns, int k ) {
+            return apply( arg.evaluate( columns, k ) );
+        }
+        double apply ( double d1 ) {
+            switch (op) {
+                case LN: return MathUtil.log( d1 );
+                case EXP: return Math.pow( Math.E, d1 );
+                case ABS: return Math.abs( d1 );
+                case SIGN: return d1 < 0 ? -1 : ( d1 == 0 ? 0 : 1 );
+                case INT: return Math.floor( d1 );
+                case SQRT: return Math.sqrt( d1 );
+            }
+            throw new RuntimeException( "compiled link function operator " + op + " not found." );
+        }
+    }
+
+
+    static class BinaryOperation extends Node {
+        char op;
+        Node left;
+        Node right;
+        BinaryOperation ( char op, Node left, Node right ) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+        double[] evaluate ( int[] links, int n, double[][] columns ) {
+            double[] a = left.evaluate( links, n, columns );
+            double[] b = right.evaluate( links, n, columns );
+            double[] result = getValues(n);
+            switch (op) {
+                case '+':
+                    for (int j=0; j < n; j++)
+                        result[j] = a[j] + b[j];
+                    break;
+                case '-':
+                    for (int j=0; j < n; j++)
+                        result[j] = a[j] - b[j];
+                    break;
+                case '*':
+                    for (int j=0; j < n; j++)
+                        result[j] = a[j] * b[j];
+                    break;
+                case '/':
+                    for (int j=0; j < n; j++)
+                        result[j] = a[j] / b[j];
+                    break;
+                case '^':
+                    for (int j=0; j < n; j++)
+                        result[j] = Math.pow( a[j], b[j] );
+                    break;
+                default:
+                    for (int j=0; j < n; j++)
+                        result[j] = apply( a[j], b[j] );
+                    break;
+            }
+            return result;
+        }
+        double evaluate ( double[][] columns, int k ) {
+            double d1 = left.evaluate( columns, k );
+            double d2 = right.evaluate( columns, k );
+            return apply( d1, d2 );
+        }
+        double apply ( double d1, double d2 ) {
+            switch (op) {
+                case '+': return d1 + d2;
+                case '-': return d1 - d2;
+                case '*': return d1 * d2;
+                case '/': return d1 / d2;
+                case '%': return d1 % d2;
+                case '^': return Math.pow( d1, d2 );
+                case MAX: return Math.max( d1, d2 );
+                case MIN: return Math.min( d1, d2 );
+                case '>': return d1 > d2 ? 1 : 0;
+                case '<': return d1 < d2 ? 1 : 0;
+                case '=': return d1 == d2 ? 1 : 0;
+                case '!': return d1 != d2 ? 1 : 0;
+                case GREATER_EQUAL: return d1 >= d2 ? 1 : 0;
+                case LESS_EQUAL: return d1 <= d2 ? 1 : 0;
+            }
+            throw new RuntimeException( "compiled link function operator " + op + " not found." );
+        }
+    }
+
+
+    static class Conditional extends Node {
+        Node condition;
+        Node ifTrue;
+        Node ifFalse;
+        Conditional ( Node condition, Node ifTrue, Node ifFalse ) {
+            this.condition = condition;
+            this.ifTrue = ifTrue;
+            this.ifFalse = ifFalse;
+        }
+        double[] evaluate ( int[] links, int n, double[][] columns ) {
+            double[] c = condition.evaluate( links, n, columns );
+            double[] a = ifTrue.evaluate( links, n, columns );
+            double[] b = ifFalse.evaluate( links, n, columns );
+            double[] result = getValues(n);
+            for (int j=0; j < n; j++)
+                result[j] = c[j] > 0 ? a[j] : b[j];
+            return result;
+        }
+        double evaluate ( double[][] columns, int k ) {
+            double d1 = condition.evaluate( columns, k );
+            double d2 = ifTrue.evaluate( columns, k );
+            double d3 = ifFalse.evaluate( columns, k );
+            return d1 > 0 ? d2 : d3;
+        }
+    }
+
+}
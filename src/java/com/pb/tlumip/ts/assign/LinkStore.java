@@ -0,0 +1,214 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts.assign;
+
+import com.pb.common.datafile.TableDataSet;
+
+import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+
+
+/**
+ * Columnar store of the numeric link attributes used while assigning and skimming.
+ *
+ * Columns are imported once from the link TableDataSet into double[] and int[] arrays
+ * with one element per link.  The arrays are allocated once: set methods copy new values
+ * into the existing array, so references obtained from the package-level accessors
+ * stay valid and current for the life of the store.  Columns changed since the last
+ * export are written back to the TableDataSet by exportTo(), which is only needed when
+ * something reads the TableDataSet itself (LinkCalculator, writing link tables).
+ *
+ * Outside this package, columns are available as read-only buffer views, which share
+ * the arrays without copying, or as copies.
+ */
+public class LinkStore implements Serializable {
+
+    int numLinks;
+
+    HashMap<String,double[]> doubleColumns = new HashMap<String,double[]>();
+    HashMap<String,int[]> intColumns = new HashMap<String,int[]>();
+
+    // columns changed since they were last written to the TableDataSet
+    HashSet<String> modifiedColumns = new HashSet<String>();
+
+
+
+    public LinkStore ( int numLinks ) {
+        this.numLinks = numLinks;
+    }
+
+
+    public int getLinkCount () {
+        return numLinks;
+    }
+
+
+    public boolean hasDoubleColumn ( String name ) {
+        return doubleColumns.containsKey( name );
+    }
+
+
+    public boolean hasIntColumn ( String name ) {
+        return intColumns.containsKey( name );
+    }
+
+
+
+    // read a numeric column from the TableDataSet into the store as doubles, replacing the values of a column already in the store.
+    public void importDoubleColumn ( TableDataSet linkTable, String name ) {
+        setValues( doubleColumns, name, linkTable.getColumnAsDouble( name ) );
+        modifiedColumns.remove( name );
+    }
+
+
+    // read a numeric column from the TableDataSet into the store as ints, replacing the values of a column already in the store.
+    public void importIntColumn ( TableDataSet linkTable, String name ) {
+        setValues( intColumns, name, linkTable.getColumnAsInt( name ) );
+        modifiedColumns.remove( name );
+    }
+
+
+    // write the columns changed since the last export into the TableDataSet, appending any it does not have yet.
+    public void exportTo ( TableDataSet linkTable ) {
+
+        if ( modifiedColumns.isEmpty() )
+            return;
+
+        for ( String name : modifiedColumns ) {
+
+            int position = linkTable.getColumnPosition( name );
+
+            if ( doubleColumns.containsKey( name ) ) {
+                if ( position < 0 )
+                    linkTable.appendColumn( toFloat( doubleColumns.get( name ) ), name );
+                else
+                    linkTable.setColumnAsDouble( position, doubleColumns.get( name ) );
+            }
+            else {
+                if ( position < 0 )
+                    linkTable.appendColumn( intColumns.get( name ).clone(), name );
+                else
+                    linkTable.setColumnAsInt( position, intColumns.get( name ) );
+            }
+
+        }
+
+        modifiedColumns.clear();
+
+    }
+
+
+
+    public void setDoubleColumn ( String name, double[] values ) {
+        setValues( doubleColumns, name, values );
+        modifiedColumns.add( name );
+    }
+
+
+    public void setIntColumn ( String name, int[] values ) {
+        setValues( intColumns, name, values );
+        modifiedColumns.add( name );
+    }
+
+
+    // record that the values of a column were changed in place through the array returned by getDoubleColumn() or getIntColumn().
+    void setModified ( String name ) {
+        modifiedColumns.add( name );
+    }
+
+
+
+    // the store's own array for the column - callers in this package must not keep values in it,
+    // and must call setModified() if they change it.
+    double[] getDoubleColumn ( String name ) {
+        double[] values = doubleColumns.get( name );
+        if ( values == null )
+            throw new RuntimeException ( "link attribute " + name + " is not in the link store." );
+        return values;
+    }
+
+
+    int[] getIntColumn ( String name ) {
+        int[] values = intColumns.get( name );
+        if ( values == null )
+            throw new RuntimeException ( "link attribute " + name + " is not in the link store." );
+        return values;
+    }
+
+
+    public DoubleBuffer getDoubleColumnView ( String name ) {
+        return DoubleBuffer.wrap( getDoubleColumn( name ) ).asReadOnlyBuffer();
+    }
+
+
+    public IntBuffer getIntColumnView ( String name ) {
+        return IntBuffer.wrap( getIntColumn( name ) ).asReadOnlyBuffer();
+    }
+
+
+    public double[] copyDoubleColumn ( String name ) {
+        return getDoubleColumn( name ).clone();
+    }
+
+
+    public int[] copyIntColumn ( String name ) {
+        return getIntColumn( name ).clone();
+    }
+
+
+
+    private void setValues ( HashMap<String,double[]> columns, String name, double[] values ) {
+
+        if ( values.length != numLinks )
+            throw new RuntimeException ( String.format("link attribute %s has %d values, link store has %d links.", name, values.length, numLinks) );
+
+        double[] column = columns.get( name );
+        if ( column == null ) {
+            column = new double[numLinks];
+            columns.put( name, column );
+        }
+        System.arraycopy( values, 0, column, 0, numLinks );
+
+    }
+
+
+    private void setValues ( HashMap<String,int[]> columns, String name, int[] values ) {
+
+        if ( values.length != numLinks )
+            throw new RuntimeException ( String.format("link attribute %s has %d values, link store has %d links.", name, values.length, numLinks) );
+
+        int[] column = columns.get( name );
+        if ( column == null ) {
+            column = new int[numLinks];
+            columns.put( name, column );
+        }
+        System.arraycopy( values, 0, column, 0, numLinks );
+
+    }
+
+
+    private float[] toFloat ( double[] values ) {
+        float[] f = new float[values.length];
+        for (int i=0; i < values.length; i++)
+            f[i] = (float)values[i];
+        return f;
+    }
+
+}
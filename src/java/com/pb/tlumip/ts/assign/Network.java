@@ -42,6 +42,7 @@ import com.pb.common.datafile.TableDataSet;
 import com.pb.common.util.IndexSort;
 import com.pb.common.matrix.AlphaToBeta;
 import com.pb.tlumip.ts.NetworkHandlerIF;
+import com.pb.tlumip.ts.ShortestPathTreeH;
 import com.pb.tlumip.ts.transit.AuxTrNet;
 
 /**
@@ -53,6 +54,10 @@ import com.pb.tlumip.ts.transit.AuxTrNet;
 public class Network implements Serializable {
 
     static final  int NOT_USED_FLAG = 99999999;
+
+    // memory budget for the shortest path trees SpBuildLoadHandlers save for the FW path file if
+    // spBuildLoad.savedTreeMegabytes is not set.
+    static final int DEFAULT_SAVED_SP_TREE_MEGABYTES = 512;
     
     
     static final String OUTPUT_FLOW_FIELDS_START_WITH = "assignmentFlow";
@@ -85,6 +90,13 @@ public class Network implements Serializable {
 
     double WALK_SPEED;
 
+    String shortestPathHeapType;
+    String shortestPathMode;
+    String shortestPathLoadMethod;
+    String networkSnapshotDirectory;
+    String transitRouteCacheDirectory;
+    int savedShortestPathTreeMegabytes = DEFAULT_SAVED_SP_TREE_MEGABYTES;
+
 	
 	int maxCentroid;
 	int numCentroids;
@@ -123,13 +135,22 @@ public class Network implements Serializable {
 	TableDataSet linkModsTable = null;
 	TableDataSet derivedLinkTable = null;
 
+    // numeric link attributes used during assignment, kept in primitive arrays after the network is read.
+    static final String[] LINK_STORE_DOUBLE_ATTRIBUTES = { "volau", "volad", "capacity", "originalCapacity", "totalCapacity", "totalVolCapRatio",
+            "congestedTime", "transitTime", "generalizedCost", "vdfIntegral", "freeFlowTime", "freeFlowSpeed", "dist", "lanes", "length" };
+    static final String[] LINK_STORE_INT_ATTRIBUTES = { "ia", "ib", "vdf", "type" };
+
+    LinkStore linkStore = null;
+
 	LinkFunction lf = null;
 	LinkFunction lfi = null;
-	LinkCalculator fdLc = null;
+	CompiledLinkCalculator fdLc = null;
 	LinkCalculator fpLc = null;
-	LinkCalculator fdiLc = null;
+	CompiledLinkCalculator fdiLc = null;
 	LinkCalculator fpiLc = null;
-	LinkCalculator ftLc = null;
+	CompiledLinkCalculator ftLc = null;
+
+    boolean validateVdfs = false;
 
     int[][] turnPenaltyIndices = null;
     float[][] turnPenaltyArray = null;
@@ -206,6 +227,43 @@ public class Network implements Serializable {
             this.WALK_SPEED = Double.parseDouble ( propertyValues[NetworkHandlerIF.WALK_SPEED_INDEX] );
         else
             this.WALK_SPEED = 3.0;
+
+        if ( propertyValues.length > NetworkHandlerIF.SP_HEAP_TYPE_INDEX && propertyValues[NetworkHandlerIF.SP_HEAP_TYPE_INDEX] != null && ! propertyValues[NetworkHandlerIF.SP_HEAP_TYPE_INDEX].equals("") )
+            this.shortestPathHeapType = propertyValues[NetworkHandlerIF.SP_HEAP_TYPE_INDEX];
+        else
+            this.shortestPathHeapType = ShortestPathTreeH.BINARY_HEAP;
+        logger.info ( "shortest path candidate heap type: " + shortestPathHeapType );
+
+        if ( propertyValues.length > NetworkHandlerIF.SP_PATH_MODE_INDEX && propertyValues[NetworkHandlerIF.SP_PATH_MODE_INDEX] != null && ! propertyValues[NetworkHandlerIF.SP_PATH_MODE_INDEX].equals("") )
+            this.shortestPathMode = propertyValues[NetworkHandlerIF.SP_PATH_MODE_INDEX];
+        else
+            this.shortestPathMode = ShortestPathTreeH.DIJKSTRA_PATH;
+        logger.info ( "point to point shortest path mode: " + shortestPathMode );
+
+        if ( propertyValues.length > NetworkHandlerIF.SP_LOAD_METHOD_INDEX && propertyValues[NetworkHandlerIF.SP_LOAD_METHOD_INDEX] != null && ! propertyValues[NetworkHandlerIF.SP_LOAD_METHOD_INDEX].equals("") )
+            this.shortestPathLoadMethod = propertyValues[NetworkHandlerIF.SP_LOAD_METHOD_INDEX];
+        else
+            this.shortestPathLoadMethod = ShortestPathTreeH.TREE_LOAD;
+        logger.info ( "shortest path tree load method: " + shortestPathLoadMethod );
+
+        if ( propertyValues.length > NetworkHandlerIF.NETWORK_SNAPSHOT_DIRECTORY_INDEX && propertyValues[NetworkHandlerIF.NETWORK_SNAPSHOT_DIRECTORY_INDEX] != null && ! propertyValues[NetworkHandlerIF.NETWORK_SNAPSHOT_DIRECTORY_INDEX].equals("") ) {
+            this.networkSnapshotDirectory = propertyValues[NetworkHandlerIF.NETWORK_SNAPSHOT_DIRECTORY_INDEX];
+            logger.info ( "network snapshot files for SpBuildLoadHandlers written to: " + networkSnapshotDirectory );
+        }
+
+        if ( propertyValues.length > NetworkHandlerIF.TRANSIT_ROUTE_CACHE_DIRECTORY_INDEX && propertyValues[NetworkHandlerIF.TRANSIT_ROUTE_CACHE_DIRECTORY_INDEX] != null && ! propertyValues[NetworkHandlerIF.TRANSIT_ROUTE_CACHE_DIRECTORY_INDEX].equals("") ) {
+            this.transitRouteCacheDirectory = propertyValues[NetworkHandlerIF.TRANSIT_ROUTE_CACHE_DIRECTORY_INDEX];
+            logger.info ( "parsed transit route files cached in: " + transitRouteCacheDirectory );
+        }
+
+        if ( propertyValues.length > NetworkHandlerIF.SAVED_SP_TREE_MEGABYTES_INDEX && propertyValues[NetworkHandlerIF.SAVED_SP_TREE_MEGABYTES_INDEX] != null && ! propertyValues[NetworkHandlerIF.SAVED_SP_TREE_MEGABYTES_INDEX].equals("") )
+            this.savedShortestPathTreeMegabytes = Integer.parseInt( propertyValues[NetworkHandlerIF.SAVED_SP_TREE_MEGABYTES_INDEX] );
+        logger.info ( "memory budget for saved shortest path trees: " + savedShortestPathTreeMegabytes + " MB" );
+
+        if ( propertyValues.length > NetworkHandlerIF.VDF_VALIDATION_INDEX && propertyValues[NetworkHandlerIF.VDF_VALIDATION_INDEX] != null && ! propertyValues[NetworkHandlerIF.VDF_VALIDATION_INDEX].equals("") )
+            this.validateVdfs = Boolean.parseBoolean( propertyValues[NetworkHandlerIF.VDF_VALIDATION_INDEX] );
+        if ( validateVdfs )
+            logger.info ( "compiled vdf results will be validated against LinkCalculator results." );
 		
 
 		// read the node and link tables
@@ -255,6 +313,11 @@ public class Network implements Serializable {
 		linkTable.merge ( derivedLinkTable );
 		derivedLinkTable = null;
 		
+        
+        // from here on, the numeric link attributes are read and updated in the link store.
+        // linkTable is brought up to date from the store only when it's read directly, by LinkCalculator or for output.
+        createLinkStore();
+		
 
         
         // update linktable with extra attributes
@@ -265,7 +328,8 @@ public class Network implements Serializable {
 
 
         // calculate the congested link travel times based on the vdf functions defined
-		fdLc = new LinkCalculator ( linkTable, lf.getFunctionStrings( "fd" ), "vdf" );
+		fdLc = new CompiledLinkCalculator ( linkTable, linkStore, lf.getFunctionStrings( "fd" ), "vdf" );
+		fdLc.setValidation( validateVdfs );
 		applyVdfs();
 		logLinkTimeFreqs();
 		
@@ -284,10 +348,12 @@ public class Network implements Serializable {
 
 
 		// define link calculators for use in computing objective function and lambda vales
-		fdiLc = new LinkCalculator ( linkTable, lfi.getFunctionStrings( "fd" ), "vdf" );
+		fdiLc = new CompiledLinkCalculator ( linkTable, linkStore, lfi.getFunctionStrings( "fd" ), "vdf" );
+		fdiLc.setValidation( validateVdfs );
 		fpiLc = new LinkCalculator ( linkTable, lfi.getFunctionStrings( "fp" ), "turnIndex" );
 
-		ftLc = new LinkCalculator ( linkTable, lf.getFunctionStrings( "ft" ), "vdf" );
+		ftLc = new CompiledLinkCalculator ( linkTable, linkStore, lf.getFunctionStrings( "ft" ), "vdf" );
+		ftLc.setValidation( validateVdfs );
 	
         int[] externalNodes = getNodes();
         internalNodeToNodeTableRow = new int[externalNodes.length];
@@ -342,11 +408,11 @@ public class Network implements Serializable {
 	
 	
 	public int[] getIa () {
-		return linkTable.getColumnAsInt( "ia" );
+		return linkStore.copyIntColumn( "ia" );
 	}
 
 	public int[] getIb () {
-		return linkTable.getColumnAsInt( "ib" );
+		return linkStore.copyIntColumn( "ib" );
 	}
 
     public int[] getIpa () {
@@ -382,7 +448,7 @@ public class Network implements Serializable {
     }
 
     public int[] getVdfIndex () {
-        return linkTable.getColumnAsInt( "vdf" );
+        return linkStore.copyIntColumn( "vdf" );
     }
 
 	public boolean[] getCentroid () {
@@ -390,32 +456,32 @@ public class Network implements Serializable {
 	}
 
 	public double[] getCapacity () {
-		return linkTable.getColumnAsDouble( "capacity" );
+		return linkStore.copyDoubleColumn( "capacity" );
 	}
 
     public double[] getOriginalCapacity () {
-        return linkTable.getColumnAsDouble( "originalCapacity" );
+        return linkStore.copyDoubleColumn( "originalCapacity" );
     }
 
     public double[] getTotalCapacity () {
-        return linkTable.getColumnAsDouble( "totalCapacity" );
+        return linkStore.copyDoubleColumn( "totalCapacity" );
     }
 
     public double[] getCongestedTime () {
-        return linkTable.getColumnAsDouble( "congestedTime" );
+        return linkStore.copyDoubleColumn( "congestedTime" );
     }
 
     public double[] getLinkGeneralizedCost () {
-        return linkTable.getColumnAsDouble( "generalizedCost" );
+        return linkStore.copyDoubleColumn( "generalizedCost" );
     }
 
 	public double[] getTransitTime () {
-		return linkTable.getColumnAsDouble( "transitTime" );
+		return linkStore.copyDoubleColumn( "transitTime" );
 	}
 
     public double getSumOfVdfIntegrals () {
 
-        double[] integrals = linkTable.getColumnAsDouble("vdfIntegral");
+        double[] integrals = linkStore.getDoubleColumn( "vdfIntegral" );
         
         double sum = 0.0;
         for (int k=0; k < integrals.length; k++)
@@ -426,31 +492,31 @@ public class Network implements Serializable {
     }
 
     public double[] getFreeFlowTime () {
-        return linkTable.getColumnAsDouble( "freeFlowTime" );
+        return linkStore.copyDoubleColumn( "freeFlowTime" );
     }
 
     public double[] getFreeFlowSpeed () {
-        return linkTable.getColumnAsDouble( "freeFlowSpeed" );
+        return linkStore.copyDoubleColumn( "freeFlowSpeed" );
     }
 
 	public double[] getDist () {
-		return linkTable.getColumnAsDouble( "dist" );
+		return linkStore.copyDoubleColumn( "dist" );
 	}
 
     public int[] getLinkType () {
-        return linkTable.getColumnAsInt( "type" );
+        return linkStore.copyIntColumn( "type" );
     }
 
     public int[] getTaz () {
-        return linkTable.getColumnAsInt( "taz" );
+        return linkStore.copyIntColumn( "taz" );
     }
 
     public int[] getDrops () {
-        return linkTable.getColumnAsInt( "drops" );
+        return linkStore.copyIntColumn( "drops" );
     }
 
     public int[] getUniqueIds () {
-        return linkTable.getColumnAsInt( "uniqueIds" );
+        return linkStore.copyIntColumn( "uniqueIds" );
     }
 
     public float[] getUserClassPces() {
@@ -458,7 +524,7 @@ public class Network implements Serializable {
     }
 
     public double[] getLanes () {
-        return linkTable.getColumnAsDouble( "lanes" );
+        return linkStore.copyDoubleColumn( "lanes" );
     }
 
 	public String[] getMode () {
@@ -505,32 +571,60 @@ public class Network implements Serializable {
 		return WALK_SPEED;
 	}
 
+	public String getShortestPathHeapType () {
+		return shortestPathHeapType;
+	}
+
+	public String getShortestPathMode () {
+		return shortestPathMode;
+	}
+
+	public String getShortestPathLoadMethod () {
+		return shortestPathLoadMethod;
+	}
+
+	public String getNetworkSnapshotDirectory () {
+		return networkSnapshotDirectory;
+	}
+
+	public String getTransitRouteCacheDirectory () {
+		return transitRouteCacheDirectory;
+	}
+
+	public int getSavedShortestPathTreeMegabytes () {
+		return savedShortestPathTreeMegabytes;
+	}
+
+    public LinkStore getLinkStore () {
+        return linkStore;
+    }
+
     public double[][] getFlows () {
 
         double[][] flows = new double[userClasses.length][];
 
         for (char c : userClasses) {
             int m = getUserClassIndex(c);
-            flows[m] = linkTable.getColumnAsDouble( "flow_" + c );
+            flows[m] = linkStore.copyDoubleColumn( "flow_" + c );
         }
 
         return flows;
     }
 
     public double[] getTotalLinkCost () {
-        return linkTable.getColumnAsDouble( "totalLinkCost" );
+        return linkStore.copyDoubleColumn( "totalLinkCost" );
     }
 
     public double[] getLinkAttribCosts ( char c ) {
-        return linkTable.getColumnAsDouble( String.format("linkAttribCosts_%c", c) );
+        return linkStore.copyDoubleColumn( String.format("linkAttribCosts_%c", c) );
     }
 
     public double[] getVolau() {
-        return linkTable.getColumnAsDouble( "volau" );
+        return linkStore.copyDoubleColumn( "volau" );
     }
     
     public double[] getVolad() {
-        return linkTable.getColumnAsDouble( "volad" );
+        return linkStore.copyDoubleColumn( "volad" );
     }
     
     public int[] getNodes () {
@@ -631,8 +725,8 @@ public class Network implements Serializable {
     
     public double[] setLinkGeneralizedCost () {
 
-        double[] ctime = getCongestedTime();
-        double[] totalLinkCost = getTotalLinkCost();
+        double[] ctime = linkStore.getDoubleColumn( "congestedTime" );
+        double[] totalLinkCost = linkStore.getDoubleColumn( "totalLinkCost" );
 
         double[] gc = new double[ctime.length];
 
@@ -642,27 +736,27 @@ public class Network implements Serializable {
             gc[i] = ctime[i] + totalLinkCost[i];
 
 
-        linkTable.setColumnAsDouble( linkTable.getColumnPosition("generalizedCost"), gc );
+        linkStore.setDoubleColumn( "generalizedCost", gc );
 		
 		return gc;
     }
 
     public void setVolau ( double[] volau ) {
         this.volau = volau;
-        linkTable.setColumnAsDouble( linkTable.getColumnPosition("volau"), volau );
+        linkStore.setDoubleColumn( "volau", volau );
     }
 
     public void setTimau ( double[] timau ) {
-        linkTable.setColumnAsDouble( linkTable.getColumnPosition("congestedTime"), timau );
+        linkStore.setDoubleColumn( "congestedTime", timau );
     }
 
     public void setTaz ( int[] taz ) {
-        linkTable.appendColumn( taz, "taz" );
+        linkStore.setIntColumn( "taz", taz );
     }
 
     public void setDrops ( int[] drops ) {
         this.drops = drops;
-        linkTable.appendColumn( drops, "drops" );
+        linkStore.setIntColumn( "drops", drops );
     }
 
     public void setLinkLabels ( String[] labels ) {
@@ -678,51 +772,51 @@ public class Network implements Serializable {
     }
 
     public void setTotalLinkCost( double[] cost){
-        linkTable.appendColumn ( cost, "totalLinkCost" );
+        linkStore.setDoubleColumn( "totalLinkCost", cost );
     }
 
     public void setLinkAttribCosts( double[][] cost){
         for ( char c : userClasses ) {
             int m = getUserClassIndex(c);
-            linkTable.appendColumn ( cost[m], String.format("linkAttribCosts_%c", c) );
+            linkStore.setDoubleColumn( String.format("linkAttribCosts_%c", c), cost[m] );
         }
     }
 
     public void setUniqueIds ( int[] ids ) {
         uniqueIds = ids;
-        linkTable.appendColumn( ids, "uniqueIds" );
+        linkStore.setIntColumn( "uniqueIds", ids );
     }
 
     public void setOriginalCapacity ( double[] originalCapacity ) {
-        linkTable.setColumnAsDouble( linkTable.getColumnPosition("originalCapacity"), originalCapacity );
+        linkStore.setDoubleColumn( "originalCapacity", originalCapacity );
     }
 
     public void setCapacity ( double[] capacity ) {
-        linkTable.setColumnAsDouble( linkTable.getColumnPosition("capacity"), capacity );
+        linkStore.setDoubleColumn( "capacity", capacity );
     }
 
     public void setTotalCapacity ( double[] totalCapacity ) {
-        linkTable.setColumnAsDouble( linkTable.getColumnPosition("totalCapacity"), totalCapacity );
+        linkStore.setDoubleColumn( "totalCapacity", totalCapacity );
     }
 
     public void setVolCapRatios () {
 		
-    	double[] totalVolCapRatio = linkTable.getColumnAsDouble( "totalVolCapRatio" );
-    	double[] totalCapacity = linkTable.getColumnAsDouble( "totalCapacity" );
-    	double[] volad = linkTable.getColumnAsDouble( "volad" );
+    	double[] totalVolCapRatio = linkStore.getDoubleColumn( "totalVolCapRatio" );
+    	double[] totalCapacity = linkStore.getDoubleColumn( "totalCapacity" );
+    	double[] volad = linkStore.getDoubleColumn( "volad" );
 
-		for (int i=0; i < linkTable.getRowCount(); i++) {
+		for (int i=0; i < numLinks; i++) {
 			totalVolCapRatio[i] = (volau[i]+volad[i])/totalCapacity[i];
 		}
 
-		linkTable.setColumnAsDouble( linkTable.getColumnPosition("totalVolCapRatio"), totalVolCapRatio );
+		linkStore.setModified( "totalVolCapRatio" );
 		
     }
 
     public void setFlows (double[][] flow) {
         for ( char c : userClasses ) {
             int m = getUserClassIndex(c);
-            linkTable.setColumnAsDouble( linkTable.getColumnPosition("flow_" + c), flow[m] );
+            linkStore.setDoubleColumn( "flow_" + c, flow[m] );
         }
     }
     
@@ -911,6 +1005,23 @@ public class Network implements Serializable {
 
 
     
+    private void createLinkStore () {
+
+        linkStore = new LinkStore( linkTable.getRowCount() );
+
+        for ( String name : LINK_STORE_DOUBLE_ATTRIBUTES )
+            linkStore.importDoubleColumn( linkTable, name );
+
+        for ( char c : userClasses )
+            linkStore.importDoubleColumn( linkTable, "flow_" + c );
+
+        for ( String name : LINK_STORE_INT_ATTRIBUTES )
+            linkStore.importIntColumn( linkTable, name );
+
+    }
+
+
+
     private void readLinkAttributesCsvFile ( String filename ) {
 
         
@@ -1185,9 +1296,9 @@ public class Network implements Serializable {
         // apply any link mods for ul3 as done for PT (see times.mac)
         if (linkModsTable != null) {
 
+            // the link store is created after the derived attributes are merged, so the ib array read from linkTable is used here.
             for (int i=0; i < linkModsTable.getRowCount(); i++) {
             
-                int[] ib = getIb();
                 int an = (int)linkModsTable.getValueAt( i+1, "anode" );
                 int bn = (int)linkModsTable.getValueAt( i+1, "bnode" );
                 int ia = nodeIndex[an];
@@ -1261,7 +1372,7 @@ public class Network implements Serializable {
 		
 	public void applyVdfs () {
 		
-        double[] congestedTime = (double[])linkTable.getColumnAsDouble( "congestedTime" );
+        double[] congestedTime = linkStore.getDoubleColumn( "congestedTime" );
         
 		double[] results = fdLc.solve(validLinks);
 		
@@ -1273,11 +1384,11 @@ public class Network implements Serializable {
                 if ( results[i] < 0 || (Double.valueOf(results[i])).equals(Double.NaN) ) {
                     logger.error ( "invalid result in Network.applyVdfs(boolean[] validLinks).   results[i=" + i + "] = " + results[i] );
                     logger.error ( "anode = " + indexNode[ia[i]] + ", bnode = " + indexNode[ib[i]] );
-                    logger.error ( "volau = " + linkTable.getValueAt( i+1, linkTable.getColumnPosition("volau") ) );
-                    logger.error ( "volad = " + linkTable.getValueAt( i+1, linkTable.getColumnPosition("volad") ) );
-                    logger.error ( "capacity = " + linkTable.getValueAt( i+1, linkTable.getColumnPosition("capacity") ) );
-                    logger.error ( "lanes = " + linkTable.getValueAt( i+1, linkTable.getColumnPosition("lanes") ) );
-                    logger.error ( "length = " + linkTable.getValueAt( i+1, linkTable.getColumnPosition("length") ) );
+                    logger.error ( "volau = " + linkStore.getDoubleColumn( "volau" )[i] );
+                    logger.error ( "volad = " + linkStore.getDoubleColumn( "volad" )[i] );
+                    logger.error ( "capacity = " + linkStore.getDoubleColumn( "capacity" )[i] );
+                    logger.error ( "lanes = " + linkStore.getDoubleColumn( "lanes" )[i] );
+                    logger.error ( "length = " + linkStore.getDoubleColumn( "length" )[i] );
                     //throw new RuntimeException();
                 }
                 else {
@@ -1286,7 +1397,7 @@ public class Network implements Serializable {
             }
 		}
 			
-		linkTable.setColumnAsDouble( linkTable.getColumnPosition("congestedTime"), congestedTime );
+		linkStore.setModified( "congestedTime" );
 
 	}
 		
@@ -1311,7 +1422,7 @@ public class Network implements Serializable {
             }
 		}
 			
-		linkTable.setColumnAsDouble( linkTable.getColumnPosition("vdfIntegral"), results );
+		linkStore.setDoubleColumn( "vdfIntegral", results );
 
 	}
 	
@@ -1735,6 +1846,7 @@ public class Network implements Serializable {
 		
 		// otherwise, this downstream link is part of a penalized turn so return the turn penalty.
 		int k = getLinkIndex ( jn, kn );
+		linkStore.exportTo( linkTable );
 		returnValue = fpLc.solve( k, fpIndex );
 
 		
@@ -1935,10 +2047,10 @@ public class Network implements Serializable {
         String indexString = "Link VDF";
         int[] linkType = getVdfIndex();
 
-        double[] congestedTime = (double[])linkTable.getColumnAsDouble( "congestedTime" );
-        double[] freeFlowSpeed = (double[])linkTable.getColumnAsDouble( "freeFlowSpeed" );
-        double[] distance =      (double[])linkTable.getColumnAsDouble( "dist" );
-        double[] capacity =      (double[])linkTable.getColumnAsDouble( "capacity" );
+        double[] congestedTime = linkStore.getDoubleColumn( "congestedTime" );
+        double[] freeFlowSpeed = linkStore.getDoubleColumn( "freeFlowSpeed" );
+        double[] distance =      linkStore.getDoubleColumn( "dist" );
+        double[] capacity =      linkStore.getDoubleColumn( "capacity" );
         
 
         for (int k=0; k < numLinks; k++) {
@@ -1994,7 +2106,7 @@ public class Network implements Serializable {
 		int[] ia = getIa();
 		int[] ib = getIb();
         
-		double[] congestedTime = (double[])linkTable.getColumnAsDouble( "congestedTime" );
+		double[] congestedTime = linkStore.getDoubleColumn( "congestedTime" );
 		int[] buckets = new int[8];
 
 		for (int i=0; i < congestedTime.length; i++) {
@@ -2042,15 +2154,15 @@ public class Network implements Serializable {
 
 		int[] ia = getIa();
 		int[] ib = getIb();
-		double[] congestedTime = (double[])linkTable.getColumnAsDouble( "congestedTime" );
-		double[] capacity = (double[])linkTable.getColumnAsDouble( "capacity" );
+		double[] congestedTime = linkStore.getDoubleColumn( "congestedTime" );
+		double[] capacity = linkStore.getDoubleColumn( "capacity" );
 
         double[][] flow = new double[userClasses.length][];
         double[][] cost = new double[userClasses.length][];
 		for ( char c : userClasses ) {
             int j = getUserClassIndex(c);
-            flow[j] = (double[])linkTable.getColumnAsDouble( "flow_" + c );
-            cost[j] = (double[])linkTable.getColumnAsDouble( "linkAttribCosts_" + c );
+            flow[j] = linkStore.getDoubleColumn( "flow_" + c );
+            cost[j] = linkStore.getDoubleColumn( "linkAttribCosts_" + c );
 		}
 		
 		
@@ -33,8 +33,14 @@ import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class Skims {
@@ -60,6 +66,10 @@ public class Skims {
 
 	double[] skimTripFreqs = null;
     
+    // number of threads building shortest path trees in hwySkims, and the next origin zone for a thread to skim
+    int numberOfThreads;
+    AtomicInteger nextOrigin = new AtomicInteger();
+
     int numCentroids = 0;
     int maxCentroid = 0;
 
@@ -164,6 +174,13 @@ public class Skims {
         int[] betaNumberArray = null;
         numCentroids = nh.getNumCentroids();
         maxCentroid = nh.getMaxCentroid();
+
+        // optional property to set the number of threads used for highway skimming - default is the number of processors.
+        String threadsString = (String)tsPropertyMap.get( "hwySkims.numberOfThreads" );
+        if ( threadsString == null )
+            numberOfThreads = java.lang.Runtime.getRuntime().availableProcessors();
+        else
+            numberOfThreads = Integer.parseInt( threadsString );
         
         // read the list of alphas and corresponding betas from the alpha2beta.csv file.
 		// take a column of alpha zone numbers from a TableDataSet and puts them into an array for
@@ -370,16 +387,13 @@ public class Skims {
 		boolean[] validLinks = nh.getValidLinksForClassChar( modeChar );
 		
 
-		// get the skims as a double[][] array dimensioned to number of centroids (alphas + externals)
-        double[][][] zeroBasedDoubleArrays = buildHwySkimMatrices( linkCost, linkAttribs, validLinks );
+		// get the skims as float[][] arrays dimensioned to number of alpha zones + externals
+        float[][][] zeroBasedFloatArrays = buildHwySkimMatrices( linkCost, linkAttribs, validLinks );
 
 		for ( int i=0; i < linkAttribs.length; i++ ) {
 
-	        // convert to a float[][] dimensioned to number of alpha zones + externals
-	        float[][] zeroBasedFloatArray = getZeroBasedFloatArray ( zeroBasedDoubleArrays[i] );
-
 	        // define default names for matrices.  They can be set later if necessary
-			newSkimMatrices[i] = new Matrix( matrixName[i], matrixDescription[i], zeroBasedFloatArray );
+			newSkimMatrices[i] = new Matrix( matrixName[i], matrixDescription[i], zeroBasedFloatArrays[i] );
 			newSkimMatrices[i].setExternalNumbers( alphaMatrixExternalNumbers );
 			
 		}
@@ -432,114 +446,154 @@ public class Skims {
 
 
     
-    private float[][] getZeroBasedFloatArray ( double[][] zeroBasedDoubleArray ) {
+    /**
+	 * build network skim arrays, return as float[][][] in alpha+externals row,col order.
+	 * the highway network attributes on which to skim the network to produce multipe skim tables is passed in.
+	 */
+	private float[][][] buildHwySkimMatrices ( double[] linkCost, double[][] linkAttributes, boolean[] validLinks ) {
 
-		// copy the double values to a float array, putting values in row,cols corresponding to the alpha+externals external number order.
-		float[][] zeroBasedFloatArray = new float[numCentroids][numCentroids];
+        float[][][] skimMatrices = new float[linkAttributes.length][numCentroids][numCentroids];
 
         int[] indexNode = nh.getIndexNode();
-        
-        for (int i=0; i < zeroBasedDoubleArray.length; i++) {
-            // convert index to TAZ
-            int exRow = indexNode[i];
-            // convert TAZ to alphaIndex
-            int inRow = tazToAlphaIndex[exRow];
-            for (int j=0; j < zeroBasedDoubleArray[i].length; j++) {
-                // convert index to TAZ
-                int exCol = indexNode[j];
-                // convert TAZ to alphaIndex
-                int inCol = tazToAlphaIndex[exCol];
-                
-                // put value in return array by alpha zone indices for i,j.
-                zeroBasedFloatArray[inRow][inCol] = (float)zeroBasedDoubleArray[i][j];
+
+        // each origin's row is built independently of the others, so the results are the same for any number of threads.
+        int numWorkers = Math.max( 1, Math.min( numberOfThreads, numCentroids ) );
+        HwySkimWorker[] workers = new HwySkimWorker[numWorkers];
+        for (int i=0; i < numWorkers; i++)
+            workers[i] = new HwySkimWorker( linkCost, linkAttributes, validLinks, indexNode, skimMatrices );
+
+        nextOrigin.set( 0 );
+
+        if ( numWorkers == 1 ) {
+            workers[0].call();
+        }
+        else {
+
+            ExecutorService exec = Executors.newFixedThreadPool( numWorkers );
+
+            try {
+
+                ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+                for (int i=0; i < numWorkers; i++)
+                    results.add( exec.submit( workers[i] ) );
+
+                // get() rethrows any exception from a worker
+                for ( Future<Integer> result : results )
+                    result.get();
+
+            }
+            catch ( Exception e ) {
+                logger.error ( "exception caught building highway skim matrices.", e );
+                System.exit(-1);
+            }
+            finally {
+                exec.shutdown();
             }
+
         }
-        
-   	    return zeroBasedFloatArray;
 
-    }
+		return skimMatrices;
+       
+	}
 
 
-    /**
-	 * build network skim arrays, return as double[][][].
-	 * the highway network attributes on which to skim the network to produce multipe skim tables is passed in.
+	/**
+	 * set the intrazonal value in a zero-based origin row of skim values to 0.5*nearest neighbor
 	 */
-	private double[][][] buildHwySkimMatrices ( double[] linkCost, double[][] linkAttributes, boolean[] validLinks ) {
-		
-		
-		double[][][] skimMatrices =  hwySkims ( linkCost, linkAttributes, validLinks );
-		int minI = 0;
+	private void setIntrazonal ( float[] skimRow, int i ) {
+
         int minJ = 0;
-		// set intrazonal values to 0.5*nearest neighbor
-		for (int k=0; k < skimMatrices.length; k++) {
-			
-			for (int i=0; i < skimMatrices[k].length; i++) {
-			
-				// find minimum valued row element
-				double minValue = Double.MAX_VALUE;
-				for (int j=0; j < skimMatrices[k].length; j++) {
-					if ( i != j && skimMatrices[k][i][j] != Double.NEGATIVE_INFINITY && skimMatrices[k][i][j] < minValue ){
-						minValue = skimMatrices[k][i][j];
-	                    minI = i;
-	                    minJ = j;
-	                }
-				}
-	
-				// set intrazonal value
-	            if(minValue < 0) {
-	                logger.fatal("Hwy skim min value is " + minValue + "@ rowIndex " + minI + ", colIndex " + minJ);
-	                logger.fatal("System will exit, no hwy skims have been written");
-	                System.exit(10);
-	            }
-	
-				if ( minValue < Double.MAX_VALUE )
-					skimMatrices[k][i][i] = 0.5*minValue;
-				else
-					skimMatrices[k][i][i] = Double.NEGATIVE_INFINITY;
 
-			}
-		}
-		
-		return skimMatrices;
-       
+        // find minimum valued row element
+        float minValue = Float.MAX_VALUE;
+        for (int j=0; j < skimRow.length; j++) {
+            if ( i != j && skimRow[j] != Float.NEGATIVE_INFINITY && skimRow[j] < minValue ){
+                minValue = skimRow[j];
+                minJ = j;
+            }
+        }
+
+        // set intrazonal value
+        if(minValue < 0) {
+            logger.fatal("Hwy skim min value is " + minValue + "@ rowIndex " + i + ", colIndex " + minJ);
+            logger.fatal("System will exit, no hwy skims have been written");
+            System.exit(10);
+        }
+
+        if ( minValue < Float.MAX_VALUE )
+            skimRow[i] = 0.5f*minValue;
+        else
+            skimRow[i] = Float.NEGATIVE_INFINITY;
+
 	}
 
 
 	/**
-	 * highway network skimming procedure for generating multiple skim tables
+	 * highway network skimming procedure for generating multiple skim tables.
+	 * each worker has its own ShortestPathTreeH and takes the next unskimmed origin zone until all are done,
+	 * accumulating the skim values for the origin in tree order and writing them straight into its rows of the float skim arrays.
 	 */
-	private double[][][] hwySkims ( double[] linkCost, double[][] linkAttributes, boolean[] validLinks ) {
+	class HwySkimWorker implements Callable<Integer> {
 
-	    int i;
-	    
-        double[][] tempMatrices;
-        double[][][] skimMatrices = new double[linkAttributes.length][numCentroids][];
+        ShortestPathTreeH sp;
+        double[][] linkAttributes;
+        int[] indexNode;
+        float[][][] skimMatrices;
+        float[][] skimRows;
 
-		
-		// create a ShortestPathTreeH object
-		ShortestPathTreeH sp = new ShortestPathTreeH( nh );
 
+        // the tree is created on the calling thread, since it gets its network arrays from the NetworkHandler.
+        HwySkimWorker ( double[] linkCost, double[][] linkAttributes, boolean[] validLinks, int[] indexNode, float[][][] skimMatrices ) {
 
-		// build shortest path trees based on linkcost and summarize time, dist, and toll skims for each origin zone.		sp.setLinkCost( linkCost );
-		sp.setValidLinks( validLinks );
-        sp.setLinkCost( linkCost );
-		
-		
-		// loop through the origin zones
-		for (i=0; i < numCentroids; i++) {
-			
-			// build the shortest path tree
-			sp.buildTree( i );
-			
-			// skim the shortest path tree for all the link attributes required
-            tempMatrices = sp.getSkims( linkAttributes );
-            for (int k=0; k < linkAttributes.length; k++)
-                skimMatrices[k][i] = tempMatrices[k];
-			
-		}
+            this.linkAttributes = linkAttributes;
+            this.indexNode = indexNode;
+            this.skimMatrices = skimMatrices;
+            skimRows = new float[linkAttributes.length][numCentroids];
+
+            sp = new ShortestPathTreeH( nh );
+            sp.setValidLinks( validLinks );
+            sp.setLinkCost( linkCost );
+
+        }
+
+
+        public Integer call () {
+
+            int count = 0;
+            int i;
+            while ( (i = nextOrigin.getAndIncrement()) < numCentroids ) {
+                skimOrigin( i );
+                count++;
+            }
+
+            return count;
+        }
+
+
+        private void skimOrigin ( int i ) {
+
+            // build the shortest path tree
+            sp.buildTree( i );
+
+            // skim the shortest path tree for all the link attributes required
+            sp.getTreeSkims( linkAttributes, skimRows );
+
+            // convert index to TAZ, then TAZ to alphaIndex
+            int inRow = tazToAlphaIndex[indexNode[i]];
+
+            for (int k=0; k < skimRows.length; k++) {
+
+                setIntrazonal( skimRows[k], i );
+
+                // put values in the float array by alpha zone indices for i,j.
+                float[] alphaRow = skimMatrices[k][inRow];
+                for (int j=0; j < skimRows[k].length; j++)
+                    alphaRow[tazToAlphaIndex[indexNode[j]]] = skimRows[k][j];
+
+            }
+
+        }
 
-		return skimMatrices;
-        
 	}
 
 
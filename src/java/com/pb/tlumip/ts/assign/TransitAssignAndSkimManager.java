@@ -28,6 +28,7 @@ import com.pb.models.pt.ldt.LDTripModeType;
 import com.pb.tlumip.ts.DemandHandler;
 import com.pb.tlumip.ts.DemandHandlerIF;
 import com.pb.tlumip.ts.NetworkHandlerIF;
+import com.pb.tlumip.ts.transit.AuxTrNetSnapshot;
 import com.pb.tlumip.ts.transit.OptimalStrategy;
 import com.pb.common.datafile.OLD_CSVFileReader;
 import com.pb.common.datafile.TableDataSet;
@@ -50,6 +51,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -94,6 +96,10 @@ public class TransitAssignAndSkimManager {
     String transitRoutesDirectory = null;
     int maxRoutes = 0;
 
+    // number of threads building and loading optimal strategies for destinations within each AssignSkimTask.
+    // up to getNumberOfTaskThreads() AssignSkimTasks run at once, each with its own destination threads.
+    int numberOfDestThreads;
+
     String assignmentPeriod;
     
     HashMap<Integer,String> fareZones = null;
@@ -124,6 +130,16 @@ public class TransitAssignAndSkimManager {
         
         maxRoutes = Integer.parseInt ( appRb.getString( "MAX_TRANSIT_ROUTES" ) );
 
+        // optional property to set the number of threads used for the destinations of a transit assignment.  Since the
+        // AssignSkimTasks also run in parallel, the total number of threads is this number times getNumberOfTaskThreads(),
+        // so the default divides the processors among the tasks that run at once.
+        try {
+            numberOfDestThreads = Integer.parseInt( appRb.getString( "transitAssignment.numberOfThreads" ) );
+        }
+        catch ( MissingResourceException e ) {
+            numberOfDestThreads = Math.max( 1, java.lang.Runtime.getRuntime().availableProcessors() / getNumberOfTaskThreads() );
+        }
+
         skimFileExtension = globalRb.getString( "matrix.extension" );
         skimFileDirectory = appRb.getString( "transitSkims.directory" );
 
@@ -187,6 +203,12 @@ public class TransitAssignAndSkimManager {
     }
 
     
+    // number of AssignSkimTasks run at once by assignAndSkimTransit().
+    private int getNumberOfTaskThreads () {
+        return Math.min( java.lang.Runtime.getRuntime().availableProcessors(), MAX_NUMBER_OF_THREADS );
+    }
+
+    
     public void assignAndSkimTransit ( NetworkHandlerIF nh, String period ) {
         assignAndSkimTransit ( nh, period, false , false);
     }
@@ -197,11 +219,7 @@ public class TransitAssignAndSkimManager {
         SKIM_ONLY = skimOnlyFlag;
         
         
-        int numberOfThreads = java.lang.Runtime.getRuntime().availableProcessors();
-        if ( numberOfThreads > MAX_NUMBER_OF_THREADS )
-            numberOfThreads = MAX_NUMBER_OF_THREADS;
-        
-        ExecutorService exec = Executors.newFixedThreadPool(numberOfThreads);
+        ExecutorService exec = Executors.newFixedThreadPool( getNumberOfTaskThreads() );
         ArrayList<Future<String>> results = new ArrayList<Future<String>>();
 
 
@@ -1067,7 +1085,6 @@ public class TransitAssignAndSkimManager {
     private Matrix[] runTransitAssignment ( String identifier, NetworkHandlerIF nh, String timePeriod, String accessMode, String routeType, String tripMode , String demandMatricesPath) {
         
         double[][] tripTable = null;
-        double[] tripTableColumn = null;
         
         int numCentroids = nh.getNumCentroids();
         
@@ -1075,112 +1092,77 @@ public class TransitAssignAndSkimManager {
         if ( ! SKIM_ONLY ) {
             tripTable = dh.getTripTableForMode ( tripMode );
 
-            tripTableColumn = new double[tripTable[0].length];
-
             if (demandMatricesPath != null)
                 writeDemandMatrices(demandMatricesPath,identifier,timePeriod,tripTable);
         }
         
         
+        // arrays for skim values into 0-based float[][] dimensioned to number of actual zones including externals (2983),
+        // with rows and columns in the alpha+externals order of the skims files.
+        float[][][] zeroBasedFloatArrays = new float[OptimalStrategy.NUM_SKIMS][numCentroids][numCentroids];
                 
-        // load the triptable on walk access transit network
-        // create an optimal strategy object for this highway and transit network
-        OptimalStrategy os = new OptimalStrategy( nh, identifier );
-        os.setTransitFareTables ( intracityFareTable, fareZones ); 
-
-        // arrays for skim values into 0-based double[][] dimensioned to number of actual zones including externals (2983)
-        double[][][] zeroBasedDoubleArray = new double[OptimalStrategy.NUM_SKIMS][numCentroids][numCentroids];
-                
-        double intrazonal = 0;
-        double totalTrips = 0;
-        double notLoadedTrips = 0;
         
-        int[] nodeIndex = nh.getNodeIndex();
-        int[] indexNode = nh.getIndexNode();
+        // load the triptable on walk access transit network.
+        // each destination's strategy is built, loaded and skimmed independently of the others, so the destinations are
+        // divided among workers, each with its own optimal strategy object for this highway and transit network.
+        // the transit network arrays are fetched once and shared by the workers' strategy objects.
+        AuxTrNetSnapshot auxTrNet = nh.getAuxTrNetSnapshot( identifier );
+        int numWorkers = Math.max( 1, Math.min( numberOfDestThreads, numCentroids ) );
+        AtomicInteger nextDest = new AtomicInteger( 0 );
+        TransitDestWorker[] workers = new TransitDestWorker[numWorkers];
+        for (int i=0; i < numWorkers; i++)
+            workers[i] = new TransitDestWorker( identifier, nh, auxTrNet, accessMode, routeType, tripTable, zeroBasedFloatArrays, nextDest );
 
-        double[] routeBoardings = new double[maxRoutes];
+        if ( numWorkers == 1 ) {
+            workers[0].call();
+        }
+        else {
 
-        for ( int dest=0; dest < numCentroids; dest++ ) {
+            ExecutorService exec = Executors.newFixedThreadPool( numWorkers );
 
-            
-            if ( TEST_DEST >= 0 && dest != nodeIndex[TEST_DEST] )
-                continue;
+            try {
 
-            
-            if ( dest % 100 == 0 ) {
-                if ( SKIM_ONLY )
-                    logger.info( String.format( "building %s %s %s optimal strategy for destination index %d for writing skim tables.", assignmentPeriod, accessMode, routeType, dest) );
-                else
-                    logger.info( String.format( "building %s %s %s optimal strategy for destination index %d for loading network and writing skim tables.", assignmentPeriod, accessMode, routeType, dest) );
-            }
-            
-            
-            // prepare trip array to assign if SKIM_ONLY == false
-            double tripSum = 0.0;
-            if ( ! SKIM_ONLY ) {
-            
-                for (int orig=0; orig < tripTable.length; orig++) {
-    
-                    // don't assign intra-zonal trips on network, but keep track of the total.
-                    if ( orig == dest ) {
-                        intrazonal += tripTable[orig][dest];
-                        tripTableColumn[orig] = 0.0; 
-                        continue;
-                    }
-                    else {
-                        tripTableColumn[orig] = tripTable[orig][dest]; 
-                        tripSum += tripTable[orig][dest];
-                    }
-                    
-                }
-                
-            }
-            
-            
-            // build optimal strategy for this network
-            os.buildStrategy( dest, accessMode );
+                ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+                for (int i=0; i < numWorkers; i++)
+                    results.add( exec.submit( workers[i] ) );
 
-            
-            // load trips onto strategy unless SKIM_ONLY == true
-            if ( ! SKIM_ONLY ) {
+                // get() rethrows any exception from a worker
+                for ( Future<Integer> result : results )
+                    result.get();
 
-                double destBoardings = 0.0;
-                if ( tripSum > 0 ) {
-    
-                    double[] routeBoardingsToDest = os.loadOptimalStrategyDest( tripTableColumn, maxRoutes );
-                    
-                    for (int r=0; r < routeBoardings.length; r++) {
-                        routeBoardings[r] += routeBoardingsToDest[r];
-                        destBoardings += routeBoardingsToDest[r];
-                    }
-                    
-                    totalTrips += tripSum;
-                    notLoadedTrips += os.getTripsNotLoaded();
-                    
-                }
-            
             }
-            else if ( TEST_ORIG >= 0 && TEST_DEST >= 0 && dest == nodeIndex[TEST_DEST] ) {
-                
-                os.getOptimalStrategyLinks ( nodeIndex[TEST_ORIG] );
-                os.testLoadOptimalStrategyDest();
-                //return null;
-                
+            catch ( InterruptedException e ) {
+                logger.error ( String.format( "exception caught building %s %s %s optimal strategies.", assignmentPeriod, accessMode, routeType ), e );
+                throw new RuntimeException( e );
             }
-            
-            // calculate skim matrices for strategy
-            double[][] odSkimValues = os.getOptimalStrategySkimsDest();
-            
-            
-            // save skim table values
-            for (int k=0; k < OptimalStrategy.NUM_SKIMS; k++) {
-                for (int orig=0; orig < numCentroids; orig++) { 
-                    zeroBasedDoubleArray[k][orig][dest] = odSkimValues[k][orig];
-                }
+            catch ( ExecutionException e ) {
+                logger.error ( String.format( "exception caught building %s %s %s optimal strategies.", assignmentPeriod, accessMode, routeType ), e );
+                throw new RuntimeException( e );
             }
+            finally {
+                exec.shutdown();
+            }
+
+        }
+
 
+        // reduce the workers' boardings and trip totals
+        double[] routeBoardings = new double[maxRoutes];
+        double intrazonal = 0;
+        double totalTrips = 0;
+        double notLoadedTrips = 0;
+        
+        for (int i=0; i < numWorkers; i++) {
+            for (int r=0; r < routeBoardings.length; r++)
+                routeBoardings[r] += workers[i].routeBoardings[r];
+            intrazonal += workers[i].intrazonal;
+            totalTrips += workers[i].totalTrips;
+            notLoadedTrips += workers[i].notLoadedTrips;
         }
 
+        if ( ! SKIM_ONLY )
+            logger.info( String.format( "%s %s %s optimal strategies built by %d threads loaded %.2f trips, %.2f of which could not be loaded; %.2f intrazonal trips were not assigned.", assignmentPeriod, accessMode, routeType, numWorkers, totalTrips, notLoadedTrips, intrazonal ) );
+
 
         // save loaded trips for summarizing unless SKIM_ONLY == true
         if ( ! SKIM_ONLY ) {
@@ -1189,13 +1171,6 @@ public class TransitAssignAndSkimManager {
         
         
         // save skim Matrix objects        
-        float[][][] zeroBasedFloatArrays = new float[OptimalStrategy.NUM_SKIMS][][];
-
-        for (int k=0; k < OptimalStrategy.NUM_SKIMS; k++) {
-            zeroBasedFloatArrays[k] = getZeroBasedFloatArray ( nh.getIndexNode(), zeroBasedDoubleArray[k], numCentroids );
-            zeroBasedDoubleArray[k] = null;
-        }
-        
         Matrix[] skimMatrices = new Matrix[OptimalStrategy.NUM_SKIMS];
         
 
@@ -1443,34 +1418,29 @@ public class TransitAssignAndSkimManager {
         
 
     
-    private float[][] getZeroBasedFloatArray ( int[] skimsInternalToExternal, double[][] zeroBasedDoubleArray, int numCentroids ) {
+    private void saveSkimColumn ( int[] skimsInternalToExternal, double[][] odSkimValues, int dest, float[][][] zeroBasedFloatArrays ) {
 
-        // convert the zero-based double[alphas+externals][alphas+externals] produced by the skimming procedure, with network centroid/zone index mapping
-        // to a zero-based float[alphas+externals][alphas+externals] with indexZone mapping to be written to skims file.
-        float[][] zeroBasedFloatArray = new float[numCentroids][numCentroids];
-        
+        // store the skim values to dest produced by the skimming procedure, with network centroid/zone index mapping,
+        // in the column of the zero-based float[alphas+externals][alphas+externals] with indexZone mapping to be written to skims file.
         int exRow;
         int exCol;
         int inRow;
         int inCol;
-        for (int i=0; i < zeroBasedDoubleArray.length; i++) {
+
+        exCol = skimsInternalToExternal[dest];
+        if ( zonesToSkim[exCol] != 1 )
+            return;
+
+        inCol = externalToAlphaInternal[exCol];
+        for (int i=0; i < odSkimValues[0].length; i++) {
             exRow = skimsInternalToExternal[i];
             if ( zonesToSkim[exRow] == 1 ) {
                 inRow = externalToAlphaInternal[exRow];
-                for (int j=0; j < zeroBasedDoubleArray[i].length; j++) {
-                    exCol = skimsInternalToExternal[j];
-                    if ( zonesToSkim[exCol] == 1 ) {
-                        inCol = externalToAlphaInternal[exCol];
-                        zeroBasedFloatArray[inRow][inCol] = (float)zeroBasedDoubleArray[i][j];
-                    }
-                }
+                for (int k=0; k < odSkimValues.length; k++)
+                    zeroBasedFloatArrays[k][inRow][inCol] = (float)odSkimValues[k][i];
             }
         }
 
-        zeroBasedDoubleArray = null;
-
-        return zeroBasedFloatArray;
-
     }
 
 
@@ -1833,6 +1803,137 @@ public class TransitAssignAndSkimManager {
     }
 
     
+    /**
+     * builds, loads and skims the optimal strategies for destinations of one transit assignment.
+     * each worker has its own OptimalStrategy, built on the calling thread, and takes the next destination from a
+     * shared AtomicInteger until all are done.  Skim values are written straight into the destination's column of
+     * the float skim arrays; route boardings and trip totals are accumulated by the worker and summed once all are done.
+     */
+    class TransitDestWorker implements Callable<Integer> {
+
+        OptimalStrategy os;
+        
+        NetworkHandlerIF nh;
+        String accessMode;
+        String routeType;
+        double[][] tripTable;
+        float[][][] zeroBasedFloatArrays;
+        AtomicInteger nextDest;
+
+        double[] routeBoardings;
+        double intrazonal = 0;
+        double totalTrips = 0;
+        double notLoadedTrips = 0;
+
+        
+        TransitDestWorker ( String identifier, NetworkHandlerIF nh, AuxTrNetSnapshot auxTrNet, String accessMode, String routeType, double[][] tripTable, float[][][] zeroBasedFloatArrays, AtomicInteger nextDest ) {
+            this.nh = nh;
+            this.accessMode = accessMode;
+            this.routeType = routeType;
+            this.tripTable = tripTable;
+            this.zeroBasedFloatArrays = zeroBasedFloatArrays;
+            this.nextDest = nextDest;
+            
+            os = new OptimalStrategy( nh, identifier, null, auxTrNet );
+            os.setTransitFareTables ( intracityFareTable, fareZones ); 
+
+            routeBoardings = new double[maxRoutes];
+        }
+        
+        
+        public Integer call() {
+
+            int numCentroids = nh.getNumCentroids();
+            int[] nodeIndex = nh.getNodeIndex();
+            int[] indexNode = nh.getIndexNode();
+
+            double[] tripTableColumn = null;
+            if ( ! SKIM_ONLY )
+                tripTableColumn = new double[tripTable[0].length];
+            
+            int destsDone = 0;
+            int dest;
+            while ( (dest = nextDest.getAndIncrement()) < numCentroids ) {
+    
+                
+                if ( TEST_DEST >= 0 && dest != nodeIndex[TEST_DEST] )
+                    continue;
+    
+                
+                if ( dest % 100 == 0 ) {
+                    if ( SKIM_ONLY )
+                        logger.info( String.format( "building %s %s %s optimal strategy for destination index %d for writing skim tables.", assignmentPeriod, accessMode, routeType, dest) );
+                    else
+                        logger.info( String.format( "building %s %s %s optimal strategy for destination index %d for loading network and writing skim tables.", assignmentPeriod, accessMode, routeType, dest) );
+                }
+                
+                
+                // prepare trip array to assign if SKIM_ONLY == false
+                double tripSum = 0.0;
+                if ( ! SKIM_ONLY ) {
+                
+                    for (int orig=0; orig < tripTable.length; orig++) {
+        
+                        // don't assign intra-zonal trips on network, but keep track of the total.
+                        if ( orig == dest ) {
+                            intrazonal += tripTable[orig][dest];
+                            tripTableColumn[orig] = 0.0; 
+                            continue;
+                        }
+                        else {
+                            tripTableColumn[orig] = tripTable[orig][dest]; 
+                            tripSum += tripTable[orig][dest];
+                        }
+                        
+                    }
+                    
+                }
+                
+                
+                // build optimal strategy for this network
+                os.buildStrategy( dest, accessMode );
+    
+                
+                // load trips onto strategy unless SKIM_ONLY == true
+                if ( ! SKIM_ONLY ) {
+    
+                    if ( tripSum > 0 ) {
+        
+                        double[] routeBoardingsToDest = os.loadOptimalStrategyDest( tripTableColumn, maxRoutes );
+                        
+                        for (int r=0; r < routeBoardings.length; r++)
+                            routeBoardings[r] += routeBoardingsToDest[r];
+                        
+                        totalTrips += tripSum;
+                        notLoadedTrips += os.getTripsNotLoaded();
+                        
+                    }
+                
+                }
+                else if ( TEST_ORIG >= 0 && TEST_DEST >= 0 && dest == nodeIndex[TEST_DEST] ) {
+                    
+                    os.getOptimalStrategyLinks ( nodeIndex[TEST_ORIG] );
+                    os.testLoadOptimalStrategyDest();
+                    
+                }
+                
+                // calculate skim matrices for strategy
+                double[][] odSkimValues = os.getOptimalStrategySkimsDest();
+                
+                
+                // save skim table values - each destination is a different column of the skim arrays
+                saveSkimColumn ( indexNode, odSkimValues, dest, zeroBasedFloatArrays );
+    
+                destsDone++;
+            }
+
+            return destsDone;
+            
+        }
+        
+    }
+    
+    
     public class AssignSkimTask implements Callable<String> {
         
         private Logger logger = Logger.getLogger(AssignSkimTask.class);
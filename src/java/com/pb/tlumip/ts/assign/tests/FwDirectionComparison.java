@@ -0,0 +1,138 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts.assign.tests;
+
+/**
+ * Runs the FW assignment for a period with FW, CFW and BFW search directions, starting each from
+ * free flow times, and reports the relative gap reached by each at every iteration.
+ *
+ * usage: FwDirectionComparison tsPropertiesFile globalPropertiesFile [period]
+ */
+
+
+import com.pb.common.util.ResourceUtil;
+import com.pb.tlumip.ts.FW;
+import com.pb.tlumip.ts.NetworkHandler;
+import com.pb.tlumip.ts.NetworkHandlerIF;
+import com.pb.tlumip.ts.TS;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.ResourceBundle;
+
+
+public class FwDirectionComparison {
+
+	protected static Logger logger = Logger.getLogger("com.pb.tlumip.ts.assign.tests");
+
+    static final String[] DIRECTION_TYPES = { FW.FW_DIRECTION, FW.CFW_DIRECTION, FW.BFW_DIRECTION };
+
+    ResourceBundle rb;
+    ResourceBundle globalRb;
+
+
+	public FwDirectionComparison( String tsPropertiesFile, String globalPropertiesFile ) {
+
+        rb = ResourceUtil.getPropertyBundle( new File(tsPropertiesFile) );
+        globalRb = ResourceUtil.getPropertyBundle( new File(globalPropertiesFile) );
+
+	}
+
+
+	private void runComparison ( String period ) {
+
+        HashMap<String,String> appMap = ResourceUtil.changeResourceBundleIntoHashMap(rb);
+        HashMap<String,String> globalMap = ResourceUtil.changeResourceBundleIntoHashMap(globalRb);
+
+        NetworkHandlerIF nh = NetworkHandler.getInstance();
+        TS ts = new TS( rb, globalRb );
+        ts.setupHighwayNetwork( nh, appMap, globalMap, period );
+		logger.info ("done building Network object.");
+
+        double[][] relGaps = new double[DIRECTION_TYPES.length][];
+        double[] seconds = new double[DIRECTION_TYPES.length];
+
+        for (int d=0; d < DIRECTION_TYPES.length; d++) {
+
+            // start each assignment from free flow times
+            nh.setVolau( new double[nh.getLinkCount()] );
+            nh.applyVdfs();
+
+            long startTime = System.currentTimeMillis();
+
+            FW fw = new FW();
+            fw.initialize( rb, globalRb, nh, nh.getHighwayModeCharacters() );
+            fw.setDirectionType( DIRECTION_TYPES[d] );
+            fw.iterate();
+
+            seconds[d] = (System.currentTimeMillis() - startTime) / 1000.0;
+            relGaps[d] = fw.getRelativeGaps();
+
+        }
+
+
+        int maxIters = 0;
+        for (int d=0; d < DIRECTION_TYPES.length; d++)
+            maxIters = Math.max( maxIters, relGaps[d].length );
+
+        logger.info ("");
+        logger.info ( "relative gap by iteration for " + period + " period:" );
+        String header = String.format( "%5s", "iter" );
+        for (int d=0; d < DIRECTION_TYPES.length; d++)
+            header += String.format( " %12s", DIRECTION_TYPES[d] );
+        logger.info ( header );
+
+        for (int i=0; i < maxIters; i++) {
+            String record = String.format( "%5d", i );
+            for (int d=0; d < DIRECTION_TYPES.length; d++) {
+                if ( i < relGaps[d].length )
+                    record += String.format( " %11.4f%%", 100.0*relGaps[d][i] );
+                else
+                    record += String.format( " %12s", "" );
+            }
+            logger.info ( record );
+        }
+
+        String record = String.format( "%5s", "secs" );
+        for (int d=0; d < DIRECTION_TYPES.length; d++)
+            record += String.format( " %12.1f", seconds[d] );
+        logger.info ( record );
+        logger.info ("");
+
+	}
+
+
+	public static void main (String[] args) {
+
+        if ( args.length < 2 ) {
+            logger.error ( "usage: FwDirectionComparison tsPropertiesFile globalPropertiesFile [period]" );
+            System.exit(-1);
+        }
+
+        String period = ( args.length > 2 ? args[2] : "ampeak" );
+
+		long startTime = System.currentTimeMillis();
+
+		FwDirectionComparison test = new FwDirectionComparison( args[0], args[1] );
+		test.runComparison( period );
+
+		logger.info("FwDirectionComparison() finished in " +
+			((System.currentTimeMillis() - startTime) / 60000.0) + " minutes");
+	}
+
+}
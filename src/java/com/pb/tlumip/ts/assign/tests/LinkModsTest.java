@@ -0,0 +1,142 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts.assign.tests;
+
+/**
+ * Builds the highway network for a period with the link mods file named by d211Mods.fileName, and checks
+ * that every link in the mods file was given vdf 3.
+ *
+ * usage: LinkModsTest tsPropertiesFile globalPropertiesFile [period]
+ */
+
+
+import com.pb.common.datafile.D211FileReader;
+import com.pb.common.datafile.TableDataSet;
+import com.pb.common.util.ResourceUtil;
+import com.pb.tlumip.ts.NetworkHandler;
+import com.pb.tlumip.ts.NetworkHandlerIF;
+import com.pb.tlumip.ts.TS;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.ResourceBundle;
+
+
+public class LinkModsTest {
+
+	protected static Logger logger = Logger.getLogger("com.pb.tlumip.ts.assign.tests");
+
+    ResourceBundle rb;
+    ResourceBundle globalRb;
+
+
+	public LinkModsTest( String tsPropertiesFile, String globalPropertiesFile ) {
+
+        rb = ResourceUtil.getPropertyBundle( new File(tsPropertiesFile) );
+        globalRb = ResourceUtil.getPropertyBundle( new File(globalPropertiesFile) );
+
+	}
+
+
+	private void runTest ( String period ) {
+
+        HashMap<String,String> appMap = ResourceUtil.changeResourceBundleIntoHashMap(rb);
+        HashMap<String,String> globalMap = ResourceUtil.changeResourceBundleIntoHashMap(globalRb);
+
+        String modsFileName = appMap.get( "d211Mods.fileName" );
+        if ( modsFileName == null ) {
+            logger.error ( "d211Mods.fileName is not defined in the ts properties file, so there are no link mods to check." );
+            throw new RuntimeException();
+        }
+
+        NetworkHandlerIF nh = NetworkHandler.getInstance();
+        TS ts = new TS( rb, globalRb );
+        ts.setupHighwayNetwork( nh, appMap, globalMap, period );
+		logger.info ("done building Network object.");
+
+
+        TableDataSet linkModsTable = null;
+        try {
+            D211FileReader d211 = new D211FileReader();
+            linkModsTable = d211.readLinkTableMods( new File(modsFileName) );
+        }
+        catch (IOException e) {
+            logger.error ( "IOException reading link mods file: " + modsFileName, e );
+            throw new RuntimeException(e);
+        }
+
+        int[] indexNode = nh.getIndexNode();
+        int[] ia = nh.getIa();
+        int[] ib = nh.getIb();
+        int[] vdfIndex = nh.getVdfIndex();
+
+        int numErrors = 0;
+        for (int i=0; i < linkModsTable.getRowCount(); i++) {
+
+            int an = (int)linkModsTable.getValueAt( i+1, "anode" );
+            int bn = (int)linkModsTable.getValueAt( i+1, "bnode" );
+
+            int link = -1;
+            for (int k=0; k < ia.length; k++) {
+                if ( indexNode[ia[k]] == an && indexNode[ib[k]] == bn ) {
+                    link = k;
+                    break;
+                }
+            }
+
+            if ( link < 0 ) {
+                logger.error ( String.format("link mod %d-%d is not a link in the %s network.", an, bn, period) );
+                numErrors++;
+            }
+            else if ( vdfIndex[link] != 3 ) {
+                logger.error ( String.format("link mod %d-%d was not applied: vdf=%d.", an, bn, vdfIndex[link]) );
+                numErrors++;
+            }
+
+        }
+
+        if ( numErrors > 0 ) {
+            logger.error ( numErrors + " of " + linkModsTable.getRowCount() + " link mods were not applied." );
+            throw new RuntimeException();
+        }
+
+        logger.info ( "all " + linkModsTable.getRowCount() + " link mods were applied." );
+
+	}
+
+
+	public static void main (String[] args) {
+
+        if ( args.length < 2 ) {
+            logger.error ( "usage: LinkModsTest tsPropertiesFile globalPropertiesFile [period]" );
+            System.exit(-1);
+        }
+
+        String period = ( args.length > 2 ? args[2] : "ampeak" );
+
+		long startTime = System.currentTimeMillis();
+
+		LinkModsTest test = new LinkModsTest( args[0], args[1] );
+		test.runTest( period );
+
+		logger.info("LinkModsTest() finished in " +
+			((System.currentTimeMillis() - startTime) / 60000.0) + " minutes");
+	}
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts.assign.tests;
+
+/**
+ * Compares the cost of moving the bulk arrays returned by the TS handlers over rpc:
+ * object serialization of the arrays themselves (the rpc transport before ArrayTransport),
+ * object serialization of boxed Vectors (as built by Util for xml-rpc clients), and the
+ * ArrayTransport binary encoding, uncompressed and compressed.  Each case is written to
+ * bytes and read back the way the rpc transport does, and the best time over the repetitions
+ * is reported with the number of bytes sent.
+ *
+ * The arrays are multiclass trip tables with the given fraction of non-zero cells, multiclass
+ * link flows and saved shortest path trees for up to MAX_PATH_TREES origins.  Boxed Vectors
+ * are skipped for arrays with more than MAX_BOXED_VALUES elements.
+ *
+ * usage: RpcArrayTransportBenchmark [numZones] [numLinks] [numUserClasses] [tripDensity] [repetitions]
+ */
+
+
+import com.pb.tlumip.ts.ArrayTransport;
+import com.pb.tlumip.ts.Util;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.Vector;
+
+
+public class RpcArrayTransportBenchmark {
+
+	protected static Logger logger = Logger.getLogger("com.pb.tlumip.ts.assign.tests");
+
+    static final int MAX_BOXED_VALUES = 5000000;
+    static final int MAX_PATH_TREES = 500;
+
+    static final String[] CASE_NAMES = { "serialized arrays", "boxed Vectors", "ArrayTransport", "ArrayTransport deflated" };
+
+    int repetitions;
+
+
+	public RpcArrayTransportBenchmark( int repetitions ) {
+        this.repetitions = repetitions;
+	}
+
+
+	private void runBenchmark ( int numZones, int numLinks, int numUserClasses, double tripDensity ) throws Exception {
+
+        Random random = new Random( 12345 );
+
+        double[][][] tripTables = new double[numUserClasses][numZones][numZones];
+        for (int m=0; m < numUserClasses; m++)
+            for (int i=0; i < numZones; i++)
+                for (int j=0; j < numZones; j++)
+                    if ( random.nextDouble() < tripDensity )
+                        tripTables[m][i][j] = random.nextInt(50) / 4.0;
+
+        double[][] linkFlows = new double[numUserClasses][numLinks];
+        for (int m=0; m < numUserClasses; m++)
+            for (int k=0; k < numLinks; k++)
+                linkFlows[m][k] = 1000.0*random.nextDouble();
+
+        int numNodes = numLinks/3;
+        int numTrees = Math.min( numZones, MAX_PATH_TREES );
+        int[][][] pathTrees = new int[numUserClasses][numTrees][];
+        for (int m=0; m < numUserClasses; m++)
+            for (int i=0; i < numTrees; i++) {
+                pathTrees[m][i] = new int[numNodes];
+                for (int n=0; n < numNodes; n++)
+                    pathTrees[m][i][n] = random.nextInt(numLinks);
+            }
+
+
+        logger.info ("");
+        logger.info ( String.format("%d zones, %d links, %d user classes, %.1f%% of trip table cells non-zero, best of %d repetitions.", numZones, numLinks, numUserClasses, 100.0*tripDensity, repetitions) );
+        logger.info ( String.format("%-28s %-24s %14s %10s %10s", "array", "transport", "bytes", "write ms", "read ms") );
+
+        logger.info ( "" );
+        runCases ( "trip tables double[][][]", tripTables, (long)numUserClasses*numZones*numZones );
+        logger.info ( "" );
+        runCases ( "link flows double[][]", linkFlows, (long)numUserClasses*numLinks );
+        logger.info ( "" );
+        runCases ( "path trees int[][][]", pathTrees, (long)numUserClasses*numTrees*numNodes );
+        logger.info ( "" );
+
+	}
+
+
+    private void runCases ( String arrayName, Object array, long numValues ) throws Exception {
+
+        for (int c=0; c < CASE_NAMES.length; c++) {
+
+            if ( c == 1 && numValues > MAX_BOXED_VALUES ) {
+                logger.info ( String.format("%-28s %-24s %14s", arrayName, CASE_NAMES[c], "skipped") );
+                continue;
+            }
+
+            long bestWrite = Long.MAX_VALUE;
+            long bestRead = Long.MAX_VALUE;
+            int numBytes = 0;
+
+            for (int r=0; r < repetitions; r++) {
+
+                long startTime = System.nanoTime();
+                byte[] bytes = serialize ( toTransportObject( array, c ) );
+                long writeTime = System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                Object result = fromTransportObject( deserialize( bytes ), array, c );
+                long readTime = System.nanoTime() - startTime;
+
+                if ( r == 0 )
+                    checkResult ( arrayName, array, result );
+
+                bestWrite = Math.min( bestWrite, writeTime );
+                bestRead = Math.min( bestRead, readTime );
+                numBytes = bytes.length;
+
+            }
+
+            logger.info ( String.format("%-28s %-24s %,14d %10.1f %10.1f", arrayName, CASE_NAMES[c], numBytes, bestWrite/1000000.0, bestRead/1000000.0) );
+
+        }
+
+    }
+
+
+    // the object handed to the rpc transport by the handler for each case
+    private Object toTransportObject ( Object array, int transportCase ) {
+
+        switch ( transportCase ) {
+            case 0:
+                return array;
+            case 1:
+                if ( array instanceof double[][][] )
+                    return Util.double3Vector( (double[][][])array );
+                else if ( array instanceof double[][] )
+                    return Util.double2Vector( (double[][])array );
+                else
+                    return int3Vector( (int[][][])array );
+            default:
+                boolean compress = ( transportCase == 3 );
+                if ( array instanceof double[][][] )
+                    return ArrayTransport.encode( (double[][][])array, compress );
+                else if ( array instanceof double[][] )
+                    return ArrayTransport.encode( (double[][])array, compress );
+                else
+                    return ArrayTransport.encode( (int[][][])array, compress );
+        }
+
+    }
+
+
+    // the array rebuilt by the Rpc proxy from the object it received for each case
+    private Object fromTransportObject ( Object received, Object array, int transportCase ) {
+
+        switch ( transportCase ) {
+            case 0:
+                return received;
+            case 1:
+                return unbox ( (Vector)received, array );
+            default:
+                if ( array instanceof double[][][] )
+                    return ArrayTransport.decodeDouble3Array( (byte[])received );
+                else if ( array instanceof double[][] )
+                    return ArrayTransport.decodeDouble2Array( (byte[])received );
+                else
+                    return ArrayTransport.decodeInt3Array( (byte[])received );
+        }
+
+    }
+
+
+    private Vector int3Vector ( int[][][] array ) {
+        Vector list = new Vector(array.length);
+        for (int i=0; i < array.length; i++) {
+            Vector tempList = new Vector(array[i].length);
+            for (int j=0; j < array[i].length; j++)
+                tempList.add( Util.intVector( array[i][j] ) );
+            list.add( tempList );
+        }
+        return list;
+    }
+
+
+    private Object unbox ( Vector list, Object array ) {
+
+        if ( array instanceof double[][] ) {
+            double[][] result = new double[list.size()][];
+            for (int i=0; i < result.length; i++) {
+                Vector row = (Vector)list.get(i);
+                result[i] = new double[row.size()];
+                for (int j=0; j < result[i].length; j++)
+                    result[i][j] = (Double)row.get(j);
+            }
+            return result;
+        }
+
+        boolean doubles = ( array instanceof double[][][] );
+        Object[] result = ( doubles ? new double[list.size()][][] : new int[list.size()][][] );
+        for (int i=0; i < result.length; i++) {
+            Vector rows = (Vector)list.get(i);
+            Object[] subArrays = ( doubles ? new double[rows.size()][] : new int[rows.size()][] );
+            for (int j=0; j < subArrays.length; j++) {
+                Vector row = (Vector)rows.get(j);
+                if ( doubles ) {
+                    double[] values = new double[row.size()];
+                    for (int k=0; k < values.length; k++)
+                        values[k] = (Double)row.get(k);
+                    subArrays[j] = values;
+                }
+                else {
+                    int[] values = new int[row.size()];
+                    for (int k=0; k < values.length; k++)
+                        values[k] = (Integer)row.get(k);
+                    subArrays[j] = values;
+                }
+            }
+            result[i] = subArrays;
+        }
+        return result;
+
+    }
+
+
+    private void checkResult ( String arrayName, Object expected, Object result ) {
+
+        boolean same = false;
+        if ( expected instanceof double[][][] )
+            same = java.util.Arrays.deepEquals( (double[][][])expected, (double[][][])result );
+        else if ( expected instanceof double[][] )
+            same = java.util.Arrays.deepEquals( (double[][])expected, (double[][])result );
+        else
+            same = java.util.Arrays.deepEquals( (int[][][])expected, (int[][][])result );
+
+        if ( ! same ) {
+            logger.error ( arrayName + " read back from the transport differs from the array written." );
+            System.exit(-1);
+        }
+
+    }
+
+
+    // object serialization as done by the rpc transport for request and response values
+    private byte[] serialize ( Object value ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 8192 );
+        ObjectOutputStream out = new ObjectOutputStream( bytes );
+        out.writeObject( value );
+        out.close();
+        return bytes.toByteArray();
+    }
+
+
+    private Object deserialize ( byte[] value ) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( value ) );
+        Object result = in.readObject();
+        in.close();
+        return result;
+    }
+
+
+
+	public static void main (String[] args) throws Exception {
+
+        int numZones = ( args.length > 0 ? Integer.parseInt(args[0]) : 2950 );
+        int numLinks = ( args.length > 1 ? Integer.parseInt(args[1]) : 120000 );
+        int numUserClasses = ( args.length > 2 ? Integer.parseInt(args[2]) : 2 );
+        double tripDensity = ( args.length > 3 ? Double.parseDouble(args[3]) : 0.05 );
+        int repetitions = ( args.length > 4 ? Integer.parseInt(args[4]) : 3 );
+
+		long startTime = System.currentTimeMillis();
+
+		RpcArrayTransportBenchmark test = new RpcArrayTransportBenchmark( repetitions );
+		test.runBenchmark( numZones, numLinks, numUserClasses, tripDensity );
+
+		logger.info("RpcArrayTransportBenchmark() finished in " +
+			((System.currentTimeMillis() - startTime) / 60000.0) + " minutes");
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts.assign.tests;
+
+/**
+ * Times shortest path tree building from every centroid on the statewide network
+ * with the binary candidate heap and with the indexed d-ary heap, and checks that
+ * both heaps produce the same predecessor links.
+ *
+ * usage: ShortestPathHeapBenchmark tsPropertiesFile globalPropertiesFile [period] [repetitions]
+ */
+
+
+import com.pb.common.util.ResourceUtil;
+import com.pb.tlumip.ts.NetworkHandler;
+import com.pb.tlumip.ts.NetworkHandlerIF;
+import com.pb.tlumip.ts.ShortestPathTreeH;
+import com.pb.tlumip.ts.TS;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.ResourceBundle;
+
+
+public class ShortestPathHeapBenchmark {
+
+	protected static Logger logger = Logger.getLogger("com.pb.tlumip.ts.assign.tests");
+
+    static final int WARMUP_REPETITIONS = 2;
+
+    ResourceBundle rb;
+    ResourceBundle globalRb;
+
+
+	public ShortestPathHeapBenchmark( String tsPropertiesFile, String globalPropertiesFile ) {
+
+        rb = ResourceUtil.getPropertyBundle( new File(tsPropertiesFile) );
+        globalRb = ResourceUtil.getPropertyBundle( new File(globalPropertiesFile) );
+
+	}
+
+
+	private void runBenchmark ( String period, int repetitions ) {
+
+        HashMap<String,String> appMap = ResourceUtil.changeResourceBundleIntoHashMap(rb);
+        HashMap<String,String> globalMap = ResourceUtil.changeResourceBundleIntoHashMap(globalRb);
+
+        NetworkHandlerIF nh = NetworkHandler.getInstance();
+        TS ts = new TS( rb, globalRb );
+        ts.setupHighwayNetwork( nh, appMap, globalMap, period );
+		logger.info ("done building Network object.");
+
+        double[] linkCost = nh.setLinkGeneralizedCost();
+        boolean[] validLinks = nh.getValidLinksForClass( 0 );
+
+        ShortestPathTreeH binarySp = getShortestPathTree( nh, ShortestPathTreeH.BINARY_HEAP, linkCost, validLinks );
+        ShortestPathTreeH darySp = getShortestPathTree( nh, ShortestPathTreeH.DARY_HEAP, linkCost, validLinks );
+
+        int numCentroids = nh.getNumCentroids();
+
+        // build trees with each heap once and compare predecessor links to the centroids
+        int differences = 0;
+        for (int i=0; i < numCentroids; i++) {
+            binarySp.buildTree( i );
+            darySp.buildTree( i );
+            int[] binaryPred = binarySp.getPredecessorLink();
+            int[] daryPred = darySp.getPredecessorLink();
+            for (int j=0; j < numCentroids; j++) {
+                if ( binaryPred[j] != daryPred[j] )
+                    differences++;
+            }
+        }
+        logger.info ( differences + " centroid predecessor links differ between the " + ShortestPathTreeH.BINARY_HEAP + " and " + ShortestPathTreeH.DARY_HEAP + " heaps." );
+
+
+        for (int r=0; r < WARMUP_REPETITIONS; r++) {
+            timeTrees( binarySp, numCentroids );
+            timeTrees( darySp, numCentroids );
+        }
+
+        long binaryTime = 0;
+        long daryTime = 0;
+        for (int r=0; r < repetitions; r++) {
+            binaryTime += timeTrees( binarySp, numCentroids );
+            daryTime += timeTrees( darySp, numCentroids );
+        }
+
+        logger.info ( String.format( "%-10s %8d trees, %10.3f ms per repetition, %10.2f microseconds per tree", ShortestPathTreeH.BINARY_HEAP, numCentroids, binaryTime/(1000000.0*repetitions), binaryTime/(1000.0*repetitions*numCentroids) ) );
+        logger.info ( String.format( "%-10s %8d trees, %10.3f ms per repetition, %10.2f microseconds per tree", ShortestPathTreeH.DARY_HEAP, numCentroids, daryTime/(1000000.0*repetitions), daryTime/(1000.0*repetitions*numCentroids) ) );
+
+	}
+
+
+    private ShortestPathTreeH getShortestPathTree ( NetworkHandlerIF nh, String heapType, double[] linkCost, boolean[] validLinks ) {
+        ShortestPathTreeH sp = new ShortestPathTreeH( nh );
+        sp.setHeapType( heapType );
+        sp.setLinkCost( linkCost );
+        sp.setValidLinks( validLinks );
+        return sp;
+    }
+
+
+    // return the elapsed nanoseconds to build a tree from each centroid
+    private long timeTrees ( ShortestPathTreeH sp, int numCentroids ) {
+        long start = System.nanoTime();
+        for (int i=0; i < numCentroids; i++)
+            sp.buildTree( i );
+        return System.nanoTime() - start;
+    }
+
+
+	public static void main (String[] args) {
+
+        if ( args.length < 2 ) {
+            logger.error ( "usage: ShortestPathHeapBenchmark tsPropertiesFile globalPropertiesFile [period] [repetitions]" );
+            System.exit(-1);
+        }
+
+        String period = ( args.length > 2 ? args[2] : "ampeak" );
+        int repetitions = ( args.length > 3 ? Integer.parseInt( args[3] ) : 5 );
+
+		long startTime = System.currentTimeMillis();
+
+		ShortestPathHeapBenchmark test = new ShortestPathHeapBenchmark( args[0], args[1] );
+		test.runBenchmark( period, repetitions );
+
+		logger.info("ShortestPathHeapBenchmark() finished in " +
+			((System.currentTimeMillis() - startTime) / 1000.0) + " seconds");
+	}
+
+}
@@ -42,7 +42,7 @@ import org.apache.log4j.Logger;
 
 
 
-public class AuxTrNet implements Serializable {
+public class AuxTrNet implements Serializable, Cloneable {
 
 	protected static transient Logger logger = Logger.getLogger( AuxTrNet.class );
 
@@ -136,6 +136,9 @@ public class AuxTrNet implements Serializable {
 
     HashMap<String, Integer> routeTypeMap = new HashMap<String, Integer>();
 
+    // link and route arrays for OptimalStrategy, made when first requested after the network is built
+    private transient AuxTrNetSnapshot snapshot = null;
+
     
     
     
@@ -152,6 +155,7 @@ public class AuxTrNet implements Serializable {
         an = new int[maxAuxLinks];
         bn = new int[maxAuxLinks];
         linkType = new int[maxAuxLinks];
+        ttf = new int[maxAuxLinks];
         rteMode = new char[maxAuxLinks];
 		freq = new double[maxAuxLinks];
 		cost = new double[maxAuxLinks];
@@ -348,6 +352,7 @@ public class AuxTrNet implements Serializable {
         int[] tempi5 = new int[auxLinks];
         int[] tempi6 = new int[auxLinks];
         int[] tempi7 = new int[auxLinks];
+        int[] tempi8 = new int[auxLinks];
 		double[] tempd1 = new double[auxLinks];
 		double[] tempd2 = new double[auxLinks];
 		double[] tempd3 = new double[auxLinks];
@@ -364,6 +369,7 @@ public class AuxTrNet implements Serializable {
         System.arraycopy(an, 0, tempi6, 0, auxLinks);
         System.arraycopy(bn, 0, tempi7, 0, auxLinks);
         System.arraycopy(linkType, 0, tempi5, 0, auxLinks);
+        System.arraycopy(ttf, 0, tempi8, 0, auxLinks);
         System.arraycopy(freq, 0, tempd1, 0, auxLinks);
         System.arraycopy(cost, 0, tempd2, 0, auxLinks);
         System.arraycopy(invTime, 0, tempd3, 0, auxLinks);
@@ -380,6 +386,7 @@ public class AuxTrNet implements Serializable {
         an = tempi6;
         bn = tempi7;
 		linkType = tempi5;
+		ttf = tempi8;
 		freq = tempd1;
 		cost = tempd2;
 		invTime = tempd3;
@@ -1265,6 +1272,7 @@ public class AuxTrNet implements Serializable {
                 dummy = 1;
             }
             
+            ttf[aux] = ts.ttf;
             if (ts.ttf > 0)
                 invTime[aux] = nh.applyLinkTransitVdf( ts.link, ts.ttf );
             else
@@ -1453,6 +1461,50 @@ public class AuxTrNet implements Serializable {
 	}
 
 
+	/**
+	 * return the snapshot of the link and route arrays used by OptimalStrategy, making it if this is the first request.
+	 */
+	public synchronized AuxTrNetSnapshot getSnapshot () {
+	    if ( snapshot == null )
+	        snapshot = new AuxTrNetSnapshot( this );
+	    return snapshot;
+	}
+
+
+	/**
+	 * return a copy of this network for the highway link times now in nh, sharing the links and routes of this network.
+	 * The in-vehicle times of links with a transit vdf are recomputed from the current highway link times; all other
+	 * link attributes, including access links, are those of this network, so the copy is only valid if the highway
+	 * network and the route files this network was built from have not changed, and for drive access, if the
+	 * highway transit times used to pick drive access links have not changed.
+	 */
+	public AuxTrNet getUpdatedAuxTrNet ( NetworkHandlerIF nh ) {
+
+	    AuxTrNet ag = null;
+	    try {
+	        ag = (AuxTrNet)clone();
+	    }
+	    catch (CloneNotSupportedException e) {
+	        logger.error ("could not copy AuxTrNet object.", e);
+	        throw new RuntimeException(e);
+	    }
+
+	    ag.nh = nh;
+	    ag.period = nh.getTimePeriod();
+	    ag.gCongestedTime = nh.getTransitTime();
+	    ag.flow = new double[auxLinks];
+	    ag.snapshot = null;
+
+	    ag.invTime = invTime.clone();
+	    for (int k=0; k < auxLinks; k++) {
+	        if ( linkType[k] == IN_VEHICLE_TYPE && ttf[k] > 0 )
+	            ag.invTime[k] = nh.applyLinkTransitVdf( hwyLink[k], ttf[k] );
+	    }
+
+	    return ag;
+	}
+
+
 	public int getAuxLinkCount () {
 		return auxLinks;
 	}
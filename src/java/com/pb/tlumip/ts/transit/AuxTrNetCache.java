@@ -0,0 +1,146 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts.transit;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+
+import com.pb.tlumip.ts.NetworkHandlerIF;
+
+
+/**
+ * Auxiliary transit networks built by NetworkHandler, kept for the life of the VM so that the route files
+ * for a set of route types and an access mode are read and the network links built once for all of the
+ * periods that use them.  Later periods get a copy of the saved network with in-vehicle times recomputed
+ * from their highway link times by AuxTrNet.getUpdatedAuxTrNet().
+ *
+ * A saved network is built again if any of its route files has changed length or modification time, if the
+ * highway links, link distances, centroids or walk speed have changed, or if anything else the links were
+ * built from depends on highway times that have changed: the generalized costs used to build paths for route
+ * segments not on a highway link, and for drive access, the highway transit times used to pick access links.
+ */
+public class AuxTrNetCache {
+
+    protected static Logger logger = Logger.getLogger(AuxTrNetCache.class);
+
+    private static HashMap<String,AuxTrNetCache> networks = new HashMap<String,AuxTrNetCache>();
+
+    long[] fileLengths;
+    long[] fileLastModified;
+
+    int numCentroids;
+    double walkSpeed;
+    int[] ia;
+    int[] ib;
+    int[] indexNode;
+    double[] dist;
+
+    // null if the links built do not depend on these highway attributes
+    double[] generalizedCost;
+    double[] transitTime;
+
+    AuxTrNet ag;
+
+
+    private AuxTrNetCache ( NetworkHandlerIF nh, String accessMode, String[] d221Files, AuxTrNet ag ) {
+
+        fileLengths = new long[d221Files.length];
+        fileLastModified = new long[d221Files.length];
+        for (int i=0; i < d221Files.length; i++) {
+            File file = new File( d221Files[i] );
+            fileLengths[i] = file.length();
+            fileLastModified[i] = file.lastModified();
+        }
+
+        numCentroids = nh.getNumCentroids();
+        walkSpeed = nh.getWalkSpeed();
+        ia = nh.getIa();
+        ib = nh.getIb();
+        indexNode = nh.getIndexNode();
+        dist = nh.getDist();
+
+        if ( ag.getTrRoute().getBuiltPathCount() > 0 )
+            generalizedCost = nh.setLinkGeneralizedCost().clone();
+        if ( ! accessMode.equalsIgnoreCase("walk") )
+            transitTime = ag.gCongestedTime;
+
+        this.ag = ag;
+
+    }
+
+
+
+    /**
+     * Return a copy of the network saved for the route files, route types and access mode, updated for the highway
+     * link times in nh, or null if no network was saved or the saved network is no longer valid.
+     */
+    public static synchronized AuxTrNet getAuxTrNet ( NetworkHandlerIF nh, String accessMode, String[] d221Files, String[] rteTypes, int maxRoutes ) {
+
+        AuxTrNetCache network = networks.get( getKey( accessMode, d221Files, rteTypes, maxRoutes ) );
+        if ( network == null || ! network.isCurrent( nh, d221Files ) )
+            return null;
+
+        return network.ag.getUpdatedAuxTrNet( nh );
+
+    }
+
+
+    /**
+     * Save the network built for the route files, route types and access mode, replacing any network saved for them.
+     */
+    public static synchronized void putAuxTrNet ( NetworkHandlerIF nh, String accessMode, String[] d221Files, String[] rteTypes, int maxRoutes, AuxTrNet ag ) {
+        networks.put( getKey( accessMode, d221Files, rteTypes, maxRoutes ), new AuxTrNetCache( nh, accessMode, d221Files, ag ) );
+    }
+
+
+    private static String getKey ( String accessMode, String[] d221Files, String[] rteTypes, int maxRoutes ) {
+        return accessMode.toLowerCase() + "," + maxRoutes + "," + Arrays.toString( d221Files ) + "," + Arrays.toString( rteTypes );
+    }
+
+
+    private boolean isCurrent ( NetworkHandlerIF nh, String[] d221Files ) {
+
+        for (int i=0; i < d221Files.length; i++) {
+            File file = new File( d221Files[i] );
+            if ( file.length() != fileLengths[i] || file.lastModified() != fileLastModified[i] )
+                return false;
+        }
+
+        if ( nh.getNumCentroids() != numCentroids || nh.getWalkSpeed() != walkSpeed )
+            return false;
+
+        if ( ! Arrays.equals( nh.getIa(), ia ) || ! Arrays.equals( nh.getIb(), ib ) || ! Arrays.equals( nh.getIndexNode(), indexNode ) || ! Arrays.equals( nh.getDist(), dist ) )
+            return false;
+
+        if ( generalizedCost != null && ! Arrays.equals( nh.setLinkGeneralizedCost(), generalizedCost ) ) {
+            logger.info ( "generalized costs used to build paths in transit routes have changed, so saved transit network will be rebuilt." );
+            return false;
+        }
+
+        if ( transitTime != null && ! Arrays.equals( nh.getTransitTime(), transitTime ) ) {
+            logger.info ( "highway transit times used to build drive access links have changed, so saved transit network will be rebuilt." );
+            return false;
+        }
+
+        return true;
+
+    }
+
+}
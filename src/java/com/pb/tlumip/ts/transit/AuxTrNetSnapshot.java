@@ -0,0 +1,193 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts.transit;
+
+import java.io.Serializable;
+
+
+/**
+ * The link and route arrays of an AuxTrNet used to build, load and skim optimal strategies, copied
+ * once after the transit network is set up so OptimalStrategy can get all of them in one call and
+ * never go back through the NetworkHandler while building strategies.
+ *
+ * Link impedances are computed for every link when the snapshot is made, as AuxTrNet.getLinkImped()
+ * computes them for a single link.  The arrays are copies, so the snapshot does not change if the
+ * AuxTrNet it was made from is changed, and must not be changed by its users.
+ */
+public class AuxTrNetSnapshot implements Serializable {
+
+    static final long serialVersionUID = 1L;
+
+    int auxNodeCount;
+    int auxLinkCount;
+
+    int[] ia;
+    int[] ib;
+    int[] ipa;
+    int[] ipb;
+    int[] indexa;
+    int[] indexb;
+    int[] hwyLink;
+    int[] trRoute;
+    int[] linkType;
+    double[] linkImped;
+    double[] freq;
+    double[] cost;
+    double[] invTime;
+    double[] dwellTime;
+    double[] layoverTime;
+    double[] walkTime;
+    double[] waitTime;
+    double[] driveAccTime;
+    double[] rteHeadway;
+    char[] rteMode;
+    String[] routeNames;
+
+
+
+    AuxTrNetSnapshot ( AuxTrNet ag ) {
+
+        auxNodeCount = ag.getAuxNodeCount();
+        auxLinkCount = ag.getAuxLinkCount();
+
+        ia = ag.getIa().clone();
+        ib = ag.getIb().clone();
+        ipa = ag.getIpa().clone();
+        ipb = ag.getIpb().clone();
+        indexa = ag.getIndexa().clone();
+        indexb = ag.getIndexb().clone();
+        hwyLink = ag.getHwyLink().clone();
+        trRoute = ag.getLinkTrRoute().clone();
+        linkType = ag.getLinkType().clone();
+        freq = ag.getFreq().clone();
+        cost = ag.getCost().clone();
+        invTime = ag.getInvTime().clone();
+        dwellTime = ag.getDwellTime().clone();
+        layoverTime = ag.getLayoverTime().clone();
+        walkTime = ag.getWalkTime().clone();
+        waitTime = ag.getWaitTime().clone();
+        driveAccTime = ag.getDriveAccTime().clone();
+        rteHeadway = ag.getHeadway().clone();
+        rteMode = ag.getRteMode().clone();
+
+        routeNames = new String[ag.getNumRoutes()];
+        String[] tempNames = ag.getRouteNames();
+        for (int i=0; i < routeNames.length; i++)
+            routeNames[i] = tempNames[i];
+
+        linkImped = new double[auxLinkCount];
+        for (int k=0; k < auxLinkCount; k++)
+            linkImped[k] = ag.getLinkImped( k );
+
+    }
+
+
+
+    public int getAuxNodeCount () {
+        return auxNodeCount;
+    }
+
+    public int getAuxLinkCount () {
+        return auxLinkCount;
+    }
+
+    public int[] getIa () {
+        return ia;
+    }
+
+    public int[] getIb () {
+        return ib;
+    }
+
+    public int[] getIpa () {
+        return ipa;
+    }
+
+    public int[] getIpb () {
+        return ipb;
+    }
+
+    public int[] getIndexa () {
+        return indexa;
+    }
+
+    public int[] getIndexb () {
+        return indexb;
+    }
+
+    public int[] getHwyLink () {
+        return hwyLink;
+    }
+
+    public int[] getLinkTrRoute () {
+        return trRoute;
+    }
+
+    public int[] getLinkType () {
+        return linkType;
+    }
+
+    /** return the generalized cost, not including wait time, of every link, as given by AuxTrNet.getLinkImped(). */
+    public double[] getLinkImped () {
+        return linkImped;
+    }
+
+    public double[] getFreq () {
+        return freq;
+    }
+
+    public double[] getCost () {
+        return cost;
+    }
+
+    public double[] getInvTime () {
+        return invTime;
+    }
+
+    public double[] getDwellTime () {
+        return dwellTime;
+    }
+
+    public double[] getLayoverTime () {
+        return layoverTime;
+    }
+
+    public double[] getWalkTime () {
+        return walkTime;
+    }
+
+    public double[] getWaitTime () {
+        return waitTime;
+    }
+
+    public double[] getDriveAccTime () {
+        return driveAccTime;
+    }
+
+    public double[] getHeadway () {
+        return rteHeadway;
+    }
+
+    public char[] getRteMode () {
+        return rteMode;
+    }
+
+    public String[] getRouteNames () {
+        return routeNames;
+    }
+
+}
@@ -109,6 +109,7 @@ public class OptimalStrategy {
     double[] layoverTime = null;
     double[] invTime = null;
     double[] freq = null;
+    double[] linkImpedance = null;
     double[] flow = null;
     double[] rteHeadway = null;
     int[] linkType = null;
@@ -139,6 +140,13 @@ public class OptimalStrategy {
     }
 	
 	public OptimalStrategy ( NetworkHandlerIF nh, String identifier , ResourceBundle rb) {
+        this(nh,identifier,rb,nh.getAuxTrNetSnapshot(identifier));
+    }
+	
+	/**
+	 * create an optimal strategy object for the transit network snapshot, which can be shared by several objects for the same network.
+	 */
+	public OptimalStrategy ( NetworkHandlerIF nh, String identifier , ResourceBundle rb, AuxTrNetSnapshot ag) {
         
         this.nh = nh;
         this.identifier = identifier;
@@ -146,8 +154,8 @@ public class OptimalStrategy {
 
         numCentroids = nh.getNumCentroids();
         
-        auxNodeCount = nh.getAuxNodeCount( identifier );
-        auxLinkCount = nh.getAuxLinkCount( identifier );
+        auxNodeCount = ag.getAuxNodeCount();
+        auxLinkCount = ag.getAuxLinkCount();
         
         
 		nodeFlow = new double[auxNodeCount+1];
@@ -161,30 +169,34 @@ public class OptimalStrategy {
 		
 		//Create a new heap structure to sort candidate node labels
         //candidateHeap = new Heap(auxNodeCount+1);  // old Heap 
-        candidateHeap = new Heap( auxLinkCount ); // new SortedSet
+        candidateHeap = new Heap( auxLinkCount );
 		heapContents = new int[auxNodeCount+1];
 
-        ia = nh.getAuxIa(identifier);
-        ib = nh.getAuxIb(identifier);
-        ipa = nh.getAuxIpa(identifier);
-        ipb = nh.getAuxIpb(identifier);
-        indexa = nh.getAuxIndexa(identifier);
-        indexb = nh.getAuxIndexb(identifier);
-        hwyLink = nh.getAuxHwyLink(identifier);
-        trRoute = nh.getLinkTrRoute(identifier);
-        rteMode = nh.getRteMode(identifier);
-        rteNames = nh.getTransitRouteNames(identifier);
-        linkType = nh.getAuxLinkType(identifier);
-        cost = nh.getAuxCost(identifier);
-        dwellTime = nh.getAuxDwellTime(identifier);
-        layoverTime = nh.getAuxLayoverTime(identifier);
-        waitTime = nh.getAuxWaitTime(identifier); 
-        walkTime = nh.getAuxWalkTime(identifier); 
-        drAccTime = nh.getAuxDriveAccTime(identifier); 
-        invTime = nh.getAuxInvTime(identifier);
-        freq = nh.getAuxLinkFreq(identifier);
-        flow = nh.getAuxLinkFlow(identifier);
-        rteHeadway = nh.getAuxRouteHeadway(identifier);
+        // the transit network arrays are read from the snapshot and not changed, so the strategy loops never go back through nh.
+        ia = ag.getIa();
+        ib = ag.getIb();
+        ipa = ag.getIpa();
+        ipb = ag.getIpb();
+        indexa = ag.getIndexa();
+        indexb = ag.getIndexb();
+        hwyLink = ag.getHwyLink();
+        trRoute = ag.getLinkTrRoute();
+        rteMode = ag.getRteMode();
+        rteNames = ag.getRouteNames();
+        linkType = ag.getLinkType();
+        cost = ag.getCost();
+        dwellTime = ag.getDwellTime();
+        layoverTime = ag.getLayoverTime();
+        waitTime = ag.getWaitTime(); 
+        walkTime = ag.getWalkTime(); 
+        drAccTime = ag.getDriveAccTime(); 
+        invTime = ag.getInvTime();
+        freq = ag.getFreq();
+        linkImpedance = ag.getLinkImped();
+        rteHeadway = ag.getHeadway();
+
+        // each strategy object loads its own link flows, so objects for the same network can be used concurrently.
+        flow = new double[auxLinkCount];
         
 		gia = nh.getIa();
 		gib = nh.getIb();
@@ -261,8 +273,7 @@ public class OptimalStrategy {
         //while ((k = candidateHeap.remove()) != -1) {  //old Heap
         while ( candidateHeap.size() > 0 ) {
 
-            HeapElement he = candidateHeap.getFirst();
-            k = he.getIndex();
+            k = candidateHeap.getFirst();
             
             
             int dummy=0;
@@ -280,7 +291,7 @@ public class OptimalStrategy {
     			}
     			
     			
-				linkImped = nh.getAuxLinkImped(identifier, k);
+				linkImped = linkImpedance[k];
 				
 				// log some information about the starting condition of the candidate link being examined
 				if ( debug ) {
@@ -290,7 +301,7 @@ public class OptimalStrategy {
                     m = hwyLink[k];
                 
 
-					debugLogger.info ("k=" + k + ", ag.ia[k]=" + ia[k] + "(g.an=" + (m>=0 ? indexNode[gia[m]] : -1) + "), ag.ib[k]=" + ib[k] + "(g.bn=" + (m>=0 ? indexNode[gib[m]] : -1) + "), linkType=" + linkType[k] + ", trRoute=" + trRoute[k] + "(" + (trRoute[k] >= 0 ? nh.getAuxRouteName(identifier, trRoute[k]) : "aux") + ")" );
+					debugLogger.info ("k=" + k + ", ag.ia[k]=" + ia[k] + "(g.an=" + (m>=0 ? indexNode[gia[m]] : -1) + "), ag.ib[k]=" + ib[k] + "(g.bn=" + (m>=0 ? indexNode[gib[m]] : -1) + "), linkType=" + linkType[k] + ", trRoute=" + trRoute[k] + "(" + (trRoute[k] >= 0 ? rteNames[trRoute[k]] : "aux") + ")" );
 					debugLogger.info ("nodeLabel[ag.ia=" + ia[k] + "]=" + nodeLabel[ia[k]]);
 					debugLogger.info ("nodeLabel[ag.ib=" + ib[k] + "]=" + nodeLabel[ib[k]]);
 					debugLogger.info ("nodeFreq[ag.ia=" + ia[k] + "]=" + nodeFreq[ia[k]]);
@@ -483,7 +494,7 @@ public class OptimalStrategy {
                 continue;
 
             
-            linkImped = nh.getAuxLinkImped(identifier, k);
+            linkImped = linkImpedance[k];
 
             // if the anode's label is already smaller than the bnode's label plus the link impedance,
             // no need to add the link to the heap. 
@@ -516,12 +527,10 @@ public class OptimalStrategy {
                 debugLogger.info ("adding   " + i + ", indexb[i] or k=" + k + ", linkType=" + linkType[k] + ", route=" + name + ", ia=" + ia[k] + "(" + ( ia[k] < indexNode.length ? indexNode[ia[k]] : -1) + "), ib=" + ib[k] + "(" + (ib[k] < indexNode.length ? indexNode[ib[k]] : -1) + "), linkLabel[k]=" + String.format("%15.6f", linkLabel[k]) + ", nodeLabel[ag.ib[k]]=" + nodeLabel[ib[k]] + ", linkImped=" + linkImped);
             }
 
-            HeapElement he = new HeapElement(k, linkType[k], linkLabel[k]);
-            
             if ( candidateHeap.contains(k))
-                candidateHeap.remove(he);
+                candidateHeap.remove(k, linkLabel[k]);
             
-            candidateHeap.add(he);
+            candidateHeap.add(k, linkLabel[k]);
 
         }
 
@@ -1170,113 +1179,236 @@ public class OptimalStrategy {
 
     // Inner classes
 
-    public class HeapElement implements Comparable {
-        
-        int index;
-        int type;
-        double label;
-        
-        public HeapElement (int index, int type, double label) {
-            this.index = index;
-            this.type = type;
-            this.label = label;
-        }
-        
-        
-        public int compareTo(Object obj) {
-            
-            int returnValue = 0;
-            HeapElement el = (HeapElement)obj;
-            
-            if ( label > el.getLabel() )
-                returnValue = 1;
-            else if ( label < el.getLabel() )
-                returnValue = -1;
-            else {
-                if ( type > el.getType() )
-                    returnValue = 1;
-                else if ( type < el.getType() )
-                    returnValue = -1;
-                else {
-                    if ( index > el.getIndex() )
-                        returnValue = 1;
-                    else if ( index < el.getIndex() )
-                        returnValue = -1;
-                }
-            }
-            
-            return returnValue;
-        }
-
-        public int getIndex() {
-            return index;
-        }
-        
-        public int getType() {
-            return type;
-        }
-        
-        public double getLabel() {
-            return label;
-        }
-        
-    }
-
-    
-    
+    /**
+     * Indexed 4-ary heap of candidate links ordered by link label, then link type, then link index, as the
+     * TreeSet of HeapElement objects it replaced ordered them.  Entries are kept in pooled primitive arrays,
+     * so no objects are allocated once the pool has grown to the largest number of entries needed.
+     * 
+     * As with the TreeSet, an entry is removed by its link and label, so a link whose label changed while it
+     * was in the heap keeps its entry for the old label when the entry for the new label is added, and adding
+     * an entry with the same link and label as one in the heap does nothing.  Each link's entries are chained
+     * so they can be found by label.
+     */
     public class Heap {
         
+        static final int D = 4;
+        static final int NONE = -1;
+
         boolean[] inHeap = null;
-        SortedSet elements = null;
+
+        // entry e is for link entryLink[e] with label entryLabel[e], is at data[entryPosition[e]], and is
+        // followed by entryNext[e] in the chain of entries for its link, or in the chain of free entries.
+        private double[] entryLabel;
+        private int[] entryLink;
+        private int[] entryPosition;
+        private int[] entryNext;
+        private int numEntries;
+        private int freeEntry;
+
+        private int[] firstEntry;
+        private int[] data;
+        private int size;
+
         
         public Heap( int numLinks ) {
-            elements = new TreeSet();
             inHeap = new boolean[numLinks];
+            firstEntry = new int[numLinks];
+            Arrays.fill ( firstEntry, NONE );
+            allocateEntries ( numLinks );
+            freeEntry = NONE;
         }
 
         public void clear() {
-            elements.clear();
+            for (int i=0; i < size; i++)
+                firstEntry[entryLink[data[i]]] = NONE;
+            size = 0;
+            numEntries = 0;
+            freeEntry = NONE;
             Arrays.fill ( inHeap, false );
         }
 
         public int size() {
-            return elements.size();
+            return size;
         }
 
-        public void add( HeapElement el ) {
-            int k = el.getIndex();
+        public void add( int k, double label ) {
             inHeap[k] = true;
-            elements.add(el);
+            if ( findEntry( k, label ) != NONE )
+                return;
+
+            int e = newEntry();
+            entryLink[e] = k;
+            entryLabel[e] = label;
+            entryNext[e] = firstEntry[k];
+            firstEntry[k] = e;
+
+            data[size] = e;
+            siftUp( size++ );
         }
         
-        public boolean remove( HeapElement el ) {
-            int k = el.getIndex();
+        public boolean remove( int k, double label ) {
             inHeap[k] = false;
-            return elements.remove(el);
+            int e = findEntry( k, label );
+            if ( e == NONE )
+                return false;
+            removeEntry( e );
+            return true;
         }
         
         public boolean contains( int k ) {
             return inHeap[k];
         }
         
-        public HeapElement getFirst() {
-            HeapElement el = (HeapElement)elements.first();
-            if ( el != null )
-                remove(el);
-            return el;
+        /**
+         * remove the first entry and return its link index, or -1 if the heap is empty.
+         */
+        public int getFirst() {
+            if ( size == 0 )
+                return NONE;
+            int k = entryLink[data[0]];
+            inHeap[k] = false;
+            removeEntry( data[0] );
+            return k;
+        }
+
+
+        // labels are the same if neither is greater than the other, as HeapElement.compareTo() found
+        private int findEntry( int k, double label ) {
+            for (int e=firstEntry[k]; e != NONE; e=entryNext[e]) {
+                if ( !(entryLabel[e] > label) && !(entryLabel[e] < label) )
+                    return e;
+            }
+            return NONE;
+        }
+
+        private int newEntry() {
+            if ( freeEntry != NONE ) {
+                int e = freeEntry;
+                freeEntry = entryNext[e];
+                return e;
+            }
+            if ( numEntries == entryLink.length )
+                allocateEntries ( 2*entryLink.length );
+            return numEntries++;
+        }
+
+        private void allocateEntries( int capacity ) {
+            capacity = Math.max( capacity, 16 );
+            if ( entryLink == null ) {
+                entryLabel = new double[capacity];
+                entryLink = new int[capacity];
+                entryPosition = new int[capacity];
+                entryNext = new int[capacity];
+                data = new int[capacity];
+            }
+            else {
+                entryLabel = Arrays.copyOf( entryLabel, capacity );
+                entryLink = Arrays.copyOf( entryLink, capacity );
+                entryPosition = Arrays.copyOf( entryPosition, capacity );
+                entryNext = Arrays.copyOf( entryNext, capacity );
+                data = Arrays.copyOf( data, capacity );
+            }
+        }
+
+        private void removeEntry( int e ) {
+
+            // unchain the entry from its link's entries
+            int k = entryLink[e];
+            if ( firstEntry[k] == e ) {
+                firstEntry[k] = entryNext[e];
+            }
+            else {
+                int prev = firstEntry[k];
+                while ( entryNext[prev] != e )
+                    prev = entryNext[prev];
+                entryNext[prev] = entryNext[e];
+            }
+
+            // fill its place in the heap with the last entry
+            int idx = entryPosition[e];
+            size--;
+            if ( idx < size ) {
+                data[idx] = data[size];
+                entryPosition[data[idx]] = idx;
+                if ( idx > 0 && precedes( data[idx], data[(idx - 1) / D] ) )
+                    siftUp( idx );
+                else
+                    siftDown( idx );
+            }
+
+            entryNext[e] = freeEntry;
+            freeEntry = e;
+
+        }
+
+        private void siftUp( int idx ) {
+            int e = data[idx];
+            while ( idx > 0 ) {
+                int parentIdx = (idx - 1) / D;
+                int eParent = data[parentIdx];
+                if ( !precedes(e, eParent) )
+                    break;
+                data[idx] = eParent;
+                entryPosition[eParent] = idx;
+                idx = parentIdx;
+            }
+            data[idx] = e;
+            entryPosition[e] = idx;
+        }
+
+        private void siftDown( int idx ) {
+            int e = data[idx];
+            while ( true ) {
+                int childIdx = D*idx + 1;
+                if ( childIdx >= size )
+                    break;
+                int last = Math.min( childIdx + D, size );
+                int minIdx = childIdx;
+                for (int i=childIdx+1; i < last; i++) {
+                    if ( precedes(data[i], data[minIdx]) )
+                        minIdx = i;
+                }
+                int eChild = data[minIdx];
+                if ( !precedes(eChild, e) )
+                    break;
+                data[idx] = eChild;
+                entryPosition[eChild] = idx;
+                idx = minIdx;
+            }
+            data[idx] = e;
+            entryPosition[e] = idx;
+        }
+
+        // smaller label first, then smaller link type, then smaller link index, as HeapElement.compareTo() ordered them
+        private boolean precedes( int e1, int e2 ) {
+            if ( entryLabel[e1] < entryLabel[e2] )
+                return true;
+            if ( entryLabel[e1] > entryLabel[e2] )
+                return false;
+            int k1 = entryLink[e1];
+            int k2 = entryLink[e2];
+            if ( linkType[k1] != linkType[k2] )
+                return linkType[k1] < linkType[k2];
+            return k1 < k2;
         }
 
         public void dataPrintSorted() {
 
             debugLogger.debug( "Heap contents sorted by linklabel" );
-            Iterator it = elements.iterator();
 
-            int i=0;
-            while ( it.hasNext() ) {
-                HeapElement h = (HeapElement)it.next();
-                int k = h.getIndex();
+            Integer[] entries = new Integer[size];
+            for (int i=0; i < size; i++)
+                entries[i] = data[i];
+            Arrays.sort( entries, new Comparator<Integer>() {
+                public int compare( Integer e1, Integer e2 ) {
+                    return precedes( e1, e2 ) ? -1 : ( precedes( e2, e1 ) ? 1 : 0 );
+                }
+            });
+
+            for (int i=0; i < entries.length; i++) {
+                int k = entryLink[entries[i]];
                 int m = hwyLink[k];
-                debugLogger.info ("i=" + (i++) + ",k=" + k + ", ag.ia[k]=" + ia[k] + "(g.an=" + (m>=0 ? indexNode[gia[m]] : -1) + "), ag.ib[k]=" + ib[k] + "(g.bn=" + (m>=0 ? indexNode[gib[m]] : -1) + "), linkType=" + linkType[k] + ", Route=" + trRoute[k] + ", linkLabel[k]=" + String.format("%10.6f", linkLabel[k]) );
+                debugLogger.info ("i=" + i + ",k=" + k + ", ag.ia[k]=" + ia[k] + "(g.an=" + (m>=0 ? indexNode[gia[m]] : -1) + "), ag.ib[k]=" + ib[k] + "(g.bn=" + (m>=0 ? indexNode[gib[m]] : -1) + "), linkType=" + linkType[k] + ", Route=" + trRoute[k] + ", linkLabel[k]=" + String.format("%10.6f", linkLabel[k]) );
             }
         }
 
@@ -64,6 +64,8 @@ public class TrRoute implements Serializable {
 	ArrayList tdefaults;
 
     int segmentCheckErrorCount;
+    int builtPathCount;
+    int fileReadErrorCount;
     
 
 
@@ -83,6 +85,8 @@ public class TrRoute implements Serializable {
 			transitPath[i] = new ArrayList(500);
 
         segmentCheckErrorCount = 0;
+        builtPathCount = 0;
+        fileReadErrorCount = 0;
         
         this.maxRoutes = maxRoutes;
 
@@ -322,6 +326,7 @@ public class TrRoute implements Serializable {
                 
             } catch (Exception e) {
                 logger.error ("IO Exception caught reading transit route file: " + fileNames[i] + ", record number=" + recNumber, e);
+                fileReadErrorCount++;
             }
 
             logger.info ( String.format("finished reading %d records from transit line file %s, %d transit lines found.", recNumber, fileNames[i], tempLineCount) );
@@ -1129,6 +1134,21 @@ public class TrRoute implements Serializable {
         return this.maxRoutes;
     }
 
+    /**
+     * return the number of route segments between nodes not joined by a highway link that were replaced
+     * by the shortest generalized cost path between the nodes when the routes were read.
+     */
+    public int getBuiltPathCount() {
+        return builtPathCount;
+    }
+
+    /**
+     * return the number of route files that could not be read completely.
+     */
+    public int getFileReadErrorCount() {
+        return fileReadErrorCount;
+    }
+
 
 
 
@@ -1266,6 +1286,8 @@ public class TrRoute implements Serializable {
                             throw new RuntimeException();
                         }
 
+                        builtPathCount++;
+
                         transitPath[rte].remove(rteSeg);
 
                         
@@ -0,0 +1,455 @@
+/*
+ * Copyright  2005 PB Consult Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.pb.tlumip.ts.transit;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+
+import com.pb.tlumip.ts.NetworkHandlerIF;
+
+
+/**
+ * Transit routes read by TrRoute.readTransitRoutes() from a set of d221 route files, saved in a binary
+ * file in a cache directory so that later model runs using the same route files on the same highway network
+ * read the routes and segments, already checked against the highway network, from one memory mapped file
+ * instead of parsing the route files.
+ *
+ * The cache file name is made from an MD5 digest of the cache layout version, maxRoutes, the route types,
+ * the contents of each route file, and the highway network version: the link end nodes, external node numbers
+ * and link distances that segments were checked against.  Any change to these gives a different file name,
+ * so the route files are parsed again and a new cache file is written.  If any route segments were replaced
+ * by paths built on highway generalized costs, the file also holds a digest of the generalized costs and
+ * valid links used, and is not used if they have changed.
+ *
+ * The file starts with a magic number and a layout version, followed by the route counts and then, for each
+ * route, its header values and segments.  A file is written under a unique temporary name and renamed when
+ * complete, so a reader never sees a partially written file, and writers in other processes don't interleave.
+ * Within a process, callers hold getLock() while reading and, if there's no cache file, building and writing the
+ * routes, so transit networks set up concurrently for different access modes don't build the same routes twice.
+ */
+public class TrRouteCache {
+
+    protected static Logger logger = Logger.getLogger(TrRouteCache.class);
+
+    static final int MAGIC = 0x54535452;
+    static final int LAYOUT_VERSION = 1;
+
+    static final String FILE_PREFIX = "tsTransitRoutes_";
+    static final String FILE_SUFFIX = ".bin";
+
+    // lock objects by cache file key, shared by all the TrRouteCache objects in the process
+    private static HashMap<String,Object> locks = new HashMap<String,Object>();
+
+    String directory;
+    String[] fileNames;
+    String[] rteTypes;
+    int maxRoutes;
+
+    // null if a route file could not be read to make the digest, in which case nothing is cached
+    String key;
+
+
+    public TrRouteCache ( String directory, NetworkHandlerIF nh, String[] fileNames, String[] rteTypes, int maxRoutes ) {
+        this.directory = directory;
+        this.fileNames = fileNames;
+        this.rteTypes = rteTypes;
+        this.maxRoutes = maxRoutes;
+        key = getKey( nh );
+    }
+
+
+
+    /**
+     * Return the object to synchronize on while reading the cache file and, if there is no valid one, building
+     * the routes from the route files and writing them with write().  It is the same object for every
+     * TrRouteCache in the process with the same route files and highway network.
+     */
+    public Object getLock () {
+        if ( key == null )
+            return this;
+        synchronized ( locks ) {
+            Object lock = locks.get( key );
+            if ( lock == null ) {
+                lock = new Object();
+                locks.put( key, lock );
+            }
+            return lock;
+        }
+    }
+
+
+
+    /**
+     * Return the transit routes saved in the cache file for the route files and highway network, or null if
+     * there is no valid cache file, in which case the route files should be read and the routes written with write().
+     */
+    public TrRoute read ( NetworkHandlerIF nh ) {
+
+        if ( key == null )
+            return null;
+
+        File file = getFile();
+        if ( ! file.canRead() )
+            return null;
+
+        TrRoute tr = null;
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream( file );
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if ( magic != MAGIC || version != LAYOUT_VERSION ) {
+                logger.warn ( String.format("transit route cache file %s has magic number %x and layout version %d, expected %x and %d, so route files will be read.", file.getName(), magic, version, MAGIC, LAYOUT_VERSION) );
+                return null;
+            }
+
+            tr = new TrRoute( buffer.getInt() );
+            tr.lineCount = buffer.getInt();
+            tr.totalLinkCount = buffer.getInt();
+            tr.builtPathCount = buffer.getInt();
+
+            if ( tr.builtPathCount > 0 ) {
+                byte[] pathCostDigest = new byte[buffer.getInt()];
+                buffer.get( pathCostDigest );
+                if ( ! Arrays.equals( pathCostDigest, getPathCostDigest( nh ) ) ) {
+                    logger.info ( String.format("highway generalized costs used to build paths in transit routes have changed since transit route cache file %s was written, so route files will be read.", file.getName()) );
+                    return null;
+                }
+            }
+
+            for (int rte=0; rte < tr.lineCount; rte++) {
+
+                tr.line[rte] = getString( buffer );
+                tr.description[rte] = getString( buffer );
+                tr.routeType[rte] = getString( buffer );
+                tr.mode[rte] = buffer.getChar();
+                tr.vehType[rte] = buffer.getInt();
+                tr.headway[rte] = buffer.getDouble();
+                tr.speed[rte] = buffer.getDouble();
+                tr.ut1[rte] = buffer.getDouble();
+                tr.ut2[rte] = buffer.getDouble();
+                tr.ut3[rte] = buffer.getDouble();
+
+                int numSegments = buffer.getInt();
+                for (int i=0; i < numSegments; i++) {
+
+                    int rteIndex = buffer.getInt();
+                    int an = buffer.getInt();
+                    int bn = buffer.getInt();
+                    TrSegment ts = new TrSegment( rteIndex, an, bn, tr.defaults, tr.tdefaults );
+
+                    ts.link = buffer.getInt();
+                    ts.ttf = buffer.getInt();
+                    ts.ttfl = buffer.getInt();
+                    ts.ttft = buffer.getInt();
+                    ts.dwf = buffer.getDouble();
+                    ts.dwt = buffer.getDouble();
+                    ts.us1 = buffer.getDouble();
+                    ts.us2 = buffer.getDouble();
+                    ts.us3 = buffer.getDouble();
+                    ts.lay = buffer.getDouble();
+                    ts.tdwt = buffer.getDouble();
+                    ts.tus1 = buffer.getDouble();
+                    ts.tus2 = buffer.getDouble();
+                    ts.tus3 = buffer.getDouble();
+                    ts.path = ( buffer.get() != 0 );
+                    ts.boardA = ( buffer.get() != 0 );
+                    ts.alightA = ( buffer.get() != 0 );
+                    ts.boardB = ( buffer.get() != 0 );
+                    ts.alightB = ( buffer.get() != 0 );
+                    ts.layover = ( buffer.get() != 0 );
+
+                    tr.transitPath[rte].add( ts );
+                }
+
+            }
+        }
+        catch (IOException e) {
+            logger.warn ( "IOException reading transit route cache file " + file.getAbsolutePath() + ", so route files will be read.", e );
+            return null;
+        }
+        catch (BufferUnderflowException e) {
+            logger.warn ( "transit route cache file " + file.getAbsolutePath() + " is incomplete, so route files will be read." );
+            return null;
+        }
+        finally {
+            if ( in != null ) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+
+        logger.info ( String.format("%d transit lines with %d total transit links read from transit route cache file %s.", tr.lineCount, tr.totalLinkCount, file.getAbsolutePath()) );
+
+        return tr;
+
+    }
+
+
+    /**
+     * Write the transit routes read from the route files to the cache file.  Nothing is written if any of the
+     * route files could not be read.
+     */
+    public void write ( NetworkHandlerIF nh, TrRoute tr ) {
+
+        if ( key == null || tr.getFileReadErrorCount() > 0 )
+            return;
+
+        File file = getFile();
+        File tempFile = null;
+
+        DataOutputStream out = null;
+        try {
+            tempFile = File.createTempFile( FILE_PREFIX + key + "_", ".tmp", new File( directory ) );
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) );
+
+            out.writeInt( MAGIC );
+            out.writeInt( LAYOUT_VERSION );
+            out.writeInt( tr.maxRoutes );
+            out.writeInt( tr.lineCount );
+            out.writeInt( tr.totalLinkCount );
+            out.writeInt( tr.builtPathCount );
+
+            if ( tr.builtPathCount > 0 ) {
+                byte[] pathCostDigest = getPathCostDigest( nh );
+                out.writeInt( pathCostDigest.length );
+                out.write( pathCostDigest );
+            }
+
+            for (int rte=0; rte < tr.lineCount; rte++) {
+
+                putString( out, tr.line[rte] );
+                putString( out, tr.description[rte] );
+                putString( out, tr.routeType[rte] );
+                out.writeChar( tr.mode[rte] );
+                out.writeInt( tr.vehType[rte] );
+                out.writeDouble( tr.headway[rte] );
+                out.writeDouble( tr.speed[rte] );
+                out.writeDouble( tr.ut1[rte] );
+                out.writeDouble( tr.ut2[rte] );
+                out.writeDouble( tr.ut3[rte] );
+
+                ArrayList segments = tr.transitPath[rte];
+                out.writeInt( segments.size() );
+                for (int i=0; i < segments.size(); i++) {
+
+                    TrSegment ts = (TrSegment)segments.get(i);
+
+                    out.writeInt( ts.rteIndex );
+                    out.writeInt( ts.an );
+                    out.writeInt( ts.bn );
+                    out.writeInt( ts.link );
+                    out.writeInt( ts.ttf );
+                    out.writeInt( ts.ttfl );
+                    out.writeInt( ts.ttft );
+                    out.writeDouble( ts.dwf );
+                    out.writeDouble( ts.dwt );
+                    out.writeDouble( ts.us1 );
+                    out.writeDouble( ts.us2 );
+                    out.writeDouble( ts.us3 );
+                    out.writeDouble( ts.lay );
+                    out.writeDouble( ts.tdwt );
+                    out.writeDouble( ts.tus1 );
+                    out.writeDouble( ts.tus2 );
+                    out.writeDouble( ts.tus3 );
+                    out.writeBoolean( ts.path );
+                    out.writeBoolean( ts.boardA );
+                    out.writeBoolean( ts.alightA );
+                    out.writeBoolean( ts.boardB );
+                    out.writeBoolean( ts.alightB );
+                    out.writeBoolean( ts.layover );
+                }
+
+            }
+
+            out.close();
+            out = null;
+        }
+        catch (IOException e) {
+            // the routes were read from the route files, so a cache file that can't be written only costs reading them again next time.
+            logger.warn ( "IOException writing transit route cache file " + ( tempFile == null ? file.getAbsolutePath() : tempFile.getAbsolutePath() ) + ".", e );
+            if ( tempFile != null )
+                tempFile.delete();
+            return;
+        }
+        finally {
+            if ( out != null ) {
+                try {
+                    out.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+
+        if ( ! tempFile.renameTo( file ) ) {
+            logger.warn ( "could not rename transit route cache file " + tempFile.getAbsolutePath() + " to " + file.getName() + "." );
+            tempFile.delete();
+            return;
+        }
+
+        logger.info ( String.format("wrote %d byte transit route cache file %s.", file.length(), file.getAbsolutePath()) );
+
+    }
+
+
+
+    private File getFile () {
+        return new File( directory, FILE_PREFIX + key + FILE_SUFFIX );
+    }
+
+
+    private String getKey ( NetworkHandlerIF nh ) {
+
+        MessageDigest md = getMessageDigest();
+
+        updateInts( md, new int[] { LAYOUT_VERSION, maxRoutes, fileNames.length } );
+        for (int i=0; i < rteTypes.length; i++) {
+            updateInts( md, new int[] { rteTypes[i].length() } );
+            md.update( rteTypes[i].getBytes() );
+        }
+
+        byte[] buffer = new byte[64*1024];
+        for (int i=0; i < fileNames.length; i++) {
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream( fileNames[i] );
+                long length = 0;
+                int n;
+                while ( ( n = in.read( buffer ) ) > 0 ) {
+                    md.update( buffer, 0, n );
+                    length += n;
+                }
+                updateInts( md, new int[] { (int)( length >>> 32 ), (int)length } );
+            }
+            catch (IOException e) {
+                logger.warn ( "IOException reading transit route file " + fileNames[i] + " to check for a transit route cache file.", e );
+                return null;
+            }
+            finally {
+                if ( in != null ) {
+                    try {
+                        in.close();
+                    }
+                    catch (IOException e) {
+                    }
+                }
+            }
+        }
+
+        // highway network version
+        updateInts( md, nh.getIa() );
+        updateInts( md, nh.getIb() );
+        updateInts( md, nh.getIndexNode() );
+        updateDoubles( md, nh.getDist() );
+
+        StringBuffer key = new StringBuffer();
+        byte[] digest = md.digest();
+        for (int i=0; i < digest.length; i++)
+            key.append( String.format("%02x", digest[i]) );
+
+        return key.toString();
+
+    }
+
+
+    private byte[] getPathCostDigest ( NetworkHandlerIF nh ) {
+
+        MessageDigest md = getMessageDigest();
+
+        updateDoubles( md, nh.setLinkGeneralizedCost() );
+
+        boolean[] validLinks = nh.getValidLinksForTransitPaths();
+        byte[] bytes = new byte[validLinks.length];
+        for (int k=0; k < validLinks.length; k++)
+            bytes[k] = (byte)( validLinks[k] ? 1 : 0 );
+        md.update( bytes );
+
+        return md.digest();
+
+    }
+
+
+    private static MessageDigest getMessageDigest () {
+        try {
+            return MessageDigest.getInstance( "MD5" );
+        }
+        catch (NoSuchAlgorithmException e) {
+            logger.error ( "MD5 message digest is not available.", e );
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    private static void updateInts ( MessageDigest md, int[] values ) {
+        ByteBuffer bytes = ByteBuffer.allocate( 4*values.length );
+        bytes.asIntBuffer().put( values );
+        md.update( bytes.array() );
+    }
+
+
+    private static void updateDoubles ( MessageDigest md, double[] values ) {
+        ByteBuffer bytes = ByteBuffer.allocate( 8*values.length );
+        bytes.asDoubleBuffer().put( values );
+        md.update( bytes.array() );
+    }
+
+
+    private static void putString ( DataOutputStream out, String value ) throws IOException {
+        if ( value == null ) {
+            out.writeInt( -1 );
+        }
+        else {
+            out.writeInt( value.length() );
+            out.writeChars( value );
+        }
+    }
+
+
+    private static String getString ( ByteBuffer buffer ) {
+        int length = buffer.getInt();
+        if ( length < 0 )
+            return null;
+        char[] chars = new char[length];
+        for (int i=0; i < length; i++)
+            chars[i] = buffer.getChar();
+        return new String( chars );
+    }
+
+}